@@ -0,0 +1,120 @@
+package com.eitel;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * End-to-end {@link UpRunFinder#findUpRun} against local price sources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FindUpRunBenchmark {
+
+    private static final String SYMBOL = "BENCH";
+
+    @Param({"1000", "100000", "10000000"})
+    public int rows;
+
+    @Param({"RANDOM_WALK"})
+    public SyntheticSeries.Shape shape;
+
+    @Param({"csv", "csv-pipelined", "binary", "archive", "memory"})
+    public String source;
+
+    private File directory;
+    private ExecutorService pipeline;
+    private UpRunFinder finder;
+    // One symbol per part of the series, each part dated within the years CSV can hold.
+    private String[] symbols;
+    private int[] startDates;
+    private int[] endDates;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<PriceSeries> parts = SyntheticSeries.splitForCsv(SyntheticSeries.generate(shape, rows, 42));
+        symbols = new String[parts.size()];
+        startDates = new int[parts.size()];
+        endDates = new int[parts.size()];
+        directory = Files.createTempDirectory("uprun-bench").toFile();
+        InMemoryPriceSource memory = new InMemoryPriceSource();
+
+        for (int i = 0; i < parts.size(); i++) {
+            PriceSeries series = parts.get(i);
+            symbols[i] = SYMBOL + i;
+            startDates[i] = series.date(0);
+            endDates[i] = series.date(series.size() - 1);
+            if (source.startsWith("csv")) {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(directory, symbols[i] + ".csv")))) {
+                    SyntheticSeries.writeCsv(series, out);
+                }
+            } else if (source.equals("binary")) {
+                PriceSeriesFile.write(new File(directory, symbols[i] + ".prices"), new int[0], BarSeries.of(series));
+            } else if (source.equals("archive")) {
+                PriceArchive.write(new File(directory, symbols[i] + ArchivePriceSource.SUFFIX), BarSeries.of(series));
+            } else {
+                memory.put(symbols[i], series);
+            }
+        }
+
+        if (source.equals("csv-pipelined")) {
+            // Parsing on one thread while the benchmark thread scans.
+            pipeline = Executors.newCachedThreadPool();
+            finder = new UpRunFinder(new PipelinedPriceSource(CsvPriceSource.forDirectory(directory), pipeline, 4096, 4));
+        } else if (source.equals("csv")) {
+            finder = new UpRunFinder(CsvPriceSource.forDirectory(directory));
+        } else if (source.equals("binary")) {
+            finder = new UpRunFinder(new BinaryPriceSource(directory));
+        } else if (source.equals("archive")) {
+            finder = new UpRunFinder(new ArchivePriceSource(directory));
+        } else {
+            finder = new UpRunFinder(memory);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Series longer than {@link SyntheticSeries#MAX_CSV_ROWS} are queried as one symbol per part.
+     */
+    @Benchmark
+    public void findUpRun(Blackhole blackhole) {
+        for (int i = 0; i < symbols.length; i++) {
+            blackhole.consume(finder.findUpRun(symbols[i], startDates[i], endDates[i]));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.eitel;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.collect.Lists;
+
+/**
+ * Longest up-runs of a universe of symbols over the same days: scanned together in a
+ * {@link PriceMatrix}, against one {@link UpRunFinder#processStockData(PriceSeries)} per symbol.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MatrixScanBenchmark {
+
+    @Param({"500"})
+    public int symbols;
+
+    // Ten years of trading days.
+    @Param({"2520"})
+    public int days;
+
+    @Param({"RANDOM_WALK", "TIES"})
+    public SyntheticSeries.Shape shape;
+
+    private final UpRunFinder finder = new UpRunFinder(new InMemoryPriceSource());
+
+    private List<PriceSeries> series;
+    private PriceMatrix matrix;
+
+    @Setup
+    public void setUp() {
+        series = Lists.newArrayListWithCapacity(symbols);
+        for (int s = 0; s < symbols; s++) {
+            series.add(SyntheticSeries.generate(shape, days, s));
+        }
+        matrix = PriceMatrix.align(series);
+    }
+
+    @Benchmark
+    public List<UpRunResult> matrixScan() {
+        return matrix.longestUpRuns();
+    }
+
+    @Benchmark
+    public void perSymbolScan(Blackhole blackhole) {
+        for (PriceSeries prices : series) {
+            blackhole.consume(finder.processStockData(prices));
+        }
+    }
+
+    /**
+     * Packing included, for universes that are scanned once.
+     */
+    @Benchmark
+    public List<UpRunResult> alignAndScan() {
+        return PriceMatrix.align(series).longestUpRuns();
+    }
+}
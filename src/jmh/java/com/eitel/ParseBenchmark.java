@@ -0,0 +1,99 @@
+package com.eitel;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing Yahoo-format CSV, alone and together with the up-run scan. Series longer than
+ * {@link SyntheticSeries#MAX_CSV_ROWS} are parsed as several CSV documents, one after another.
+ * CSV text for 100M rows does not fit in a 4 GB heap, so this stops at 10M rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParseBenchmark {
+
+    private static final PriceCsvParser PARSER = new PriceCsvParser(UpRunFinder.HEADER_DATE, UpRunFinder.HEADER_PRICE);
+
+    @Param({"1000", "100000", "10000000"})
+    public int rows;
+
+    @Param({"MONOTONE", "RANDOM_WALK", "TIES"})
+    public SyntheticSeries.Shape shape;
+
+    private byte[][] csv;
+
+    @Setup
+    public void setUp() {
+        List<PriceSeries> parts = SyntheticSeries.splitForCsv(SyntheticSeries.generate(shape, rows, 42));
+        csv = new byte[parts.size()][];
+        for (int i = 0; i < csv.length; i++) {
+            csv[i] = SyntheticSeries.toCsv(parts.get(i));
+        }
+    }
+
+    @Benchmark
+    public long parse() throws IOException {
+        ChecksumSink sink = new ChecksumSink();
+        for (byte[] part : csv) {
+            PARSER.parse(new ByteArrayInputStream(part), sink);
+        }
+        return sink.checksum;
+    }
+
+    /**
+     * Every field of each row, as the price cache stores them.
+     */
+    @Benchmark
+    public int parseBars() throws IOException {
+        int size = 0;
+        for (byte[] part : csv) {
+            BarSeries bars = new BarSeries(Math.min(rows, SyntheticSeries.MAX_CSV_ROWS));
+            PARSER.parse(new ByteArrayInputStream(part), bars);
+            size += bars.size();
+        }
+        return size;
+    }
+
+    /**
+     * Each CSV document is scanned on its own, as the longest up-run of its part.
+     */
+    @Benchmark
+    public void parseAndScan(Blackhole blackhole) throws IOException {
+        for (byte[] part : csv) {
+            UpRunScanner scanner = new UpRunScanner();
+            PARSER.parse(new ByteArrayInputStream(part), scanner);
+            blackhole.consume(scanner.result());
+        }
+    }
+
+    /**
+     * Consumes rows without storing them, so only parsing is measured.
+     */
+    private static final class ChecksumSink implements PriceSink {
+        long checksum;
+
+        @Override
+        public void accept(int date, long price) {
+            checksum += date ^ price;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.eitel;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.eitel.UpRunFinder.UpRunResult;
+
+/**
+ * The up-run scan over an in-memory series, and the percent change computed for its result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ScanBenchmark {
+
+    @Param({"1000", "100000", "10000000", "100000000"})
+    public int rows;
+
+    @Param({"MONOTONE", "RANDOM_WALK", "TIES"})
+    public SyntheticSeries.Shape shape;
+
+    private final ForkJoinPool pool = new ForkJoinPool();
+    private final UpRunFinder finder = new UpRunFinder(new InMemoryPriceSource()).withScanPool(pool);
+
+    private PriceSeries series;
+
+    private final BigDecimal startPrice = new BigDecimal("34.73");
+    private final BigDecimal endPrice = new BigDecimal("37.17");
+
+    @Setup
+    public void setUp() {
+        series = SyntheticSeries.generate(shape, rows, 42);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Parallel on all cores above {@link UpRunFinder#PARALLEL_CHUNK_ROWS} rows.
+     */
+    @Benchmark
+    public UpRunResult scan() {
+        return finder.processStockData(series);
+    }
+
+    @Benchmark
+    public UpRunResult sequentialScan() {
+        UpRunScanner scanner = new UpRunScanner();
+        series.replayNewestFirst(scanner);
+        return scanner.result();
+    }
+
+    /**
+     * Longest up-run in the trailing year of every day.
+     */
+    @Benchmark
+    public void rolling(final Blackhole blackhole) {
+        series.replay(new RollingUpRuns(252, new RollingUpRuns.Listener() {
+            @Override
+            public void onDay(int date, int currentDuration, int startDate, int endDate, int duration, long startPrice, long endPrice) {
+                blackhole.consume(duration);
+            }
+        }));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double computePercentChange() {
+        return UpRunFinder.computePercentChange(startPrice, endPrice);
+    }
+}
@@ -0,0 +1,118 @@
+package com.eitel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Generates price histories of a given shape for the benchmarks.
+ */
+public final class SyntheticSeries {
+
+    public enum Shape {
+        /** Prices only go up: the whole series is a single up-run. */
+        MONOTONE,
+        /** Random walk with small daily moves: many short runs. */
+        RANDOM_WALK,
+        /** Few distinct price levels: many equal prices and runs of equal length. */
+        TIES
+    }
+
+    private static final int FIRST_DATE = EpochDays.of(1900, 1, 1);
+    // CSV dates have four-digit years.
+    private static final int LAST_CSV_DATE = EpochDays.of(9999, 12, 31);
+
+    /** Rows of the longest series that can be written as CSV, about 2.95M. */
+    static final int MAX_CSV_ROWS = LAST_CSV_DATE - FIRST_DATE + 1;
+
+    private SyntheticSeries() {
+    }
+
+    /**
+     * Chronologically ordered series with one row per calendar day. Series longer than
+     * {@link #MAX_CSV_ROWS} run past the year 9999 and must be {@linkplain #splitForCsv split} to be
+     * written as CSV.
+     */
+    static PriceSeries generate(Shape shape, int rows, long seed) {
+        Random random = new Random(seed);
+        int[] dates = new int[rows];
+        long[] prices = new long[rows];
+        long price = 50000000L; // 50.00
+        for (int i = 0; i < rows; i++) {
+            switch (shape) {
+                case MONOTONE:
+                    price += 1 + random.nextInt(10000);
+                    break;
+                case RANDOM_WALK:
+                    price = Math.max(10000L, price + random.nextInt(1000001) - 500000);
+                    break;
+                case TIES:
+                    price = 10000000L * (1 + random.nextInt(3));
+                    break;
+                default:
+                    throw new AssertionError(shape);
+            }
+            dates[i] = FIRST_DATE + i;
+            prices[i] = price;
+        }
+        return new PriceSeries(dates, prices, rows);
+    }
+
+    /**
+     * The series in consecutive parts of at most {@link #MAX_CSV_ROWS} rows, each dated from the same
+     * first day, so that every part can be written as CSV. Prices are unchanged.
+     */
+    static List<PriceSeries> splitForCsv(PriceSeries series) {
+        List<PriceSeries> parts = Lists.newArrayList();
+        for (int from = 0; from < series.size(); from += MAX_CSV_ROWS) {
+            int size = Math.min(MAX_CSV_ROWS, series.size() - from);
+            int[] dates = new int[size];
+            long[] prices = new long[size];
+            for (int i = 0; i < size; i++) {
+                dates[i] = FIRST_DATE + i;
+                prices[i] = series.price(from + i);
+            }
+            parts.add(new PriceSeries(dates, prices, size));
+        }
+        return parts;
+    }
+
+    /**
+     * The series as Yahoo-format CSV, newest row first.
+     * @throws IllegalArgumentException if the series is dated past the year 9999
+     */
+    static byte[] toCsv(PriceSeries series) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(series.size() * 64 + 64);
+        try {
+            writeCsv(series, out);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the series is dated past the year 9999
+     */
+    static void writeCsv(PriceSeries series, OutputStream out) throws IOException {
+        if (series.size() > 0 && series.date(series.size() - 1) > LAST_CSV_DATE) {
+            throw new IllegalArgumentException(String.format("Series of %d rows is dated past the year 9999; "
+                    + "split it into parts of at most %d rows", series.size(), MAX_CSV_ROWS));
+        }
+        out.write("Date,Open,High,Low,Close,Volume,Adj Close\n".getBytes(StandardCharsets.US_ASCII));
+        StringBuilder line = new StringBuilder(64);
+        for (int i = series.size() - 1; i >= 0; i--) {
+            String price = PriceSeries.toBigDecimal(series.price(i)).toPlainString();
+            line.setLength(0);
+            line.append(EpochDays.format(series.date(i))).append(',')
+                    .append(price).append(',').append(price).append(',').append(price).append(',').append(price)
+                    .append(",1000000,").append(price).append('\n');
+            out.write(line.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.eitel;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Prices from {@link PriceArchive}s, one {@code <SYMBOL>.upa} file per stock symbol, as written by
+ * {@link #export}.
+ */
+final class ArchivePriceSource implements PriceSource {
+
+    static final String SUFFIX = ".upa";
+
+    private final File directory;
+
+    ArchivePriceSource(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void load(String stockSymbol, int startDate, int endDate, BarSink sink) throws IOException {
+        File file = file(directory, stockSymbol);
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        PriceArchive.open(file).replay(startDate, endDate, sink);
+    }
+
+    /**
+     * Archive the stock's prices within {@code [startDate, endDate]} from another source into the
+     * directory, replacing any earlier archive of the stock.
+     * @return the number of rows archived
+     */
+    static int export(PriceSource source, String stockSymbol, int startDate, int endDate, File directory) throws IOException {
+        BarSeries series = BarSeries.load(source, stockSymbol, startDate, endDate);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        PriceArchive.write(file(directory, stockSymbol), series);
+        return series.size();
+    }
+
+    private static File file(File directory, String stockSymbol) {
+        return new File(directory, stockSymbol.toUpperCase(Locale.ROOT) + SUFFIX);
+    }
+}
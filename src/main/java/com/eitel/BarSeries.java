@@ -0,0 +1,230 @@
+package com.eitel;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Columnar daily bars (every {@link PriceField}) for a single stock in chronological order.
+ *
+ * Each field is its own primitive array, so the prices of one field are available as a
+ * {@link PriceSeries} without copying.
+ */
+final class BarSeries implements BarSink {
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private int[] dates;
+    private final long[][] columns;
+    private int size;
+
+    BarSeries() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    BarSeries(int capacity) {
+        this.dates = new int[Math.max(capacity, 1)];
+        this.columns = new long[PriceField.COUNT][Math.max(capacity, 1)];
+    }
+
+    /**
+     * Wrap existing arrays without copying.
+     * @param columns one array per field, indexed by {@link PriceField#ordinal()}
+     */
+    BarSeries(int[] dates, long[][] columns, int size) {
+        if (columns.length != PriceField.COUNT) {
+            throw new IllegalArgumentException("Expected " + PriceField.COUNT + " columns");
+        }
+        for (long[] column : columns) {
+            if (column.length < size) {
+                throw new IllegalArgumentException("Arrays are shorter than the series size");
+            }
+        }
+        if (dates.length < size) {
+            throw new IllegalArgumentException("Arrays are shorter than the series size");
+        }
+        this.dates = dates;
+        this.columns = columns;
+        this.size = size;
+    }
+
+    /**
+     * Bars whose price fields all hold the prices of the series, for sources that only know one
+     * price per day. Volume is {@link #MISSING}. The price fields share one array, so the result
+     * must not be modified.
+     */
+    static BarSeries of(PriceSeries prices) {
+        int[] dates = new int[prices.size()];
+        long[] values = new long[prices.size()];
+        for (int i = 0; i < prices.size(); i++) {
+            dates[i] = prices.date(i);
+            values[i] = prices.price(i);
+        }
+        long[] missing = new long[prices.size()];
+        Arrays.fill(missing, MISSING);
+        long[][] columns = new long[PriceField.COUNT][];
+        for (PriceField field : PriceField.values()) {
+            columns[field.ordinal()] = field == PriceField.VOLUME ? missing : values;
+        }
+        return new BarSeries(dates, columns, prices.size());
+    }
+
+    void add(int date, long[] values) {
+        if (size == dates.length) {
+            int capacity = size + (size >> 1) + 1;
+            dates = Arrays.copyOf(dates, capacity);
+            for (int field = 0; field < columns.length; field++) {
+                columns[field] = Arrays.copyOf(columns[field], capacity);
+            }
+        }
+        dates[size] = date;
+        for (int field = 0; field < columns.length; field++) {
+            columns[field][size] = values[field];
+        }
+        size++;
+    }
+
+    @Override
+    public void accept(int date, long[] values) {
+        add(date, values);
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    int date(int index) {
+        return this.dates[index];
+    }
+
+    long value(PriceField field, int index) {
+        return this.columns[field.ordinal()][index];
+    }
+
+    /**
+     * The values of one field, sharing this series' arrays. Neither series may be modified afterwards.
+     */
+    PriceSeries prices(PriceField field) {
+        return new PriceSeries(dates, columns[field.ordinal()], size);
+    }
+
+    /**
+     * Load a chronologically ordered series of every field from a source.
+     */
+    static BarSeries load(PriceSource source, String stockSymbol, int startDate, int endDate) throws IOException {
+        BarSeries series = new BarSeries();
+        source.load(stockSymbol, startDate, endDate, series);
+        series.orderChronologically();
+        return series;
+    }
+
+    /**
+     * Deliver the bars dated within {@code [startDate, endDate]} to the sink, newest first. A
+     * {@link PriceField.Projection} receives its field directly.
+     */
+    void replayNewestFirst(int startDate, int endDate, BarSink sink) {
+        int from = lowerBound(startDate);
+        int to = lowerBound(endDate + 1);
+        if (sink instanceof PriceField.Projection) {
+            PriceField.Projection projection = (PriceField.Projection) sink;
+            long[] column = columns[projection.field.ordinal()];
+            for (int i = to - 1; i >= from; i--) {
+                projection.accept(dates[i], column[i]);
+            }
+            return;
+        }
+        long[] values = new long[PriceField.COUNT];
+        for (int i = to - 1; i >= from; i--) {
+            for (int field = 0; field < columns.length; field++) {
+                values[field] = columns[field][i];
+            }
+            sink.accept(dates[i], values);
+        }
+    }
+
+    /**
+     * Index of the first row dated on or after the given epoch day, or {@link #size()} if there is none.
+     */
+    int lowerBound(int date) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dates[mid] < date) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Copy of the rows dated within {@code [startDate, endDate]}, inclusive.
+     */
+    BarSeries slice(int startDate, int endDate) {
+        int from = lowerBound(startDate);
+        int to = Math.max(from, lowerBound(endDate + 1));
+        long[][] sliced = new long[PriceField.COUNT][];
+        for (int field = 0; field < columns.length; field++) {
+            sliced[field] = Arrays.copyOfRange(columns[field], from, to);
+        }
+        return new BarSeries(Arrays.copyOfRange(dates, from, to), sliced, to - from);
+    }
+
+    /**
+     * Merge two chronologically ordered series. Rows of {@code newer} replace rows of {@code older}
+     * that share the same date.
+     */
+    static BarSeries merge(BarSeries older, BarSeries newer) {
+        BarSeries merged = new BarSeries(older.size + newer.size);
+        long[] values = new long[PriceField.COUNT];
+        int i = 0;
+        int j = 0;
+        while (i < older.size || j < newer.size) {
+            if (j == newer.size || (i < older.size && older.dates[i] < newer.dates[j])) {
+                merged.add(older.dates[i], older.row(i, values));
+                i++;
+            } else {
+                if (i < older.size && older.dates[i] == newer.dates[j]) {
+                    i++;
+                }
+                merged.add(newer.dates[j], newer.row(j, values));
+                j++;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Reverse the series in place if it was collected from rows delivered newest first.
+     */
+    void orderChronologically() {
+        if (size > 1 && dates[0] > dates[size - 1]) {
+            reverse();
+        }
+    }
+
+    /**
+     * Reverse the series in place. Used to restore chronological order after loading from a source
+     * that returns the newest rows first.
+     */
+    void reverse() {
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            int date = dates[i];
+            dates[i] = dates[j];
+            dates[j] = date;
+            for (long[] column : columns) {
+                long value = column[i];
+                column[i] = column[j];
+                column[j] = value;
+            }
+        }
+    }
+
+    private long[] row(int index, long[] values) {
+        for (int field = 0; field < columns.length; field++) {
+            values[field] = columns[field][index];
+        }
+        return values;
+    }
+}
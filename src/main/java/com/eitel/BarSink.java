@@ -0,0 +1,17 @@
+package com.eitel;
+
+/**
+ * Receives daily bars one at a time, as primitives, while a source is being parsed.
+ */
+interface BarSink {
+
+    /** Value of a field the source does not have. */
+    long MISSING = Long.MIN_VALUE;
+
+    /**
+     * @param date epoch day of the row
+     * @param values fixed-point values indexed by {@link PriceField#ordinal()}, or {@link #MISSING};
+     *        the array is reused for the next row and must not be kept
+     */
+    void accept(int date, long[] values);
+}
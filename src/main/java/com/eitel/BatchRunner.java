@@ -0,0 +1,150 @@
+package com.eitel;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.base.Function;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs many up-run queries in one JVM. Each job's price history is retrieved on a pool sized for
+ * I/O and scanned on a pool sized for the CPU, and results are written as soon as each job
+ * finishes. A failing job is reported and does not stop the rest of the batch.
+ *
+ * Input has one job per line: {@code SYMBOL START END} with dates in the format MM-dd-YYYY,
+ * separated by whitespace or commas. Blank lines and lines starting with {@code #} are ignored.
+ */
+final class BatchRunner {
+
+    private static final Splitter FIELD_SPLITTER = Splitter.onPattern("[\\s,]+").omitEmptyStrings();
+
+    private final UpRunFinder finder;
+    private final ListeningExecutorService ioExecutor;
+    private final ListeningExecutorService cpuExecutor;
+    private final int maxJobsInFlight;
+
+    BatchRunner(UpRunFinder finder, int ioThreads, int cpuThreads) {
+        this.finder = finder;
+        this.ioExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(ioThreads,
+                new ThreadFactoryBuilder().setNameFormat("uprun-io-%d").setDaemon(true).build()));
+        this.cpuExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(cpuThreads,
+                new ThreadFactoryBuilder().setNameFormat("uprun-cpu-%d").setDaemon(true).build()));
+        // Bounds the number of retrieved but not yet scanned histories held in memory.
+        this.maxJobsInFlight = 2 * (ioThreads + cpuThreads);
+    }
+
+    /**
+     * Run every job of the input, writing results to {@code out} and failures to {@code err} as jobs finish.
+     * @return number of jobs that failed
+     */
+    int run(BufferedReader input, final PrintStream out, final PrintStream err) throws IOException, InterruptedException {
+        final AtomicInteger failures = new AtomicInteger();
+        final Semaphore inFlight = new Semaphore(maxJobsInFlight);
+
+        String line;
+        int lineNumber = 0;
+        while ((line = input.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            final Job job;
+            try {
+                job = Job.parse(line);
+            } catch (IllegalArgumentException e) {
+                failures.incrementAndGet();
+                synchronized (err) {
+                    err.println(String.format("Line %d: incorrectly formatted input provided: %s", lineNumber, line));
+                }
+                continue;
+            }
+
+            inFlight.acquire();
+            ListenableFuture<PriceSeries> loaded = ioExecutor.submit(new Callable<PriceSeries>() {
+                @Override
+                public PriceSeries call() {
+                    return finder.loadStockData(job.stockSymbol, job.startDate, job.endDate);
+                }
+            });
+            ListenableFuture<UpRunResult> scanned = Futures.transform(loaded, new Function<PriceSeries, UpRunResult>() {
+                @Override
+                public UpRunResult apply(PriceSeries series) {
+                    return finder.processStockData(series);
+                }
+            }, cpuExecutor);
+            Futures.addCallback(scanned, new FutureCallback<UpRunResult>() {
+                @Override
+                public void onSuccess(UpRunResult result) {
+                    synchronized (out) {
+                        out.println(String.format("%s,%s,%s,%s,%s", job.stockSymbol, EpochDays.format(result.startDate),
+                                EpochDays.format(result.endDate), result.duration, result.percentChange));
+                    }
+                    inFlight.release();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    failures.incrementAndGet();
+                    synchronized (err) {
+                        err.println(String.format("%s: %s", job.stockSymbol, describe(job, t)));
+                    }
+                    inFlight.release();
+                }
+            });
+        }
+
+        // Wait until every job has reported.
+        inFlight.acquire(maxJobsInFlight);
+        inFlight.release(maxJobsInFlight);
+        return failures.get();
+    }
+
+    void shutdown() {
+        ioExecutor.shutdown();
+        cpuExecutor.shutdown();
+    }
+
+    private static String describe(Job job, Throwable t) {
+        if (t instanceof InvalidStockSymbolException) {
+            return String.format("Invalid stock symbol provided: %s", job.stockSymbol);
+        } else if (t instanceof IllegalArgumentException) {
+            return "Invalid arguments provided.";
+        }
+        return String.format("Failed: %s", t);
+    }
+
+    private static class Job {
+        final String stockSymbol;
+        final int startDate;
+        final int endDate;
+
+        Job(String stockSymbol, int startDate, int endDate) {
+            this.stockSymbol = stockSymbol;
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+
+        static Job parse(String line) {
+            String[] fields = Iterables.toArray(FIELD_SPLITTER.split(line), String.class);
+            if (fields.length != 3) {
+                throw new IllegalArgumentException(line);
+            }
+            return new Job(fields[0], Main.parseDate(fields[1]), Main.parseDate(fields[2]));
+        }
+    }
+}
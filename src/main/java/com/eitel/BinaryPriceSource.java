@@ -0,0 +1,55 @@
+package com.eitel;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Prices from memory-mapped {@link PriceSeriesFile}s, one {@code <SYMBOL>.prices} file per stock
+ * symbol. A {@link PriceCache} directory can be used directly. Files larger than
+ * {@link #SEGMENTED_BYTES} are read through {@link SegmentedPriceSeriesFile} windows instead of
+ * being mapped whole.
+ */
+final class BinaryPriceSource implements PriceSource {
+
+    /** 256 MB, about 5M rows. */
+    static final long SEGMENTED_BYTES = 256L * 1024 * 1024;
+
+    private final File directory;
+    private final long segmentedBytes;
+    private final int segmentRows;
+    private final Metrics metrics;
+
+    BinaryPriceSource(File directory) {
+        this(directory, Metrics.DISABLED);
+    }
+
+    BinaryPriceSource(File directory, Metrics metrics) {
+        this(directory, SEGMENTED_BYTES, SegmentedPriceSeriesFile.DEFAULT_SEGMENT_ROWS, metrics);
+    }
+
+    /**
+     * @param segmentedBytes size from which files are read one window at a time
+     * @param segmentRows number of rows in each window
+     */
+    BinaryPriceSource(File directory, long segmentedBytes, int segmentRows, Metrics metrics) {
+        this.directory = directory;
+        this.segmentedBytes = segmentedBytes;
+        this.segmentRows = segmentRows;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void load(String stockSymbol, int startDate, int endDate, BarSink sink) throws IOException {
+        File file = new File(directory, stockSymbol.toUpperCase(Locale.ROOT) + ".prices");
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        if (file.length() >= segmentedBytes) {
+            SegmentedPriceSeriesFile.open(file, segmentRows, metrics).replayNewestFirst(startDate, endDate, sink);
+        } else {
+            PriceSeriesFile.map(file).replayNewestFirst(startDate, endDate, sink);
+        }
+    }
+}
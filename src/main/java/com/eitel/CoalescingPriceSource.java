@@ -0,0 +1,236 @@
+package com.eitel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Shares loads of another {@link PriceSource} between concurrent requests for the same symbol.
+ *
+ * A request whose range overlaps loads already in flight for the symbol waits for them and takes
+ * its own rows out of their results, instead of fetching and parsing the same rows again; only the
+ * dates none of them cover are loaded, by the request itself, and shared in turn. Loads for
+ * a single {@link PriceField.Projection} only read that field and are shared with requests for the
+ * same field; other loads read every field and are shared with every request. Nothing is kept once a
+ * load completes: this deduplicates bursts, caching is left to {@link MemoryPriceCache} and
+ * {@link PriceCache}.
+ *
+ * At most a fixed number of loads run on the underlying source at once; further loads wait for one
+ * to finish, so that bursts of distinct symbols do not open a connection each. A request interrupted
+ * while waiting fails alone: requests that share the loads it was to run load those dates again.
+ */
+final class CoalescingPriceSource implements PriceSource {
+
+    private static final Object ABANDONED = new Object();
+
+    private final PriceSource source;
+    private final Semaphore permits;
+    // Loads in flight by symbol, guarded by this.
+    private final Map<String, List<Flight>> flights = Maps.newHashMap();
+    private final Metrics.Counter loads;
+    private final Metrics.Counter joined;
+
+    /**
+     * @param maxConcurrentLoads loads running on the underlying source at the same time
+     */
+    CoalescingPriceSource(PriceSource source, int maxConcurrentLoads) {
+        this(source, maxConcurrentLoads, Metrics.DISABLED);
+    }
+
+    /**
+     * @param metrics counts loads of the underlying source ({@code coalesce.loads}) and requests that
+     *        shared a load in flight ({@code coalesce.joined})
+     */
+    CoalescingPriceSource(PriceSource source, int maxConcurrentLoads, Metrics metrics) {
+        this.source = source;
+        this.permits = new Semaphore(maxConcurrentLoads, true);
+        this.loads = metrics.counter("coalesce.loads");
+        this.joined = metrics.counter("coalesce.joined");
+    }
+
+    @Override
+    public void load(String stockSymbol, int startDate, int endDate, BarSink sink) throws IOException {
+        PriceField field = sink instanceof PriceField.Projection ? ((PriceField.Projection) sink).field : null;
+        String key = stockSymbol.toUpperCase(Locale.ROOT);
+
+        // The range split into shares of flights, newest first, and the flights this request leads.
+        List<Share> shares = Lists.newArrayList();
+        List<Flight> led = Lists.newArrayList();
+        synchronized (this) {
+            List<Flight> inFlight = flights.get(key);
+            if (inFlight == null) {
+                inFlight = Lists.newArrayList();
+                flights.put(key, inFlight);
+            }
+            for (long cursor = endDate; cursor >= startDate; ) {
+                int to = (int) cursor;
+                Flight flight = covering(inFlight, field, to);
+                int from;
+                if (flight != null) {
+                    from = Math.max(startDate, flight.startDate);
+                } else {
+                    // Only the dates up to the next flight below are missing.
+                    from = Math.max(startDate, lastEndBefore(inFlight, field, to) + 1);
+                    flight = new Flight(field, from, to);
+                    inFlight.add(flight);
+                    led.add(flight);
+                }
+                shares.add(new Share(flight, from, to));
+                cursor = from - 1L;
+            }
+        }
+
+        if (shares.size() > led.size()) {
+            joined.increment();
+        }
+        // Every flight led is loaded before waiting for others, which may be waiting for these.
+        for (int i = 0; i < led.size(); i++) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                // Only this request fails: the requests sharing its flights load them again.
+                for (Flight flight : led.subList(i, led.size())) {
+                    land(key, flight);
+                    flight.rows.set(ABANDONED);
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            fly(stockSymbol, key, led.get(i));
+        }
+        for (Share share : shares) {
+            if (!share.flight.replay(share.startDate, share.endDate, sink)) {
+                load(stockSymbol, share.startDate, share.endDate, sink);
+            }
+        }
+    }
+
+    /**
+     * The flight serving the field that covers the given date and reaches furthest back, if any.
+     */
+    private static Flight covering(List<Flight> inFlight, PriceField field, int date) {
+        Flight covering = null;
+        for (Flight flight : inFlight) {
+            if (flight.serves(field) && flight.startDate <= date && date <= flight.endDate
+                    && (covering == null || flight.startDate < covering.startDate)) {
+                covering = flight;
+            }
+        }
+        return covering;
+    }
+
+    /**
+     * The last end date before the given one of the flights serving the field, or
+     * {@link Integer#MIN_VALUE} if there is none.
+     */
+    private static int lastEndBefore(List<Flight> inFlight, PriceField field, int date) {
+        int lastEnd = Integer.MIN_VALUE;
+        for (Flight flight : inFlight) {
+            if (flight.serves(field) && flight.endDate < date) {
+                lastEnd = Math.max(lastEnd, flight.endDate);
+            }
+        }
+        return lastEnd;
+    }
+
+    /**
+     * Load a flight while holding a permit, which is released.
+     */
+    private void fly(String stockSymbol, String key, Flight flight) {
+        loads.increment();
+        try {
+            if (flight.field == null) {
+                flight.rows.set(BarSeries.load(source, stockSymbol, flight.startDate, flight.endDate));
+            } else {
+                flight.rows.set(PriceSeries.load(source, stockSymbol, flight.field, flight.startDate, flight.endDate));
+            }
+        } catch (Throwable t) {
+            flight.rows.setException(t);
+        } finally {
+            permits.release();
+            land(key, flight);
+        }
+    }
+
+    /**
+     * Stop sharing a flight with new requests.
+     */
+    private synchronized void land(String key, Flight flight) {
+        List<Flight> inFlight = flights.get(key);
+        inFlight.remove(flight);
+        if (inFlight.isEmpty()) {
+            flights.remove(key);
+        }
+    }
+
+    /**
+     * Part of a request served by a flight.
+     */
+    private static final class Share {
+        final Flight flight;
+        final int startDate;
+        final int endDate;
+
+        Share(Flight flight, int startDate, int endDate) {
+            this.flight = flight;
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+    }
+
+    private static final class Flight {
+        final PriceField field;
+        final int startDate;
+        final int endDate;
+        // A BarSeries when every field is loaded, a chronologically ordered PriceSeries otherwise, or
+        // ABANDONED if the leader was interrupted before loading.
+        final SettableFuture<Object> rows = SettableFuture.create();
+
+        Flight(PriceField field, int startDate, int endDate) {
+            this.field = field;
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+
+        boolean serves(PriceField field) {
+            return this.field == null || this.field == field;
+        }
+
+        /**
+         * @return false if the flight was abandoned, so that nothing was replayed
+         */
+        boolean replay(int startDate, int endDate, BarSink sink) throws IOException {
+            Object loaded;
+            try {
+                loaded = Uninterruptibles.getUninterruptibly(rows);
+            } catch (ExecutionException e) {
+                Throwables.propagateIfPossible(e.getCause(), IOException.class);
+                throw Throwables.propagate(e.getCause());
+            }
+            if (loaded == ABANDONED) {
+                return false;
+            } else if (loaded instanceof BarSeries) {
+                ((BarSeries) loaded).replayNewestFirst(startDate, endDate, sink);
+                return true;
+            }
+            PriceSeries prices = (PriceSeries) loaded;
+            PriceField.Projection projection = (PriceField.Projection) sink;
+            int from = prices.lowerBound(startDate);
+            int to = prices.lowerBound(endDate + 1);
+            for (int i = to - 1; i >= from; i--) {
+                projection.accept(prices.date(i), prices.price(i));
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.eitel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Prices from local CSV files in Yahoo's format. Rows may be in either chronological or reverse
+ * chronological order, and are delivered in the order of the file.
+ */
+abstract class CsvPriceSource implements PriceSource {
+
+    private static final PriceCsvParser PARSER = new PriceCsvParser(UpRunFinder.HEADER_DATE, UpRunFinder.HEADER_PRICE);
+
+    private final Metrics metrics;
+    private final Metrics.Timer parse;
+    private final Metrics.Counter rows;
+
+    /**
+     * @param metrics records the bytes read, the time spent parsing them ({@code parse}, which
+     *        includes reading) and the rows parsed
+     */
+    CsvPriceSource(Metrics metrics) {
+        this.metrics = metrics;
+        this.parse = metrics.timer("parse");
+        this.rows = metrics.counter("parse.rows");
+    }
+
+    /**
+     * Use a single CSV file for every stock symbol.
+     */
+    static CsvPriceSource forFile(File file) {
+        return forFile(file, Metrics.DISABLED);
+    }
+
+    static CsvPriceSource forFile(final File file, Metrics metrics) {
+        return new CsvPriceSource(metrics) {
+            @Override
+            InputStream open(String stockSymbol) throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+    }
+
+    /**
+     * Use the file {@code <SYMBOL>.csv} in the directory for each stock symbol.
+     */
+    static CsvPriceSource forDirectory(File directory) {
+        return forDirectory(directory, Metrics.DISABLED);
+    }
+
+    static CsvPriceSource forDirectory(final File directory, Metrics metrics) {
+        return new CsvPriceSource(metrics) {
+            @Override
+            InputStream open(String stockSymbol) throws IOException {
+                return new FileInputStream(new File(directory, fileName(stockSymbol)));
+            }
+        };
+    }
+
+    /**
+     * Use the resource {@code <prefix>/<SYMBOL>.csv} on the classpath for each stock symbol.
+     */
+    static CsvPriceSource forClasspath(String prefix) {
+        return forClasspath(prefix, Metrics.DISABLED);
+    }
+
+    static CsvPriceSource forClasspath(final String prefix, Metrics metrics) {
+        return new CsvPriceSource(metrics) {
+            @Override
+            InputStream open(String stockSymbol) throws IOException {
+                String resource = prefix + "/" + fileName(stockSymbol);
+                InputStream in = CsvPriceSource.class.getResourceAsStream(resource.startsWith("/") ? resource : "/" + resource);
+                if (in == null) {
+                    throw new FileNotFoundException(resource);
+                }
+                return in;
+            }
+        };
+    }
+
+    /**
+     * Open the CSV for a stock symbol.
+     * @throws FileNotFoundException if there is none
+     */
+    abstract InputStream open(String stockSymbol) throws IOException;
+
+    /**
+     * Streams the rows within the range in the order of the file, without holding the file in memory.
+     */
+    @Override
+    public void load(String stockSymbol, final int startDate, final int endDate, final BarSink sink) throws IOException {
+        BarSink filter;
+        if (sink instanceof PriceField.Projection) {
+            // Keep the projection visible to the parser, so that only its column is parsed.
+            final PriceField.Projection projection = (PriceField.Projection) sink;
+            filter = projection.field.project(new PriceSink() {
+                @Override
+                public void accept(int date, long price) {
+                    if (date >= startDate && date <= endDate) {
+                        projection.sink.accept(date, price);
+                    }
+                }
+            });
+        } else {
+            filter = new BarSink() {
+                @Override
+                public void accept(int date, long[] values) {
+                    if (date >= startDate && date <= endDate) {
+                        sink.accept(date, values);
+                    }
+                }
+            };
+        }
+        try (InputStream in = metrics.meter(open(stockSymbol))) {
+            Metrics.Sample parsing = parse.start();
+            try {
+                rows.add(PARSER.parse(in, filter));
+            } finally {
+                parsing.stop();
+            }
+        }
+    }
+
+    private static String fileName(String stockSymbol) {
+        if (stockSymbol.indexOf('/') >= 0 || stockSymbol.indexOf('\\') >= 0) {
+            throw new InvalidStockSymbolException(new IllegalArgumentException(stockSymbol));
+        }
+        return stockSymbol.toUpperCase(Locale.ROOT) + ".csv";
+    }
+}
@@ -0,0 +1,159 @@
+package com.eitel;
+
+import org.joda.time.DateTime;
+
+/**
+ * Conversions between calendar dates and epoch days (days since 1970-01-01), the compact
+ * representation used for dates inside {@link PriceSeries}.
+ */
+final class EpochDays {
+
+    private EpochDays() {
+    }
+
+    /**
+     * Convert a proleptic Gregorian date to its epoch day.
+     * @param year
+     * @param month 1 to 12
+     * @param day 1 to 31
+     */
+    static int of(int year, int month, int day) {
+        // Days-from-civil algorithm: shift the year to start in March so leap days fall at the end.
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Epoch day of the calendar date of a date-time, in its own time zone.
+     */
+    static int of(DateTime date) {
+        return of(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth());
+    }
+
+    /**
+     * Parse a date in the format yyyy-MM-dd (as used by Yahoo's CSV feed).
+     */
+    static int parseIso(CharSequence date) {
+        if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+            throw new IllegalArgumentException("Expected a date in the format yyyy-MM-dd: " + date);
+        }
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 7);
+        int day = digits(date, 8, 10);
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            throw new IllegalArgumentException("Invalid date: " + date);
+        }
+        return of(year, month, day);
+    }
+
+    /**
+     * Parse a date in the format MM-dd-yyyy (as given on the command line). Month and day may have
+     * one or two digits, the year has four; dates that do not exist, such as 02-30-2014, are rejected.
+     */
+    static int parseMonthDayYear(CharSequence date) {
+        int firstDash = indexOf(date, '-', 0);
+        int secondDash = indexOf(date, '-', firstDash + 1);
+        if (firstDash < 1 || firstDash > 2 || secondDash - firstDash < 2 || secondDash - firstDash > 3
+                || date.length() - secondDash != 5) {
+            throw new IllegalArgumentException("Expected a date in the format MM-dd-yyyy: " + date);
+        }
+        int month = digits(date, 0, firstDash);
+        int day = digits(date, firstDash + 1, secondDash);
+        int year = digits(date, secondDash + 1, date.length());
+        int epochDay = of(year, month, day);
+        if (toCivil(epochDay) != (year << 9 | month << 5 | day) || month == 0 || day == 0) {
+            throw new IllegalArgumentException("Invalid date: " + date);
+        }
+        return epochDay;
+    }
+
+    /**
+     * Format an epoch day as yyyy-MM-dd.
+     */
+    static String format(int epochDay) {
+        int civil = toCivil(epochDay);
+        int year = civil >> 9;
+        int month = (civil >> 5) & 0xF;
+        int day = civil & 0x1F;
+
+        char[] chars = new char[10];
+        chars[0] = (char) ('0' + year / 1000 % 10);
+        chars[1] = (char) ('0' + year / 100 % 10);
+        chars[2] = (char) ('0' + year / 10 % 10);
+        chars[3] = (char) ('0' + year % 10);
+        chars[4] = '-';
+        chars[5] = (char) ('0' + month / 10);
+        chars[6] = (char) ('0' + month % 10);
+        chars[7] = '-';
+        chars[8] = (char) ('0' + day / 10);
+        chars[9] = (char) ('0' + day % 10);
+        return new String(chars);
+    }
+
+    static int year(int epochDay) {
+        return toCivil(epochDay) >> 9;
+    }
+
+    /**
+     * @return month of year, 1 to 12
+     */
+    static int month(int epochDay) {
+        return (toCivil(epochDay) >> 5) & 0xF;
+    }
+
+    /**
+     * @return day of month, 1 to 31
+     */
+    static int dayOfMonth(int epochDay) {
+        return toCivil(epochDay) & 0x1F;
+    }
+
+    /**
+     * The current day in UTC.
+     */
+    static int today() {
+        return (int) (System.currentTimeMillis() / 86400000L);
+    }
+
+    /**
+     * Civil-from-days algorithm, the inverse of {@link #of}. Returns year, month and day packed as
+     * {@code year << 9 | month << 5 | day}.
+     */
+    private static int toCivil(int epochDay) {
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year << 9 | month << 5 | day;
+    }
+
+    private static int indexOf(CharSequence str, char c, int from) {
+        for (int i = from; i < str.length(); i++) {
+            if (str.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int digits(CharSequence str, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = str.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Invalid date: " + str);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
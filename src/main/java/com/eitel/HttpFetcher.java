@@ -0,0 +1,217 @@
+package com.eitel;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+/**
+ * Opens HTTP GET responses with timeouts, gzip and retries.
+ *
+ * Connections are kept alive and reused by the JVM's pool once a response body has been read to its
+ * end, so bodies closed with little left unread are drained first. Responses are requested gzipped and
+ * decompressed transparently.
+ *
+ * Failures to connect or to receive a response, and responses with status 429 or 5xx, are retried
+ * with exponential backoff and jitter, up to a number of attempts per request. Retries also draw
+ * from a budget shared by all requests, which earns a tenth of a retry per request, so that an
+ * outage does not multiply the load on the server. A body that has started streaming is not retried:
+ * its rows may already have been consumed. Other 4xx statuses fail at once. Status 404 is reported
+ * as {@link FileNotFoundException}, as {@link URL#openStream()} does.
+ */
+final class HttpFetcher {
+
+    // Retry budget in tenths of a retry: each request earns one, each retry costs ten.
+    private static final long RETRY_COST = 10;
+    private static final long MAX_RETRY_TOKENS = 10 * RETRY_COST;
+    // Bodies, including error bodies, with more than this left unread when closed are abandoned along
+    // with their connection.
+    private static final long MAX_DRAIN_BYTES = 64 * 1024;
+
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 30 * 1000;
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final long DEFAULT_BACKOFF_MILLIS = 200;
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final AtomicLong retryTokens = new AtomicLong(MAX_RETRY_TOKENS);
+    private final Random jitter = new Random();
+
+    private final Metrics.Timer responses;
+    private final Metrics.Counter retries;
+    private final Metrics.Counter failures;
+
+    /**
+     * @param connectTimeoutMillis time allowed to establish a connection
+     * @param readTimeoutMillis time allowed between two reads, including waiting for the response
+     * @param maxAttempts attempts per request, including the first
+     * @param backoffMillis wait before the first retry, doubled for each further retry
+     * @param metrics records the time until response headers of each attempt ({@code fetch.response}),
+     *        retries ({@code fetch.retries}) and requests that failed ({@code fetch.failures})
+     */
+    HttpFetcher(int connectTimeoutMillis, int readTimeoutMillis, int maxAttempts, long backoffMillis, Metrics metrics) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is needed");
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.responses = metrics.timer("fetch.response");
+        this.retries = metrics.counter("fetch.retries");
+        this.failures = metrics.counter("fetch.failures");
+    }
+
+    /**
+     * A fetcher with the default timeouts and retries.
+     */
+    static HttpFetcher withDefaults(Metrics metrics) {
+        return new HttpFetcher(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_ATTEMPTS,
+                DEFAULT_BACKOFF_MILLIS, metrics);
+    }
+
+    /**
+     * The body of a successful response. Closing it drains what is left, so the connection can be reused.
+     * @throws FileNotFoundException if the status is 404
+     */
+    InputStream open(URL url) throws IOException {
+        earnRetry();
+        for (int attempt = 1; ; attempt++) {
+            IOException failure;
+            try {
+                return attempt(url);
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (ClientErrorException e) {
+                // Asking again would get the same answer.
+                failures.increment();
+                throw e;
+            } catch (IOException e) {
+                failure = e;
+            }
+            if (attempt == maxAttempts || !spendRetry()) {
+                failures.increment();
+                throw failure;
+            }
+            retries.increment();
+            backOff(attempt);
+        }
+    }
+
+    private InputStream attempt(URL url) throws IOException {
+        HttpURLConnection connection;
+        int status;
+        Metrics.Sample response = responses.start();
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            status = connection.getResponseCode();
+        } finally {
+            // Timeouts are recorded too.
+            response.stop();
+        }
+
+        if (status / 100 != 2) {
+            discard(connection.getErrorStream());
+            if (status == 404) {
+                throw new FileNotFoundException(url.toString());
+            } else if (status / 100 == 4 && status != 429) {
+                throw new ClientErrorException(String.format("Server returned HTTP %d for %s", status, url));
+            }
+            throw new IOException(String.format("Server returned HTTP %d for %s", status, url));
+        }
+        InputStream body = new DrainingInputStream(connection.getInputStream());
+        return "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(body) : body;
+    }
+
+    private void earnRetry() {
+        long tokens;
+        do {
+            tokens = retryTokens.get();
+        } while (tokens < MAX_RETRY_TOKENS && !retryTokens.compareAndSet(tokens, tokens + 1));
+    }
+
+    private boolean spendRetry() {
+        long tokens;
+        do {
+            tokens = retryTokens.get();
+            if (tokens < RETRY_COST) {
+                return false;
+            }
+        } while (!retryTokens.compareAndSet(tokens, tokens - RETRY_COST));
+        return true;
+    }
+
+    private void backOff(int attempt) throws InterruptedIOException {
+        long delay = backoffMillis << (attempt - 1);
+        double factor;
+        synchronized (jitter) {
+            factor = 0.5 + jitter.nextDouble() / 2;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep((long) (delay * factor));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static void discard(InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            ByteStreams.copy(ByteStreams.limit(in, MAX_DRAIN_BYTES), ByteStreams.nullOutputStream());
+        } catch (IOException e) {
+            // The connection is not reused.
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * A 4xx status other than 404 and 429: the request itself is rejected, so it is not retried.
+     */
+    private static final class ClientErrorException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ClientErrorException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Reads what is left of the body when closed early, which lets the connection be reused.
+     */
+    private static final class DrainingInputStream extends FilterInputStream {
+        DrainingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                ByteStreams.copy(ByteStreams.limit(in, MAX_DRAIN_BYTES), ByteStreams.nullOutputStream());
+            } catch (IOException e) {
+                // The connection is not reused.
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
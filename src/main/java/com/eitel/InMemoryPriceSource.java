@@ -0,0 +1,51 @@
+package com.eitel;
+
+import java.io.FileNotFoundException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Prices held in memory, mainly for tests and benchmarks.
+ */
+final class InMemoryPriceSource implements PriceSource {
+
+    private final ConcurrentMap<String, BarSeries> series = Maps.newConcurrentMap();
+
+    /**
+     * @param dates epoch days in chronological order
+     * @param prices fixed-point prices with {@link PriceSeries#PRICE_SCALE} decimal places
+     */
+    InMemoryPriceSource put(String stockSymbol, int[] dates, long[] prices) {
+        if (dates.length != prices.length) {
+            throw new IllegalArgumentException("Dates and prices differ in length");
+        }
+        return put(stockSymbol, new PriceSeries(dates, prices, dates.length));
+    }
+
+    /**
+     * Use the same prices for every price field.
+     * @param prices chronologically ordered series
+     */
+    InMemoryPriceSource put(String stockSymbol, PriceSeries prices) {
+        return put(stockSymbol, BarSeries.of(prices));
+    }
+
+    /**
+     * @param bars chronologically ordered series, which must not be modified afterwards
+     */
+    InMemoryPriceSource put(String stockSymbol, BarSeries bars) {
+        this.series.put(stockSymbol.toUpperCase(Locale.ROOT), bars);
+        return this;
+    }
+
+    @Override
+    public void load(String stockSymbol, int startDate, int endDate, BarSink sink) throws FileNotFoundException {
+        BarSeries prices = this.series.get(stockSymbol.toUpperCase(Locale.ROOT));
+        if (prices == null) {
+            throw new FileNotFoundException(stockSymbol);
+        }
+        prices.replayNewestFirst(startDate, endDate, sink);
+    }
+}
@@ -1,21 +1,45 @@
 package com.eitel;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 
 import com.eitel.UpRunFinder.UpRunResult;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class Main {
 
-    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormat.forPattern("MM-dd-YYYY");
+    // About 52 bytes per row (every field): a few hundred symbols with decades of history each.
+    private static final long RESIDENT_ROWS = 10 * 1000 * 1000;
+    private static final long RESIDENT_MINUTES = 60;
+
+    // Rows parsed ahead of the scan with --pipeline: 4 batches of 4096 rows.
+    private static final int PIPELINE_BATCH_ROWS = 4096;
+    private static final int PIPELINE_BATCHES = 4;
 
     private static Options options = new Options();
     static {
@@ -23,9 +47,36 @@ public class Main {
         options.addOption("t", "stock-symbol", true, "Stock Ticker Symbol");
         options.addOption("s", "start-date", true, "Start date in the format MM-dd-YYYY");
         options.addOption("e", "end-date", true, "End date in the format MM-dd-YYYY");
+        options.addOption("k", "top", true, "Print the best K up-runs instead of only the longest");
+        options.addOption(null, "rolling", true, "Print the longest up-run in the trailing N trading days of every day, "
+                + "and the length of the up-run in progress");
+        options.addOption(null, "rank-by", true, "How up-runs are ranked with -k: duration (default) or gain");
+        options.addOption(null, "field", true, "Price compared between days: open (default), high, low, close, adj-close or volume");
+        options.addOption(null, "source", true, "Where prices are read from: yahoo (default), csv:<file or directory>, "
+                + "classpath:<resource prefix>, binary:<directory> or archive:<directory>");
+        options.addOption("c", "cache-dir", true, "Directory in which downloaded prices are cached");
+        options.addOption(null, "cache-size", true, "Maximum size of the cache in megabytes (default: unlimited)");
+        options.addOption("b", "batch", true, "File with one \"SYMBOL START END\" query per line, or - for standard input");
+        options.addOption("w", "windows", true, "File with one \"START END\" date window per line for the -t stock, "
+                + "or - for standard input");
+        options.addOption(null, "threads", true, "Number of threads scanning queries or handling server requests (default: number of processors)");
+        options.addOption(null, "io-threads", true, "Number of threads retrieving prices for batch queries (default: 16)");
+        options.addOption(null, "serve", true, "Keep running and answer queries over HTTP on the given port");
+        options.addOption(null, "bind", true, "Address the server listens on (default: 127.0.0.1)");
+        options.addOption(null, "timeout", true, "Seconds allowed to connect to Yahoo and between two reads of a download "
+                + "(default: 10 to connect, 30 between reads)");
+        options.addOption(null, "retries", true, "Number of times a failed download from Yahoo is retried (default: 2)");
+        options.addOption(null, "max-fetches", true, "Maximum number of batch or server queries fetching prices from the "
+                + "source at the same time (default: 16)");
+        options.addOption(null, "export", true, "Write the -t stock's prices between the -s and -e dates to a compressed "
+                + "archive in the given directory, readable with --source archive:<directory>");
+        options.addOption(null, "pipeline", false, "Download, parse and scan prices on separate threads at the same time");
+        options.addOption(null, "stats", false, "Print timings, row and byte counts and cache hits to standard error "
+                + "(with --serve: answer them at /metrics)");
     }
 
     private static final CommandLineParser PARSER = new BasicParser();
+    private static final Splitter WINDOW_SPLITTER = Splitter.onPattern("[\\s,]+").omitEmptyStrings();
 
     public static void main(String[] args) {
 
@@ -41,6 +92,31 @@ public class Main {
                 System.exit(0);
             }
 
+            Metrics metrics = commandLine.hasOption("stats") ? new Metrics() : Metrics.DISABLED;
+
+            if (commandLine.hasOption('b')) {
+                int failed = runBatch(commandLine, metrics);
+                printStats(metrics);
+                if (failed > 0) {
+                    System.exit(1);
+                }
+                return;
+            }
+
+            if (commandLine.hasOption("serve")) {
+                serve(commandLine, metrics);
+                return;
+            }
+
+            if (stockSymbol != null && commandLine.hasOption('w')) {
+                int failed = runWindows(commandLine, stockSymbol, metrics);
+                printStats(metrics);
+                if (failed > 0) {
+                    System.exit(1);
+                }
+                return;
+            }
+
             if (stockSymbol == null) {
                 System.err.println("Missing ticker symbol");
                 System.exit(1);
@@ -52,16 +128,38 @@ public class Main {
                 System.exit(1);
             }
 
-            DateTime startDate = parseDate(startDateStr);
-            DateTime endDate = parseDate(endDateStr);
+            int startDate = parseDate(startDateStr);
+            int endDate = parseDate(endDateStr);
 
-            UpRunFinder finder = new UpRunFinder();
+            if (commandLine.hasOption("export")) {
+                export(commandLine, stockSymbol, startDate, endDate, metrics);
+                printStats(metrics);
+                return;
+            }
+
+            // Long histories are split between threads.
+            ForkJoinPool scanPool = new ForkJoinPool(threads(commandLine));
+            UpRunFinder finder = createFinder(commandLine, metrics, false).withScanPool(scanPool);
             try {
-                UpRunResult result = finder.findUpRun(stockSymbol, startDate, endDate);
-                System.out.println(String.format("Start: %s", result.startDate));
-                System.out.println(String.format("End: %s", result.endDate));
-                System.out.println(String.format("Duration: %s business days", result.duration));
-                System.out.println(String.format("Percent Gain: %s%%", result.percentChange));
+                if (commandLine.hasOption("rolling")) {
+                    int window = Integer.parseInt(commandLine.getOptionValue("rolling"));
+                    PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+                    finder.findRollingUpRuns(stockSymbol, startDate, endDate, window, rollingPrinter(out));
+                    out.flush();
+                } else if (commandLine.hasOption('k')) {
+                    int k = Integer.parseInt(commandLine.getOptionValue('k'));
+                    TopUpRuns.Ranking ranking = parseRanking(commandLine.getOptionValue("rank-by", "duration"));
+                    List<UpRunResult> results = finder.findTopUpRuns(stockSymbol, startDate, endDate, k, ranking);
+                    for (int i = 0; i < results.size(); i++) {
+                        if (i > 0) {
+                            System.out.println();
+                        }
+                        printResult(results.get(i));
+                    }
+                } else {
+                    printResult(finder.findUpRun(stockSymbol, startDate, endDate));
+                }
+                printStats(metrics);
 
             } catch (InvalidStockSymbolException e) {
                 System.err.println(String.format("Invalid stock symbol provided: %s", stockSymbol));
@@ -69,6 +167,8 @@ public class Main {
             } catch (IllegalArgumentException e) {
                 System.err.println("Invalid arguments provided.");
                 System.exit(1);
+            } finally {
+                scanPool.shutdown();
             }
 
         } catch (ParseException|IllegalArgumentException e) {
@@ -77,8 +177,240 @@ public class Main {
         }
     }
 
+    private static void printResult(UpRunResult result) {
+        System.out.print(formatResult(result));
+    }
+
+    private static void printStats(Metrics metrics) {
+        if (metrics.enabled()) {
+            System.err.print(metrics.format());
+        }
+    }
+
+    static String formatResult(UpRunResult result) {
+        return String.format("Start: %s%n", EpochDays.format(result.startDate))
+                + String.format("End: %s%n", EpochDays.format(result.endDate))
+                + String.format("Duration: %s business days%n", result.duration)
+                + String.format("Percent Gain: %s%%%n", result.percentChange);
+    }
+
+    /**
+     * Prints each day as {@code DATE,CURRENT_DURATION,START,END,DURATION,PERCENT_GAIN}.
+     */
+    static RollingUpRuns.Listener rollingPrinter(final PrintWriter out) {
+        return new RollingUpRuns.Listener() {
+            @Override
+            public void onDay(int date, int currentDuration, int startDate, int endDate, int duration, long startPrice, long endPrice) {
+                out.println(String.format("%s,%s,%s,%s,%s,%s", EpochDays.format(date), currentDuration, EpochDays.format(startDate),
+                        EpochDays.format(endDate), duration, UpRunFinder.computePercentChange(endPrice, startPrice)));
+            }
+        };
+    }
+
+    static TopUpRuns.Ranking parseRanking(String ranking) {
+        if (ranking.equals("duration")) {
+            return TopUpRuns.Ranking.DURATION;
+        } else if (ranking.equals("gain")) {
+            return TopUpRuns.Ranking.PERCENT_GAIN;
+        }
+        throw new IllegalArgumentException("Unknown ranking: " + ranking);
+    }
+
+    /**
+     * @return number of failed queries
+     */
+    private static int runBatch(CommandLine commandLine, Metrics metrics) {
+        int cpuThreads = threads(commandLine);
+        int ioThreads = Integer.parseInt(commandLine.getOptionValue("io-threads", "16"));
+        // Long series are also split between the same number of threads.
+        ForkJoinPool scanPool = new ForkJoinPool(cpuThreads);
+        BatchRunner runner = new BatchRunner(createFinder(commandLine, metrics, false).withScanPool(scanPool), ioThreads, cpuThreads);
+
+        String batchFile = commandLine.getOptionValue('b');
+        try (InputStream in = batchFile.equals("-") ? System.in : new FileInputStream(batchFile)) {
+            BufferedReader input = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            return runner.run(input, System.out, System.err);
+        } catch (IOException e) {
+            System.err.println(String.format("Unable to read batch input: %s", e.getMessage()));
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        } finally {
+            runner.shutdown();
+            scanPool.shutdown();
+        }
+    }
+
+    /**
+     * Print the longest up-run of each window of the {@code -w} input, in the order of the input.
+     * @return number of windows without an up-run
+     */
+    private static int runWindows(CommandLine commandLine, String stockSymbol, Metrics metrics) {
+        String windowsFile = commandLine.getOptionValue('w');
+        List<int[]> windows;
+        try (InputStream in = windowsFile.equals("-") ? System.in : new FileInputStream(windowsFile)) {
+            windows = parseWindows(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            System.err.println(String.format("Unable to read windows: %s", e.getMessage()));
+            return 1;
+        }
+
+        List<UpRunResult> results;
+        try {
+            results = createFinder(commandLine, metrics, false).findUpRunsInWindows(stockSymbol, windows);
+        } catch (InvalidStockSymbolException e) {
+            System.err.println(String.format("Invalid stock symbol provided: %s", stockSymbol));
+            return 1;
+        }
+
+        int failed = 0;
+        for (int i = 0; i < windows.size(); i++) {
+            String window = EpochDays.format(windows.get(i)[0]) + "," + EpochDays.format(windows.get(i)[1]);
+            UpRunResult result = results.get(i);
+            if (result == null) {
+                failed++;
+                System.err.println(String.format("%s: No stock data available for the requested range", window));
+            } else {
+                System.out.println(String.format("%s,%s,%s,%s,%s", window, EpochDays.format(result.startDate),
+                        EpochDays.format(result.endDate), result.duration, result.percentChange));
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Parse one {@code START END} window per line, with dates in the format MM-dd-YYYY separated by
+     * whitespace or commas. Blank lines and lines starting with {@code #} are ignored.
+     * @throws IllegalArgumentException if a line is incorrectly formatted
+     */
+    @VisibleForTesting
+    static List<int[]> parseWindows(BufferedReader input) throws IOException {
+        List<int[]> windows = Lists.newArrayList();
+        String line;
+        while ((line = input.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            List<String> fields = WINDOW_SPLITTER.splitToList(line);
+            if (fields.size() != 2) {
+                throw new IllegalArgumentException(line);
+            }
+            windows.add(new int[] {parseDate(fields.get(0)), parseDate(fields.get(1))});
+        }
+        return windows;
+    }
+
+    private static void export(CommandLine commandLine, String stockSymbol, int startDate, int endDate, Metrics metrics) {
+        File directory = new File(commandLine.getOptionValue("export"));
+        PriceSource source = createFinder(commandLine, metrics, false).source();
+        try {
+            int rows = ArchivePriceSource.export(source, stockSymbol, startDate, endDate, directory);
+            System.out.println(String.format("Archived %d days of %s to %s", rows, stockSymbol, directory));
+        } catch (FileNotFoundException e) {
+            System.err.println(String.format("Invalid stock symbol provided: %s", stockSymbol));
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println(String.format("Unable to write archive: %s", e.getMessage()));
+            System.exit(1);
+        }
+    }
+
+    private static void serve(CommandLine commandLine, Metrics metrics) {
+        int port = Integer.parseInt(commandLine.getOptionValue("serve"));
+        int threads = threads(commandLine);
+        InetSocketAddress address = new InetSocketAddress(commandLine.getOptionValue("bind", "127.0.0.1"), port);
+        try {
+            UpRunServer server = new UpRunServer(createFinder(commandLine, metrics, true), address, threads);
+            server.start();
+            System.err.println(String.format("Listening on http://%s:%d/uprun",
+                    server.address().getHostString(), server.address().getPort()));
+        } catch (IOException e) {
+            System.err.println(String.format("Unable to start server: %s", e.getMessage()));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Number of threads scanning, from {@code --threads}.
+     */
+    private static int threads(CommandLine commandLine) {
+        return Integer.parseInt(commandLine.getOptionValue("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * @param resident whether the finder serves many queries, in which case parsed histories are kept in memory
+     */
+    private static UpRunFinder createFinder(CommandLine commandLine, Metrics metrics, boolean resident) {
+        PriceSource source;
+        if (commandLine.hasOption("pipeline")) {
+            ExecutorService pipeline = Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder().setNameFormat("uprun-pipeline-%d").setDaemon(true).build());
+            source = createSource(commandLine.getOptionValue("source", "yahoo"), createFetcher(commandLine, metrics), metrics, pipeline);
+            source = new PipelinedPriceSource(source, pipeline, PIPELINE_BATCH_ROWS, PIPELINE_BATCHES);
+        } else {
+            source = createSource(commandLine.getOptionValue("source", "yahoo"), createFetcher(commandLine, metrics), metrics, null);
+        }
+        if (resident || commandLine.hasOption('b')) {
+            // Concurrent queries for the same symbol share a fetch.
+            int maxFetches = Integer.parseInt(commandLine.getOptionValue("max-fetches", "16"));
+            source = new CoalescingPriceSource(source, maxFetches, metrics);
+        }
+        if (commandLine.hasOption('c')) {
+            PriceCache.EvictionPolicy evictionPolicy = PriceCache.NO_EVICTION;
+            if (commandLine.hasOption("cache-size")) {
+                long maxBytes = Long.parseLong(commandLine.getOptionValue("cache-size")) * 1024 * 1024;
+                evictionPolicy = PriceCache.leastRecentlyUsed(maxBytes);
+            }
+            source = new PriceCache(new File(commandLine.getOptionValue('c')), source, evictionPolicy, metrics);
+        }
+        if (resident) {
+            source = new MemoryPriceCache(source, RESIDENT_ROWS, RESIDENT_MINUTES, metrics);
+        }
+        return new UpRunFinder(source, PriceField.parse(commandLine.getOptionValue("field", "open")), metrics);
+    }
+
+    private static HttpFetcher createFetcher(CommandLine commandLine, Metrics metrics) {
+        int connectTimeoutMillis = HttpFetcher.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+        int readTimeoutMillis = HttpFetcher.DEFAULT_READ_TIMEOUT_MILLIS;
+        if (commandLine.hasOption("timeout")) {
+            connectTimeoutMillis = readTimeoutMillis = Integer.parseInt(commandLine.getOptionValue("timeout")) * 1000;
+        }
+        int attempts = commandLine.hasOption("retries")
+                ? Integer.parseInt(commandLine.getOptionValue("retries")) + 1 : HttpFetcher.DEFAULT_MAX_ATTEMPTS;
+        return new HttpFetcher(connectTimeoutMillis, readTimeoutMillis, attempts, HttpFetcher.DEFAULT_BACKOFF_MILLIS, metrics);
+    }
+
+    @VisibleForTesting
+    static PriceSource createSource(String spec) {
+        return createSource(spec, HttpFetcher.withDefaults(Metrics.DISABLED), Metrics.DISABLED, null);
+    }
+
+    /**
+     * @param readAhead if not {@code null}, runs downloads ahead of parsing
+     */
+    private static PriceSource createSource(String spec, HttpFetcher fetcher, Metrics metrics, Executor readAhead) {
+        if (spec.equals("yahoo")) {
+            return new YahooPriceSource(fetcher, metrics, readAhead);
+        } else if (spec.startsWith("csv:")) {
+            File file = new File(spec.substring("csv:".length()));
+            return file.isDirectory() ? CsvPriceSource.forDirectory(file, metrics) : CsvPriceSource.forFile(file, metrics);
+        } else if (spec.startsWith("classpath:")) {
+            return CsvPriceSource.forClasspath(spec.substring("classpath:".length()), metrics);
+        } else if (spec.startsWith("binary:")) {
+            return new BinaryPriceSource(new File(spec.substring("binary:".length())), metrics);
+        } else if (spec.startsWith("archive:")) {
+            return new ArchivePriceSource(new File(spec.substring("archive:".length())));
+        }
+        throw new IllegalArgumentException("Unknown price source: " + spec);
+    }
+
+    /**
+     * Parse a date in the format MM-dd-YYYY into an epoch day.
+     */
     @VisibleForTesting
-    static DateTime parseDate(String dateStr) {
-        return DATE_FORMAT.parseDateTime(dateStr);
+    static int parseDate(String dateStr) {
+        return EpochDays.parseMonthDayYear(dateStr);
     }
 }
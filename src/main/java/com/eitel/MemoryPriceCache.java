@@ -0,0 +1,79 @@
+package com.eitel;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Keeps parsed price histories in memory in front of another {@link PriceSource}, for long-running
+ * processes that answer many queries. Each symbol holds one series covering the union of the ranges
+ * requested so far, with every {@link PriceField}; a request outside of it reloads the widened range.
+ */
+final class MemoryPriceCache implements PriceSource {
+
+    private final PriceSource source;
+    private final Cache<String, Entry> entries;
+    private final Metrics.Counter hits;
+    private final Metrics.Counter misses;
+
+    /**
+     * @param maxRows total number of rows kept across all symbols
+     * @param expireAfterMinutes how long a loaded history is used before it is reloaded, so that new
+     *        trading days are picked up
+     */
+    MemoryPriceCache(PriceSource source, long maxRows, long expireAfterMinutes) {
+        this(source, maxRows, expireAfterMinutes, Metrics.DISABLED);
+    }
+
+    /**
+     * @param metrics counts requests served from memory ({@code memory-cache.hits}) and requests that
+     *        reload a history ({@code memory-cache.misses})
+     */
+    MemoryPriceCache(PriceSource source, long maxRows, long expireAfterMinutes, Metrics metrics) {
+        this.source = source;
+        this.hits = metrics.counter("memory-cache.hits");
+        this.misses = metrics.counter("memory-cache.misses");
+        this.entries = CacheBuilder.newBuilder()
+                .maximumWeight(maxRows)
+                .weigher(new Weigher<String, Entry>() {
+                    @Override
+                    public int weigh(String symbol, Entry entry) {
+                        return entry.series.size() + 1;
+                    }
+                })
+                .expireAfterWrite(expireAfterMinutes, TimeUnit.MINUTES)
+                .build();
+    }
+
+    @Override
+    public void load(String stockSymbol, int startDate, int endDate, BarSink sink) throws IOException {
+        String key = stockSymbol.toUpperCase(Locale.ROOT);
+        Entry entry = entries.getIfPresent(key);
+        if (entry == null || startDate < entry.startDate || endDate > entry.endDate) {
+            int from = entry == null ? startDate : Math.min(startDate, entry.startDate);
+            int to = entry == null ? endDate : Math.max(endDate, entry.endDate);
+            entry = new Entry(from, to, BarSeries.load(source, stockSymbol, from, to));
+            entries.put(key, entry);
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        entry.series.replayNewestFirst(startDate, endDate, sink);
+    }
+
+    private static final class Entry {
+        final int startDate;
+        final int endDate;
+        final BarSeries series;
+
+        Entry(int startDate, int endDate, BarSeries series) {
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.series = series;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.eitel;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Registry of named counters and timers describing where queries spend their time: fetching,
+ * parsing, scanning and caching.
+ *
+ * Components are given the registry when they are constructed and look up their counters and timers
+ * once. {@link #DISABLED} hands out shared instances that do nothing, so instrumentation costs a
+ * single branch when statistics are not wanted. All methods are thread-safe, so a batch run or a
+ * server can read {@link #snapshot()} while queries are running.
+ */
+final class Metrics {
+
+    /** Registry whose counters and timers record nothing. */
+    static final Metrics DISABLED = new Metrics(false);
+
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationCounter();
+
+    private final boolean enabled;
+    private final ConcurrentMap<String, Counter> counters = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, Timer> timers = Maps.newConcurrentMap();
+
+    Metrics() {
+        this(true);
+    }
+
+    private Metrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean enabled() {
+        return this.enabled;
+    }
+
+    Counter counter(String name) {
+        if (!enabled) {
+            return Counter.DISABLED;
+        }
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter(true);
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    Timer timer(String name) {
+        if (!enabled) {
+            return Timer.DISABLED;
+        }
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            Timer created = new Timer(true);
+            timer = timers.putIfAbsent(name, created);
+            if (timer == null) {
+                timer = created;
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Count the bytes read from the stream in {@code fetch.bytes}, and the time spent waiting for
+     * them in {@code fetch.read}.
+     */
+    InputStream meter(InputStream in) {
+        return enabled ? new MeteredInputStream(in, counter("fetch.bytes"), timer("fetch.read")) : in;
+    }
+
+    /**
+     * Current values by name, sorted. Timers contribute {@code <name>.count}, {@code <name>.total_ms},
+     * {@code <name>.max_ms} and, where the JVM measures it and the timer was started with
+     * {@link Timer#start()}, {@code <name>.allocated_bytes}. An enabled registry also reports the
+     * process's peak heap ({@code memory.heap.peak_bytes}) and memory-mapped files
+     * ({@code memory.mapped_bytes}).
+     */
+    SortedMap<String, Number> snapshot() {
+        SortedMap<String, Number> snapshot = Maps.newTreeMap();
+        for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+            snapshot.put(counter.getKey(), counter.getValue().value());
+        }
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            Timer timer = entry.getValue();
+            snapshot.put(entry.getKey() + ".count", timer.count());
+            snapshot.put(entry.getKey() + ".total_ms", timer.totalNanos() / 1e6);
+            snapshot.put(entry.getKey() + ".max_ms", timer.maxNanos() / 1e6);
+            if (timer.sampled) {
+                snapshot.put(entry.getKey() + ".allocated_bytes", timer.allocatedBytes());
+            }
+        }
+        if (enabled) {
+            snapshot.put("memory.heap.peak_bytes", peakHeapBytes());
+            snapshot.put("memory.mapped_bytes", mappedBytes());
+        }
+        return snapshot;
+    }
+
+    /**
+     * One {@code name value} line per value of the snapshot.
+     */
+    String format() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Number> value : snapshot().entrySet()) {
+            text.append(value.getKey()).append(' ').append(value.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Sum of the peak usage of each heap pool since the JVM started. Pools peak at different times,
+     * so this bounds the heap the process has needed from above.
+     */
+    private static long peakHeapBytes() {
+        long bytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                bytes += pool.getPeakUsage().getUsed();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Memory currently mapped from files, which is not part of the heap.
+     */
+    private static long mappedBytes() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("mapped")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+                if (allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled()) {
+                    return allocations;
+                }
+            }
+        } catch (LinkageError | UnsupportedOperationException e) {
+            // Not a HotSpot JVM.
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static final class Counter {
+        static final Counter DISABLED = new Counter(false);
+
+        private final boolean enabled;
+        private final AtomicLong value = new AtomicLong();
+
+        private Counter(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        void add(long delta) {
+            if (enabled) {
+                value.addAndGet(delta);
+            }
+        }
+
+        void increment() {
+            add(1);
+        }
+
+        long value() {
+            return value.get();
+        }
+    }
+
+    static final class Timer {
+        static final Timer DISABLED = new Timer(false);
+
+        private final boolean enabled;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        // Whether allocations have been measured, which only samples do.
+        private volatile boolean sampled;
+
+        private Timer(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        boolean enabled() {
+            return this.enabled;
+        }
+
+        /**
+         * Start timing a phase on the current thread; {@link Sample#stop()} records it.
+         */
+        Sample start() {
+            return enabled ? new Sample(this) : Sample.DISABLED;
+        }
+
+        /**
+         * Record a phase timed by the caller, without allocation tracking.
+         */
+        void record(long duration, TimeUnit unit) {
+            if (!enabled) {
+                return;
+            }
+            long elapsed = unit.toNanos(duration);
+            count.incrementAndGet();
+            totalNanos.addAndGet(elapsed);
+            long max;
+            while (elapsed > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, elapsed)) {
+                // Retry until the maximum is updated or exceeded by another thread.
+            }
+        }
+
+        long count() {
+            return count.get();
+        }
+
+        long totalNanos() {
+            return totalNanos.get();
+        }
+
+        long maxNanos() {
+            return maxNanos.get();
+        }
+
+        long allocatedBytes() {
+            return allocatedBytes.get();
+        }
+    }
+
+    static final class Sample {
+        static final Sample DISABLED = new Sample(null);
+
+        private final Timer timer;
+        private final long startNanos;
+        private final long startAllocatedBytes;
+
+        private Sample(Timer timer) {
+            this.timer = timer;
+            this.startNanos = timer == null ? 0 : System.nanoTime();
+            this.startAllocatedBytes = timer == null || ALLOCATIONS == null ? 0 : allocatedBytes();
+        }
+
+        void stop() {
+            if (timer == null) {
+                return;
+            }
+            timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            if (ALLOCATIONS != null) {
+                timer.allocatedBytes.addAndGet(allocatedBytes() - startAllocatedBytes);
+                timer.sampled = true;
+            }
+        }
+    }
+
+    private static final class MeteredInputStream extends FilterInputStream {
+        private final Counter bytes;
+        private final Timer reads;
+
+        MeteredInputStream(InputStream in, Counter bytes, Timer reads) {
+            super(in);
+            this.bytes = bytes;
+            this.reads = reads;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            reads.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (b >= 0) {
+                bytes.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, length);
+            reads.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (read > 0) {
+                bytes.add(read);
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.eitel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.eitel.UpRunFinder.UpRunResult;
+
+/**
+ * Longest up-run scan that splits a chronologically ordered series into chunks scanned in parallel
+ * with fork/join.
+ *
+ * Each chunk is summarized by its first run, its last run and its best run. Two adjacent summaries
+ * combine in constant time: if the right chunk's first price does not drop below the left chunk's
+ * last price, the left's last run and the right's first run join into one. Results are the same as
+ * {@link UpRunFinder#processStockData(PriceSeries)}, including its tie rules: the most recent of
+ * the longest runs wins, unless no run is longer than one day, in which case the first day is reported.
+ */
+final class ParallelUpRunScan {
+
+    private final ForkJoinPool pool;
+    private final int chunkRows;
+
+    /**
+     * @param chunkRows number of rows below which a chunk is scanned sequentially
+     */
+    ParallelUpRunScan(ForkJoinPool pool, int chunkRows) {
+        if (chunkRows < 1) {
+            throw new IllegalArgumentException("chunkRows must be positive: " + chunkRows);
+        }
+        this.pool = pool;
+        this.chunkRows = chunkRows;
+    }
+
+    UpRunResult scan(PriceSeries series) {
+        if (series.size() == 0) {
+            throw new IllegalArgumentException("No stock data available for the requested range");
+        }
+        Summary summary = pool.invoke(new ScanTask(series, 0, series.size()));
+        if (summary.bestEnd == summary.bestStart) {
+            // No up-run longer than a day: the first day is reported.
+            return result(series, 0, 0);
+        }
+        return result(series, summary.bestStart, summary.bestEnd);
+    }
+
+    private static UpRunResult result(PriceSeries series, int start, int end) {
+        UpRunResult result = new UpRunResult();
+        result.duration = end - start + 1;
+        result.startDate = series.date(start);
+        result.endDate = series.date(end);
+        result.percentChange = UpRunFinder.computePercentChange(series.price(end), series.price(start));
+        return result;
+    }
+
+    /**
+     * Runs of the rows {@code [from, to)}, as inclusive row indexes.
+     */
+    private static final class Summary {
+        final int from;
+        final int to;
+        final int firstRunEnd;
+        final int lastRunStart;
+        final int bestStart;
+        final int bestEnd;
+
+        Summary(int from, int to, int firstRunEnd, int lastRunStart, int bestStart, int bestEnd) {
+            this.from = from;
+            this.to = to;
+            this.firstRunEnd = firstRunEnd;
+            this.lastRunStart = lastRunStart;
+            this.bestStart = bestStart;
+            this.bestEnd = bestEnd;
+        }
+
+        boolean isSingleRun() {
+            return firstRunEnd == to - 1;
+        }
+    }
+
+    private final class ScanTask extends RecursiveTask<Summary> {
+        private static final long serialVersionUID = 1L;
+
+        private final PriceSeries series;
+        private final int from;
+        private final int to;
+
+        ScanTask(PriceSeries series, int from, int to) {
+            this.series = series;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Summary compute() {
+            if (to - from <= chunkRows) {
+                return scanChunk();
+            }
+            int mid = (from + to) >>> 1;
+            ScanTask left = new ScanTask(series, from, mid);
+            left.fork();
+            Summary right = new ScanTask(series, mid, to).compute();
+            return combine(left.join(), right);
+        }
+
+        private Summary scanChunk() {
+            int firstRunEnd = -1;
+            int runStart = from;
+            int bestStart = from;
+            int bestEnd = from;
+            for (int i = from + 1; i < to; i++) {
+                if (series.price(i) < series.price(i - 1)) {
+                    if (firstRunEnd < 0) {
+                        firstRunEnd = i - 1;
+                    }
+                    // Later runs win ties.
+                    if (i - runStart >= bestEnd - bestStart + 1) {
+                        bestStart = runStart;
+                        bestEnd = i - 1;
+                    }
+                    runStart = i;
+                }
+            }
+            if (to - runStart >= bestEnd - bestStart + 1) {
+                bestStart = runStart;
+                bestEnd = to - 1;
+            }
+            return new Summary(from, to, firstRunEnd < 0 ? to - 1 : firstRunEnd, runStart, bestStart, bestEnd);
+        }
+
+        private Summary combine(Summary left, Summary right) {
+            if (series.price(right.from) < series.price(left.to - 1)) {
+                // Later runs win ties.
+                boolean rightWins = right.bestEnd - right.bestStart >= left.bestEnd - left.bestStart;
+                return new Summary(left.from, right.to, left.firstRunEnd, right.lastRunStart,
+                        rightWins ? right.bestStart : left.bestStart, rightWins ? right.bestEnd : left.bestEnd);
+            }
+
+            // The runs meeting at the boundary join.
+            int joinedStart = left.lastRunStart;
+            int joinedEnd = right.firstRunEnd;
+            int bestStart = left.bestStart;
+            int bestEnd = left.bestEnd;
+            if (joinedEnd - joinedStart >= bestEnd - bestStart) {
+                bestStart = joinedStart;
+                bestEnd = joinedEnd;
+            }
+            if (right.bestEnd - right.bestStart >= bestEnd - bestStart) {
+                bestStart = right.bestStart;
+                bestEnd = right.bestEnd;
+            }
+            return new Summary(left.from, right.to,
+                    left.isSingleRun() ? right.firstRunEnd : left.firstRunEnd,
+                    right.isSingleRun() ? left.lastRunStart : right.lastRunStart,
+                    bestStart, bestEnd);
+        }
+    }
+}
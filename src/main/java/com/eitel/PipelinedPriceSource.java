@@ -0,0 +1,201 @@
+package com.eitel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Retrieves and parses rows of another {@link PriceSource} on a thread of its own, while the calling
+ * thread feeds the rows parsed so far to its sink, so that parsing and scanning overlap. Combined
+ * with a source that reads ahead ({@link YahooPriceSource} given an executor), downloading, parsing
+ * and scanning a long history take about as long as the slowest of them rather than their sum.
+ *
+ * Rows are handed over in batches of primitive arrays. A fixed number of batches circulates between
+ * the two threads, so the parser waits when the sink falls behind. When the sink is a
+ * {@link PriceField.Projection}, only the projected field is handed over. Failures of either side
+ * stop both and are rethrown by {@link #load}.
+ */
+final class PipelinedPriceSource implements PriceSource {
+
+    private final PriceSource source;
+    private final Executor executor;
+    private final int batchRows;
+    private final int batches;
+
+    /**
+     * @param executor runs the underlying source, one task per load
+     * @param batchRows rows handed over at a time
+     * @param batches number of batches in flight
+     */
+    PipelinedPriceSource(PriceSource source, Executor executor, int batchRows, int batches) {
+        this.source = source;
+        this.executor = executor;
+        this.batchRows = batchRows;
+        this.batches = batches;
+    }
+
+    @Override
+    public void load(final String stockSymbol, final int startDate, final int endDate, BarSink sink) throws IOException {
+        final PriceField field = sink instanceof PriceField.Projection ? ((PriceField.Projection) sink).field : null;
+        final Pipe pipe = new Pipe(batches, batchRows, field == null ? PriceField.COUNT : 1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    source.load(stockSymbol, startDate, endDate, field == null ? pipe : field.project(pipe));
+                    pipe.finish(null);
+                } catch (Throwable t) {
+                    pipe.finish(t);
+                }
+            }
+        });
+        pipe.drain(sink);
+    }
+
+    private static final class Batch {
+        final int[] dates;
+        final long[] values;
+        int size;
+        boolean last;
+        Throwable failure;
+
+        Batch(int rows, int width) {
+            this.dates = new int[rows];
+            this.values = new long[rows * width];
+        }
+    }
+
+    /**
+     * Both ends of the hand-over. The producer side is a sink for the underlying source.
+     */
+    private static final class Pipe implements BarSink, PriceSink {
+        // Every batch is in one of the queues or held by one side, so neither queue blocks on insertion.
+        private final BlockingQueue<Batch> filled = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Batch> empty = new LinkedBlockingQueue<>();
+        private final int width;
+        private volatile boolean cancelled;
+
+        // Producer side.
+        private Batch batch;
+
+        Pipe(int batches, int batchRows, int width) {
+            this.width = width;
+            for (int i = 0; i < batches; i++) {
+                empty.add(new Batch(batchRows, width));
+            }
+        }
+
+        @Override
+        public void accept(int date, long[] values) {
+            Batch batch = batch();
+            System.arraycopy(values, 0, batch.values, batch.size * width, width);
+            added(batch, date);
+        }
+
+        @Override
+        public void accept(int date, long price) {
+            Batch batch = batch();
+            batch.values[batch.size] = price;
+            added(batch, date);
+        }
+
+        private Batch batch() {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            if (batch == null) {
+                try {
+                    batch = empty.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException();
+                }
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+                batch.size = 0;
+            }
+            return batch;
+        }
+
+        private void added(Batch batch, int date) {
+            batch.dates[batch.size++] = date;
+            if (batch.size == batch.dates.length) {
+                filled.add(batch);
+                this.batch = null;
+            }
+        }
+
+        /**
+         * Hand over the rows parsed so far and the end of the rows.
+         */
+        void finish(Throwable failure) {
+            Batch last = batch != null ? batch : new Batch(0, width);
+            last.last = true;
+            last.failure = failure;
+            filled.add(last);
+        }
+
+        /**
+         * Feed the rows to the sink on the calling thread until the producer finishes.
+         */
+        void drain(BarSink sink) throws IOException {
+            PriceField.Projection projection = width == 1 ? (PriceField.Projection) sink : null;
+            long[] row = new long[width];
+            RuntimeException sinkFailure = null;
+            while (true) {
+                Batch batch;
+                try {
+                    batch = filled.take();
+                } catch (InterruptedException e) {
+                    cancel();
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                if (sinkFailure == null) {
+                    try {
+                        replay(batch, projection, sink, row);
+                    } catch (RuntimeException e) {
+                        // Keep recycling batches, so that the producer sees the cancellation and finishes.
+                        sinkFailure = e;
+                        cancel();
+                    }
+                }
+                if (batch.last) {
+                    if (sinkFailure != null) {
+                        throw sinkFailure;
+                    } else if (batch.failure != null) {
+                        Throwables.propagateIfPossible(batch.failure, IOException.class);
+                        throw Throwables.propagate(batch.failure);
+                    }
+                    return;
+                }
+                empty.add(batch);
+            }
+        }
+
+        private void replay(Batch batch, PriceField.Projection projection, BarSink sink, long[] row) {
+            if (projection != null) {
+                for (int i = 0; i < batch.size; i++) {
+                    projection.accept(batch.dates[i], batch.values[i]);
+                }
+            } else {
+                for (int i = 0; i < batch.size; i++) {
+                    System.arraycopy(batch.values, i * width, row, 0, width);
+                    sink.accept(batch.dates[i], row);
+                }
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            // A producer waiting for a batch gets one to find out.
+            empty.add(new Batch(0, width));
+        }
+    }
+}
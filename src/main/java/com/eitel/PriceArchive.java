@@ -0,0 +1,355 @@
+package com.eitel;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Compact storage for a {@link BarSeries}, for keeping long histories of many stocks on disk.
+ *
+ * Rows are grouped in blocks of {@link #BLOCK_ROWS}, each of which holds one section for the dates
+ * and one per {@link PriceField}. Dates are stored as the gap in days from the previous row, and
+ * each field as the zig-zag encoded difference from the previous row, after dividing the block's
+ * values by the largest power of ten they share; every number is a varint. Daily prices change by
+ * a few cents, so most values take one or two bytes.
+ *
+ * Layout: a big-endian header (magic, version, field count, block rows, row count, block count),
+ * an index holding the first and last date, offset and length of every block, then the blocks.
+ * A block starts with the varint length of each section. The index lets a query read only the
+ * blocks of its range, and a {@link PriceField.Projection} decodes its field's section only.
+ */
+final class PriceArchive {
+
+    private static final int MAGIC = 0x55505241; // "UPRA"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    private static final int INDEX_ENTRY_BYTES = 20;
+
+    static final int BLOCK_ROWS = 4096;
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final File file;
+    private final int blockRows;
+    private final int size;
+    private final int[] firstDates;
+    private final int[] lastDates;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    private PriceArchive(File file, int blockRows, int size, int[] firstDates, int[] lastDates, long[] offsets, int[] lengths) {
+        this.file = file;
+        this.blockRows = blockRows;
+        this.size = size;
+        this.firstDates = firstDates;
+        this.lastDates = lastDates;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Write the series in blocks of {@link #BLOCK_ROWS}. The file is replaced atomically, so
+     * concurrent readers see either the old or the new content.
+     */
+    static void write(File file, BarSeries series) throws IOException {
+        write(file, series, BLOCK_ROWS);
+    }
+
+    static void write(File file, BarSeries series, int blockRows) throws IOException {
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("Blocks must hold at least one row: " + blockRows);
+        }
+        List<byte[]> blocks = Lists.newArrayList();
+        for (int from = 0; from < series.size(); from += blockRows) {
+            blocks.add(encodeBlock(series, from, Math.min(series.size(), from + blockRows)));
+        }
+
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(PriceField.COUNT);
+                out.writeInt(blockRows);
+                out.writeInt(series.size());
+                out.writeInt(blocks.size());
+                long offset = HEADER_BYTES + (long) blocks.size() * INDEX_ENTRY_BYTES;
+                for (int block = 0; block < blocks.size(); block++) {
+                    int from = block * blockRows;
+                    int to = Math.min(series.size(), from + blockRows);
+                    out.writeInt(series.date(from));
+                    out.writeInt(series.date(to - 1));
+                    out.writeLong(offset);
+                    out.writeInt(blocks.get(block).length);
+                    offset += blocks.get(block).length;
+                }
+                for (byte[] block : blocks) {
+                    out.write(block);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Read the header and block index of a file written by {@link #write}.
+     * @throws IOException if the file does not exist or is not an archive of a known version
+     */
+    static PriceArchive open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a price archive: " + file);
+            }
+            if (header.getInt() != PriceField.COUNT) {
+                throw new IOException("Unexpected field count in " + file);
+            }
+            int blockRows = header.getInt();
+            int size = header.getInt();
+            int blockCount = header.getInt();
+
+            ByteBuffer index = ByteBuffer.allocate(blockCount * INDEX_ENTRY_BYTES);
+            readFully(channel, index, HEADER_BYTES);
+            index.flip();
+            int[] firstDates = new int[blockCount];
+            int[] lastDates = new int[blockCount];
+            long[] offsets = new long[blockCount];
+            int[] lengths = new int[blockCount];
+            for (int block = 0; block < blockCount; block++) {
+                firstDates[block] = index.getInt();
+                lastDates[block] = index.getInt();
+                offsets[block] = index.getLong();
+                lengths[block] = index.getInt();
+            }
+            return new PriceArchive(file, blockRows, size, firstDates, lastDates, offsets, lengths);
+        }
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Deliver the rows dated within {@code [startDate, endDate]} to the sink, oldest first, decoding
+     * only the blocks that overlap the range.
+     */
+    void replay(int startDate, int endDate, BarSink sink) throws IOException {
+        int first = firstBlockEndingOnOrAfter(startDate);
+        if (first == offsets.length || firstDates[first] > endDate) {
+            return;
+        }
+        PriceField.Projection projection = sink instanceof PriceField.Projection ? (PriceField.Projection) sink : null;
+        int[] dates = new int[blockRows];
+        long[][] columns = new long[PriceField.COUNT][];
+        for (PriceField field : PriceField.values()) {
+            if (projection == null || projection.field == field) {
+                columns[field.ordinal()] = new long[blockRows];
+            }
+        }
+        long[] values = new long[PriceField.COUNT];
+        ByteBuffer bytes = ByteBuffer.allocate(0);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (int block = first; block < offsets.length && firstDates[block] <= endDate; block++) {
+                if (bytes.capacity() < lengths[block]) {
+                    bytes = ByteBuffer.allocate(lengths[block]);
+                }
+                bytes.clear();
+                bytes.limit(lengths[block]);
+                readFully(channel, bytes, offsets[block]);
+                int rows = Math.min(blockRows, size - block * blockRows);
+                decodeBlock(bytes.array(), lengths[block], rows, dates, columns);
+
+                for (int i = 0; i < rows; i++) {
+                    if (dates[i] < startDate) {
+                        continue;
+                    } else if (dates[i] > endDate) {
+                        return;
+                    }
+                    if (projection != null) {
+                        projection.accept(dates[i], columns[projection.field.ordinal()][i]);
+                    } else {
+                        for (int field = 0; field < values.length; field++) {
+                            values[field] = columns[field][i];
+                        }
+                        sink.accept(dates[i], values);
+                    }
+                }
+            }
+        }
+    }
+
+    private int firstBlockEndingOnOrAfter(int date) {
+        int low = 0;
+        int high = lastDates.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lastDates[mid] < date) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static byte[] encodeBlock(BarSeries series, int from, int to) {
+        ByteArrayOutputStream dates = new ByteArrayOutputStream();
+        writeVarint(dates, zigZag(series.date(from)));
+        for (int i = from + 1; i < to; i++) {
+            writeVarint(dates, series.date(i) - series.date(i - 1));
+        }
+        ByteArrayOutputStream[] sections = new ByteArrayOutputStream[PriceField.COUNT];
+        for (PriceField field : PriceField.values()) {
+            ByteArrayOutputStream section = new ByteArrayOutputStream();
+            int scale = commonScale(series, field, from, to);
+            long divisor = POWERS_OF_TEN[scale];
+            writeVarint(section, scale);
+            long previous = 0;
+            for (int i = from; i < to; i++) {
+                long value = series.value(field, i) / divisor;
+                // Differences may overflow, as they do again when decoded.
+                writeVarint(section, zigZag(value - previous));
+                previous = value;
+            }
+            sections[field.ordinal()] = section;
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        writeVarint(block, dates.size());
+        for (ByteArrayOutputStream section : sections) {
+            writeVarint(block, section.size());
+        }
+        block.write(dates.toByteArray(), 0, dates.size());
+        for (ByteArrayOutputStream section : sections) {
+            block.write(section.toByteArray(), 0, section.size());
+        }
+        return block.toByteArray();
+    }
+
+    /**
+     * Largest power of ten dividing every value of the field in {@code [from, to)}.
+     */
+    private static int commonScale(BarSeries series, PriceField field, int from, int to) {
+        int scale = POWERS_OF_TEN.length - 1;
+        for (int i = from; i < to && scale > 0; i++) {
+            long value = series.value(field, i);
+            while (scale > 0 && value % POWERS_OF_TEN[scale] != 0) {
+                scale--;
+            }
+        }
+        return scale;
+    }
+
+    /**
+     * @param columns sections of fields left {@code null} are skipped
+     */
+    private static void decodeBlock(byte[] block, int length, int rows, int[] dates, long[][] columns) throws IOException {
+        Cursor cursor = new Cursor(block, length);
+        int datesLength = (int) cursor.varint();
+        int[] sectionLengths = new int[PriceField.COUNT];
+        for (int field = 0; field < sectionLengths.length; field++) {
+            sectionLengths[field] = (int) cursor.varint();
+        }
+
+        int sectionStart = cursor.position;
+        int date = (int) unZigZag(cursor.varint());
+        dates[0] = date;
+        for (int i = 1; i < rows; i++) {
+            date += (int) cursor.varint();
+            dates[i] = date;
+        }
+        sectionStart += datesLength;
+
+        for (int field = 0; field < columns.length; field++) {
+            long[] column = columns[field];
+            if (column != null) {
+                cursor.position = sectionStart;
+                long multiplier = POWERS_OF_TEN[(int) cursor.varint()];
+                long value = 0;
+                for (int i = 0; i < rows; i++) {
+                    value += unZigZag(cursor.varint());
+                    column[i] = value * multiplier;
+                }
+            }
+            sectionStart += sectionLengths[field];
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Reads varints from a block.
+     */
+    private static final class Cursor {
+        private final byte[] bytes;
+        private final int length;
+        int position;
+
+        Cursor(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        long varint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= length) {
+                    throw new EOFException("Truncated price archive block");
+                }
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in price archive block");
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package com.eitel;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.Lock;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Persistent per-symbol price cache in front of another {@link PriceSource}. Each symbol is stored
+ * in its own {@link PriceSeriesFile} holding the date ranges that have been fetched and the bars
+ * within them, with every {@link PriceField}, so one fetch serves queries on any field. Requests
+ * only load the date gaps the cache is missing; fully covered requests are served from the
+ * memory-mapped file without calling the underlying source.
+ *
+ * Only the rows of the missing dates are held on the heap. An update streams the rows already
+ * cached from the old file, merged with the loaded ones, into a {@link PriceSeriesFile#writer}, and
+ * entries of {@link BinaryPriceSource#SEGMENTED_BYTES} or more are read through
+ * {@link SegmentedPriceSeriesFile} windows, so entries may outgrow the heap and the 2 GB limit of a
+ * single mapping.
+ *
+ * Several processes may share a cache directory. Files are only ever replaced by an atomic
+ * rename, so readers never see a partial write, and updates to a symbol are serialized with a
+ * file lock so concurrent misses do not overwrite each other's data.
+ */
+final class PriceCache implements PriceSource {
+
+    /**
+     * Decides which entries to remove from the cache directory. Called after an entry is written.
+     */
+    interface EvictionPolicy {
+        /**
+         * @param entries data files of every entry, including the one just written
+         * @return entries to remove; the one just written and entries in use are kept regardless
+         */
+        List<File> select(File[] entries);
+    }
+
+    static final EvictionPolicy NO_EVICTION = new EvictionPolicy() {
+        @Override
+        public List<File> select(File[] entries) {
+            return Collections.emptyList();
+        }
+    };
+
+    /**
+     * Remove the least recently used entries once the cache grows past the given size.
+     */
+    static EvictionPolicy leastRecentlyUsed(final long maxBytes) {
+        return new EvictionPolicy() {
+            @Override
+            public List<File> select(File[] entries) {
+                Arrays.sort(entries, new Comparator<File>() {
+                    @Override
+                    public int compare(File a, File b) {
+                        return Long.compare(b.lastModified(), a.lastModified());
+                    }
+                });
+                List<File> evicted = Lists.newArrayList();
+                long size = 0;
+                for (File entry : entries) {
+                    size += entry.length();
+                    if (size > maxBytes) {
+                        evicted.add(entry);
+                    }
+                }
+                return evicted;
+            }
+        };
+    }
+
+    private static final String DATA_SUFFIX = ".prices";
+    private static final String LOCK_SUFFIX = ".lock";
+
+    private static final FileFilter DATA_FILES = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.getName().endsWith(DATA_SUFFIX);
+        }
+    };
+
+    private final File directory;
+    private final PriceSource source;
+    private final EvictionPolicy evictionPolicy;
+    private final long segmentedBytes;
+    private final int segmentRows;
+    private final Metrics metrics;
+    private final Metrics.Counter hits;
+    private final Metrics.Counter misses;
+
+    // File locks are held per process, so threads of this process are serialized separately.
+    private final Striped<Lock> locks = Striped.lock(64);
+
+    PriceCache(File directory, PriceSource source, EvictionPolicy evictionPolicy) {
+        this(directory, source, evictionPolicy, Metrics.DISABLED);
+    }
+
+    /**
+     * @param metrics counts requests served from the cache ({@code cache.hits}) and requests that load
+     *        missing dates from the source ({@code cache.misses})
+     */
+    PriceCache(File directory, PriceSource source, EvictionPolicy evictionPolicy, Metrics metrics) {
+        this(directory, source, evictionPolicy, BinaryPriceSource.SEGMENTED_BYTES,
+                SegmentedPriceSeriesFile.DEFAULT_SEGMENT_ROWS, metrics);
+    }
+
+    /**
+     * @param segmentedBytes size from which entries are read one window at a time
+     * @param segmentRows number of rows in each window
+     */
+    PriceCache(File directory, PriceSource source, EvictionPolicy evictionPolicy, long segmentedBytes, int segmentRows,
+            Metrics metrics) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create cache directory " + directory);
+        }
+        this.directory = directory;
+        this.source = source;
+        this.evictionPolicy = evictionPolicy;
+        this.segmentedBytes = segmentedBytes;
+        this.segmentRows = segmentRows;
+        this.metrics = metrics;
+        this.hits = metrics.counter("cache.hits");
+        this.misses = metrics.counter("cache.misses");
+    }
+
+    @Override
+    public void load(String stockSymbol, int startDate, int endDate, BarSink sink) throws IOException {
+        lookup(stockSymbol, startDate, endDate).replayNewestFirst(startDate, endDate, sink);
+    }
+
+    /**
+     * Rows of the symbol dated within {@code [startDate, endDate]} (inclusive epoch days), in chronological order.
+     */
+    BarSeries get(String stockSymbol, int startDate, int endDate) throws IOException {
+        return lookup(stockSymbol, startDate, endDate).slice(startDate, endDate);
+    }
+
+    /**
+     * Find the cache entry of a symbol, loading any dates of the range that it does not cover yet.
+     */
+    private Entry lookup(String stockSymbol, int startDate, int endDate) throws IOException {
+        String name = fileName(stockSymbol);
+        File dataFile = new File(directory, name + DATA_SUFFIX);
+
+        Entry entry = read(dataFile);
+        if (entry.gaps(startDate, endDate).isEmpty()) {
+            dataFile.setLastModified(System.currentTimeMillis());
+            hits.increment();
+            return entry;
+        }
+
+        Lock lock = locks.get(name);
+        lock.lock();
+        try (FileChannel lockChannel = FileChannel.open(new File(directory, name + LOCK_SUFFIX).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock fileLock = lockChannel.lock();
+            try {
+                // Another process may have filled the gaps while we were waiting for the lock.
+                entry = read(dataFile);
+                List<int[]> gaps = entry.gaps(startDate, endDate);
+                if (gaps.isEmpty()) {
+                    hits.increment();
+                    return entry;
+                }
+                misses.increment();
+
+                // Data for the current day may still change, so it is stored but never marked as covered.
+                int lastCompleteDay = EpochDays.today() - 1;
+                BarSeries loaded = new BarSeries();
+                for (int[] gap : gaps) {
+                    loaded = BarSeries.merge(loaded, BarSeries.load(source, stockSymbol, gap[0], gap[1]).slice(gap[0], gap[1]));
+                    if (gap[0] <= lastCompleteDay) {
+                        entry.addCoverage(gap[0], Math.min(gap[1], lastCompleteDay));
+                    }
+                }
+                write(dataFile, entry, loaded);
+                evict(dataFile);
+                return read(dataFile);
+            } finally {
+                fileLock.release();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the entries chosen by the eviction policy, except the one just written. Each entry is
+     * removed under its locks, so that no other thread or process is updating it; entries whose
+     * locks are held are in use and skipped.
+     */
+    private void evict(File written) {
+        for (File dataFile : evictionPolicy.select(directory.listFiles(DATA_FILES))) {
+            if (!dataFile.equals(written)) {
+                tryRemove(dataFile);
+            }
+        }
+    }
+
+    private void tryRemove(File dataFile) {
+        String name = dataFile.getName().substring(0, dataFile.getName().length() - DATA_SUFFIX.length());
+        Lock lock = locks.get(name);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try (FileChannel lockChannel = FileChannel.open(new File(directory, name + LOCK_SUFFIX).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock fileLock = lockChannel.tryLock();
+            if (fileLock != null) {
+                try {
+                    dataFile.delete();
+                } finally {
+                    fileLock.release();
+                }
+            }
+        } catch (IOException | OverlappingFileLockException e) {
+            // Left for a later eviction.
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry read(File file) {
+        try {
+            if (!file.exists()) {
+                return new Entry();
+            } else if (file.length() >= segmentedBytes) {
+                return new Entry(SegmentedPriceSeriesFile.open(file, segmentRows, metrics));
+            }
+            return new Entry(PriceSeriesFile.map(file));
+        } catch (IOException e) {
+            // Evicted by another process, or an unknown or damaged file that is rebuilt on the next write.
+            return new Entry();
+        }
+    }
+
+    /**
+     * Replace the file of an entry with its rows merged with the loaded ones, which replace cached
+     * rows of the same date, streaming the cached rows from the old file.
+     */
+    private void write(File file, Entry entry, BarSeries loaded) throws IOException {
+        PriceSeriesFile.Writer writer = PriceSeriesFile.writer(file, entry.flatCoverage());
+        boolean written = false;
+        try {
+            MergingSink merging = new MergingSink(loaded, writer);
+            if (entry.hasRows()) {
+                SegmentedPriceSeriesFile.open(file, segmentRows, metrics).replay(Integer.MIN_VALUE, Integer.MAX_VALUE - 1, merging);
+            }
+            merging.finish();
+            writer.close();
+            written = true;
+        } finally {
+            if (!written) {
+                writer.abort();
+            }
+        }
+    }
+
+    /**
+     * Map a symbol to a safe file name. Symbols are case-insensitive.
+     */
+    private static String fileName(String symbol) {
+        StringBuilder name = new StringBuilder();
+        for (char c : symbol.toUpperCase(Locale.ROOT).toCharArray()) {
+            if ((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '^' || c == '=') {
+                name.append(c);
+            } else {
+                name.append('_').append(Integer.toHexString(c)).append('_');
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * Writes rows delivered oldest first, inserting the rows of a chronologically ordered series where
+     * they belong. Delivered rows sharing a date with one of the series are dropped.
+     */
+    private static final class MergingSink implements BarSink {
+        private final BarSeries newer;
+        private final BarSink sink;
+        private final long[] values = new long[PriceField.COUNT];
+        private int next;
+
+        MergingSink(BarSeries newer, BarSink sink) {
+            this.newer = newer;
+            this.sink = sink;
+        }
+
+        @Override
+        public void accept(int date, long[] values) {
+            writeNewerBefore(date);
+            if (next == newer.size() || newer.date(next) != date) {
+                sink.accept(date, values);
+            }
+        }
+
+        /**
+         * Write the rows of the series left after the last delivered row.
+         */
+        void finish() {
+            writeNewerBefore(Integer.MAX_VALUE);
+            if (next < newer.size()) {
+                writeNewer();
+            }
+        }
+
+        private void writeNewerBefore(int date) {
+            while (next < newer.size() && newer.date(next) < date) {
+                writeNewer();
+            }
+        }
+
+        private void writeNewer() {
+            for (PriceField field : PriceField.values()) {
+                values[field.ordinal()] = newer.value(field, next);
+            }
+            sink.accept(newer.date(next++), values);
+        }
+    }
+
+    /**
+     * Cached rows of one symbol, in a mapped file, in a file read one window at a time, or none.
+     */
+    private static class Entry {
+        // Sorted, non-overlapping [start, end] ranges of epoch days that have been fetched.
+        List<int[]> coverage;
+        private final PriceSeriesFile contents;
+        private final SegmentedPriceSeriesFile segments;
+
+        Entry() {
+            this.coverage = Lists.newArrayList();
+            this.contents = null;
+            this.segments = null;
+        }
+
+        Entry(PriceSeriesFile contents) {
+            this.coverage = coverage(contents.coverage());
+            this.contents = contents;
+            this.segments = null;
+        }
+
+        Entry(SegmentedPriceSeriesFile segments) {
+            this.coverage = coverage(segments.coverage());
+            this.contents = null;
+            this.segments = segments;
+        }
+
+        private static List<int[]> coverage(int[] ranges) {
+            List<int[]> coverage = Lists.newArrayList();
+            for (int i = 0; i < ranges.length; i += 2) {
+                coverage.add(new int[] {ranges[i], ranges[i + 1]});
+            }
+            return coverage;
+        }
+
+        boolean hasRows() {
+            return contents != null || segments != null;
+        }
+
+        BarSeries slice(int startDate, int endDate) throws IOException {
+            if (contents != null) {
+                return contents.slice(startDate, endDate);
+            }
+            BarSeries series = new BarSeries();
+            replayNewestFirst(startDate, endDate, series);
+            series.orderChronologically();
+            return series;
+        }
+
+        void replayNewestFirst(int startDate, int endDate, BarSink sink) throws IOException {
+            if (contents != null) {
+                contents.replayNewestFirst(startDate, endDate, sink);
+            } else if (segments != null) {
+                segments.replayNewestFirst(startDate, endDate, sink);
+            }
+        }
+
+        int[] flatCoverage() {
+            int[] ranges = new int[coverage.size() * 2];
+            for (int i = 0; i < coverage.size(); i++) {
+                ranges[2 * i] = coverage.get(i)[0];
+                ranges[2 * i + 1] = coverage.get(i)[1];
+            }
+            return ranges;
+        }
+
+        List<int[]> gaps(int startDate, int endDate) {
+            List<int[]> gaps = Lists.newArrayList();
+            int cursor = startDate;
+            for (int[] range : coverage) {
+                if (range[1] < cursor) {
+                    continue;
+                }
+                if (range[0] > endDate) {
+                    break;
+                }
+                if (range[0] > cursor) {
+                    gaps.add(new int[] {cursor, range[0] - 1});
+                }
+                cursor = range[1] + 1;
+                if (cursor > endDate) {
+                    return gaps;
+                }
+            }
+            gaps.add(new int[] {cursor, endDate});
+            return gaps;
+        }
+
+        void addCoverage(int startDate, int endDate) {
+            List<int[]> merged = Lists.newArrayList();
+            int[] added = {startDate, endDate};
+            for (int[] range : coverage) {
+                if (added == null || range[1] + 1 < added[0]) {
+                    merged.add(range);
+                } else if (added[1] + 1 < range[0]) {
+                    merged.add(added);
+                    added = null;
+                    merged.add(range);
+                } else {
+                    added[0] = Math.min(added[0], range[0]);
+                    added[1] = Math.max(added[1], range[1]);
+                }
+            }
+            if (added != null) {
+                merged.add(added);
+            }
+            coverage = merged;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.eitel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for Yahoo-format price CSV (header line, then one unquoted row per day).
+ *
+ * The header is read once to resolve the date and price column indexes. After that the parser scans
+ * the raw bytes and hands each row to a {@link PriceSink} or {@link BarSink} as primitives, so no
+ * String or record object is created per line. Instances are immutable and may be shared between threads.
+ */
+final class PriceCsvParser {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final long MAX_PRICE_DIGITS_VALUE = (Long.MAX_VALUE - 9) / 10;
+
+    private static final String[] FIELD_HEADERS = new String[PriceField.COUNT];
+    static {
+        for (PriceField field : PriceField.values()) {
+            FIELD_HEADERS[field.ordinal()] = field.header();
+        }
+    }
+
+    private final String dateHeader;
+    private final String priceHeader;
+    private final int bufferSize;
+
+    PriceCsvParser(String dateHeader, String priceHeader) {
+        this(dateHeader, priceHeader, DEFAULT_BUFFER_SIZE);
+    }
+
+    PriceCsvParser(String dateHeader, String priceHeader, int bufferSize) {
+        this.dateHeader = dateHeader;
+        this.priceHeader = priceHeader;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Parse the date and price column of all rows from the stream, in the order they appear, into the sink.
+     * @return number of rows parsed
+     */
+    int parse(InputStream in, final PriceSink sink) throws IOException {
+        return parse(in, new String[] {priceHeader}, true, new BarSink() {
+            @Override
+            public void accept(int date, long[] values) {
+                sink.accept(date, values[0]);
+            }
+        });
+    }
+
+    /**
+     * Parse every {@link PriceField} column of all rows, by its header name, into the sink. Fields
+     * without a column are {@link BarSink#MISSING}. For a {@link PriceField.Projection} only the
+     * projected field's column is parsed, and it must exist.
+     * @return number of rows parsed
+     */
+    int parse(InputStream in, BarSink sink) throws IOException {
+        if (sink instanceof PriceField.Projection) {
+            final PriceField.Projection projection = (PriceField.Projection) sink;
+            return parse(in, new String[] {projection.field.header()}, true, new BarSink() {
+                @Override
+                public void accept(int date, long[] values) {
+                    projection.accept(date, values[0]);
+                }
+            });
+        }
+        return parse(in, FIELD_HEADERS, false, sink);
+    }
+
+    /**
+     * @param valueHeaders headers of the columns delivered in {@code values}, in that order
+     * @param required whether a missing column is an error rather than {@link BarSink#MISSING}
+     */
+    private int parse(InputStream in, String[] valueHeaders, boolean required, BarSink sink) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        int limit = 0;
+        int position = 0;
+        int scanFrom = 0;
+        boolean endOfStream = false;
+
+        int dateColumn = -1;
+        // Slot in values of each column, or -1 if the column is not parsed.
+        int[] valueSlots = null;
+        int valueColumns = 0;
+        long[] values = new long[valueHeaders.length];
+        int lineNumber = 0;
+        int rows = 0;
+
+        while (true) {
+            int lineEnd = indexOf(buffer, (byte) '\n', scanFrom, limit);
+            if (lineEnd < 0) {
+                if (!endOfStream) {
+                    // Move the partial line to the front of the buffer and read more.
+                    if (position > 0) {
+                        System.arraycopy(buffer, position, buffer, 0, limit - position);
+                        limit -= position;
+                        position = 0;
+                    }
+                    if (limit == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    scanFrom = limit;
+                    int read = in.read(buffer, limit, buffer.length - limit);
+                    if (read < 0) {
+                        endOfStream = true;
+                    } else {
+                        limit += read;
+                    }
+                    continue;
+                }
+                if (position == limit) {
+                    break;
+                }
+                // Last line without a trailing newline.
+                lineEnd = limit;
+            }
+
+            int contentEnd = lineEnd;
+            if (contentEnd > position && buffer[contentEnd - 1] == '\r') {
+                contentEnd--;
+            }
+            lineNumber++;
+
+            if (contentEnd > position) {
+                if (dateColumn < 0) {
+                    String[] headers = new String(buffer, position, contentEnd - position, StandardCharsets.UTF_8).split(",", -1);
+                    dateColumn = columnIndex(headers, dateHeader, true);
+                    valueSlots = new int[headers.length];
+                    Arrays.fill(valueSlots, -1);
+                    for (int slot = 0; slot < valueHeaders.length; slot++) {
+                        int column = columnIndex(headers, valueHeaders[slot], required);
+                        if (column >= 0) {
+                            valueSlots[column] = slot;
+                            valueColumns++;
+                        } else {
+                            values[slot] = BarSink.MISSING;
+                        }
+                    }
+                    if (valueColumns == 0) {
+                        throw new IllegalArgumentException(String.format("None of %s found, expected one of %s",
+                                Arrays.toString(valueHeaders), Arrays.toString(headers)));
+                    }
+                } else {
+                    parseRow(buffer, position, contentEnd, dateColumn, valueSlots, valueColumns, values, lineNumber, sink);
+                    rows++;
+                }
+            }
+
+            position = Math.min(lineEnd + 1, limit);
+            scanFrom = position;
+        }
+        return rows;
+    }
+
+    private static void parseRow(byte[] buffer, int from, int to, int dateColumn, int[] valueSlots, int valueColumns,
+            long[] values, int lineNumber, BarSink sink) {
+        int date = 0;
+        boolean hasDate = false;
+        int parsedValues = 0;
+
+        int column = 0;
+        int fieldStart = from;
+        for (int i = from; i <= to && column < valueSlots.length; i++) {
+            if (i == to || buffer[i] == ',') {
+                if (column == dateColumn) {
+                    date = parseDate(buffer, fieldStart, i, lineNumber);
+                    hasDate = true;
+                } else if (valueSlots[column] >= 0) {
+                    values[valueSlots[column]] = parsePrice(buffer, fieldStart, i, lineNumber);
+                    parsedValues++;
+                }
+                if (hasDate && parsedValues == valueColumns) {
+                    break;
+                }
+                column++;
+                fieldStart = i + 1;
+            }
+        }
+
+        if (!hasDate || parsedValues < valueColumns) {
+            throw new IllegalArgumentException("Line " + lineNumber + " has fewer columns than the header");
+        }
+        sink.accept(date, values);
+    }
+
+    /**
+     * Parse a yyyy-MM-dd date into an epoch day.
+     */
+    static int parseDate(byte[] buffer, int from, int to, int lineNumber) {
+        if (to - from != 10 || buffer[from + 4] != '-' || buffer[from + 7] != '-') {
+            throw new IllegalArgumentException("Malformed date on line " + lineNumber);
+        }
+        int year = digits(buffer, from, from + 4, lineNumber);
+        int month = digits(buffer, from + 5, from + 7, lineNumber);
+        int day = digits(buffer, from + 8, from + 10, lineNumber);
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            throw new IllegalArgumentException("Malformed date on line " + lineNumber);
+        }
+        return EpochDays.of(year, month, day);
+    }
+
+    /**
+     * Parse a plain decimal number into a fixed-point price, rounding half up past
+     * {@link PriceSeries#PRICE_SCALE} decimal places (as {@link PriceSeries#toFixedPoint} does).
+     */
+    static long parsePrice(byte[] buffer, int from, int to, int lineNumber) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        long value = 0;
+        int digitCount = 0;
+        int fractionDigits = -1; // -1 until the decimal point is seen
+        boolean roundUp = false;
+        for (; i < to; i++) {
+            byte c = buffer[i];
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Malformed price on line " + lineNumber);
+            }
+            digitCount++;
+            if (fractionDigits < PriceSeries.PRICE_SCALE) {
+                if (value > MAX_PRICE_DIGITS_VALUE) {
+                    throw new NumberFormatException("Price out of range on line " + lineNumber);
+                }
+                value = value * 10 + digit;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (fractionDigits == PriceSeries.PRICE_SCALE) {
+                // First digit past the kept precision decides the rounding; the rest are dropped.
+                roundUp = digit >= 5;
+                fractionDigits++;
+            }
+        }
+        if (digitCount == 0) {
+            throw new NumberFormatException("Malformed price on line " + lineNumber);
+        }
+
+        for (int scale = Math.max(fractionDigits, 0); scale < PriceSeries.PRICE_SCALE; scale++) {
+            if (value > MAX_PRICE_DIGITS_VALUE) {
+                throw new NumberFormatException("Price out of range on line " + lineNumber);
+            }
+            value *= 10;
+        }
+        if (roundUp) {
+            value++;
+        }
+        return negative ? -value : value;
+    }
+
+    private static int digits(byte[] buffer, int from, int to, int lineNumber) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Malformed date on line " + lineNumber);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int columnIndex(String[] headers, String name, boolean required) {
+        for (int i = 0; i < headers.length; i++) {
+            String header = headers[i];
+            if (i == 0 && header.startsWith("\uFEFF")) {
+                header = header.substring(1);
+            }
+            if (header.equals(name)) {
+                return i;
+            }
+        }
+        if (!required) {
+            return -1;
+        }
+        throw new IllegalArgumentException(String.format("Mapping for %s not found, expected one of %s", name, Arrays.toString(headers)));
+    }
+
+    private static int indexOf(byte[] buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,78 @@
+package com.eitel;
+
+import java.util.Locale;
+
+/**
+ * The values recorded for each trading day, in the column order of Yahoo's feed. All values are
+ * fixed-point longs with {@link PriceSeries#PRICE_SCALE} decimal places, volume included.
+ */
+enum PriceField {
+    OPEN("Open"),
+    HIGH("High"),
+    LOW("Low"),
+    CLOSE("Close"),
+    VOLUME("Volume"),
+    ADJ_CLOSE("Adj Close");
+
+    static final int COUNT = values().length;
+
+    private final String header;
+
+    private PriceField(String header) {
+        this.header = header;
+    }
+
+    /**
+     * Column header in Yahoo's CSV format.
+     */
+    String header() {
+        return this.header;
+    }
+
+    /**
+     * Parse a field name as given on the command line, e.g. {@code close} or {@code adj-close}.
+     */
+    static PriceField parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown price field: " + name);
+        }
+    }
+
+    /**
+     * Adapt a sink of this field's values to receive whole bars. Sources may recognize the
+     * projection and read only this field.
+     */
+    Projection project(PriceSink sink) {
+        return new Projection(this, sink);
+    }
+
+    /**
+     * Forwards one field of each bar to a {@link PriceSink}.
+     */
+    static final class Projection implements BarSink {
+        final PriceField field;
+        final PriceSink sink;
+
+        private Projection(PriceField field, PriceSink sink) {
+            this.field = field;
+            this.sink = sink;
+        }
+
+        @Override
+        public void accept(int date, long[] values) {
+            accept(date, values[field.ordinal()]);
+        }
+
+        /**
+         * Forward the projected field's value, for sources that read the field on its own.
+         */
+        void accept(int date, long value) {
+            if (value == MISSING) {
+                throw new IllegalArgumentException(String.format("No %s values available for %s", field.header(), EpochDays.format(date)));
+            }
+            sink.accept(date, value);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.eitel;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.collect.Lists;
+
+/**
+ * Prices of several symbols over the trading days of any of them, packed day by day: the prices of
+ * every symbol on one day are adjacent. Finds the longest up-run of all symbols in one pass over the days.
+ *
+ * The scan keeps one run counter per symbol and updates all of them for each day with arithmetic
+ * masks instead of branches, over arrays indexed by symbol, a loop shape the JIT can unroll and
+ * vectorize. Random walks mispredict the per-symbol branch of {@link UpRunScanner} about every other
+ * day; here every day costs the same. Results are those of
+ * {@link UpRunFinder#processStockData(PriceSeries)} on each symbol's series.
+ */
+final class PriceMatrix {
+
+    private final int symbols;
+    private final int[] dates;
+    // prices[day * symbols + symbol]; a day missing from a symbol's series holds its previous price.
+    private final long[] prices;
+    // valid[day * symbols + symbol] is -1 if the symbol has a price that day and 0 if not; null when
+    // every symbol has a price every day.
+    private final int[] valid;
+    // Day of the first price of each symbol.
+    private final int[] firstDays;
+
+    private PriceMatrix(int symbols, int[] dates, long[] prices, int[] valid, int[] firstDays) {
+        this.symbols = symbols;
+        this.dates = dates;
+        this.prices = prices;
+        this.valid = valid;
+        this.firstDays = firstDays;
+    }
+
+    /**
+     * Pack chronologically ordered series over every day present in any of them. A day missing from
+     * a series is skipped for that symbol only, so each symbol's result is that of its own series.
+     */
+    static PriceMatrix align(List<PriceSeries> series) {
+        if (series.isEmpty()) {
+            throw new IllegalArgumentException("No series to align");
+        }
+        int[] dates = allDates(series);
+        int symbols = series.size();
+        long[] prices = new long[dates.length * symbols];
+        int[] valid = null;
+        for (PriceSeries column : series) {
+            if (column.size() == 0) {
+                throw new IllegalArgumentException("No stock data available for the requested range");
+            }
+            if (column.size() < dates.length) {
+                valid = new int[prices.length];
+            }
+        }
+        int[] firstDays = new int[symbols];
+        for (int symbol = 0; symbol < symbols; symbol++) {
+            PriceSeries column = series.get(symbol);
+            // Days before the first price hold it too, so that the first price continues a run of none.
+            long price = column.price(0);
+            int row = 0;
+            for (int day = 0; day < dates.length; day++) {
+                boolean present = row < column.size() && column.date(row) == dates[day];
+                if (present) {
+                    price = column.price(row++);
+                    if (row == 1) {
+                        firstDays[symbol] = day;
+                    }
+                }
+                prices[day * symbols + symbol] = price;
+                if (valid != null) {
+                    valid[day * symbols + symbol] = present ? -1 : 0;
+                }
+            }
+        }
+        return new PriceMatrix(symbols, dates, prices, valid, firstDays);
+    }
+
+    /**
+     * The sorted, distinct dates of every series.
+     */
+    private static int[] allDates(List<PriceSeries> series) {
+        int total = 0;
+        for (PriceSeries column : series) {
+            total += column.size();
+        }
+        int[] dates = new int[total];
+        int count = 0;
+        for (PriceSeries column : series) {
+            for (int i = 0; i < column.size(); i++) {
+                dates[count++] = column.date(i);
+            }
+        }
+        Arrays.sort(dates);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || dates[i] != dates[distinct - 1]) {
+                dates[distinct++] = dates[i];
+            }
+        }
+        return Arrays.copyOf(dates, distinct);
+    }
+
+    int symbols() {
+        return this.symbols;
+    }
+
+    int days() {
+        return this.dates.length;
+    }
+
+    long price(int day, int symbol) {
+        return prices[day * symbols + symbol];
+    }
+
+    /**
+     * Whether the symbol's series has a price on the day.
+     */
+    boolean hasPrice(int day, int symbol) {
+        return valid == null || valid[day * symbols + symbol] != 0;
+    }
+
+    /**
+     * The longest up-run of each symbol, in the order of the series the matrix was built from.
+     */
+    List<UpRunResult> longestUpRuns() {
+        int[] run = new int[symbols];
+        int[] runStart = new int[symbols];
+        int[] best = new int[symbols];
+        int[] bestStart = new int[symbols];
+        int[] bestEnd = new int[symbols];
+        for (int s = 0; s < symbols; s++) {
+            // A symbol's runs start on its first day; until then its run is empty.
+            run[s] = firstDays[s] == 0 ? 1 : 0;
+            runStart[s] = firstDays[s];
+            best[s] = run[s];
+        }
+
+        if (valid == null) {
+            scanAligned(run, runStart, best, bestStart, bestEnd);
+        } else {
+            scanMasked(run, runStart, best, bestStart, bestEnd);
+        }
+
+        List<UpRunResult> results = Lists.newArrayListWithCapacity(symbols);
+        for (int s = 0; s < symbols; s++) {
+            // No up-run longer than a day: the oldest day is reported.
+            int start = best[s] == 1 ? firstDays[s] : bestStart[s];
+            int end = best[s] == 1 ? firstDays[s] : bestEnd[s];
+            results.add(UpRunScanner.result(dates[start], price(start, s), dates[end], price(end, s), best[s]));
+        }
+        return results;
+    }
+
+    private void scanAligned(int[] run, int[] runStart, int[] best, int[] bestStart, int[] bestEnd) {
+        for (int day = 1; day < dates.length; day++) {
+            int today = day * symbols;
+            int yesterday = today - symbols;
+            for (int s = 0; s < symbols; s++) {
+                // All ones when the price did not fall, which continues the run; otherwise a new run starts.
+                int up = (int) ((prices[yesterday + s] - prices[today + s] - 1) >> 63);
+                int length = ((run[s] + 1) & up) | (1 & ~up);
+                run[s] = length;
+                runStart[s] = (runStart[s] & up) | (day & ~up);
+                // All ones when the run is at least as long as the best, so the newest of equally long runs wins.
+                int longer = (best[s] - length - 1) >> 31;
+                best[s] = (length & longer) | (best[s] & ~longer);
+                bestStart[s] = (runStart[s] & longer) | (bestStart[s] & ~longer);
+                bestEnd[s] = (day & longer) | (bestEnd[s] & ~longer);
+            }
+        }
+    }
+
+    /**
+     * As {@link #scanAligned}, leaving the state of a symbol untouched on the days it has no price.
+     * Those days hold its previous price, so its next price is compared with that one.
+     */
+    private void scanMasked(int[] run, int[] runStart, int[] best, int[] bestStart, int[] bestEnd) {
+        for (int day = 1; day < dates.length; day++) {
+            int today = day * symbols;
+            int yesterday = today - symbols;
+            for (int s = 0; s < symbols; s++) {
+                int present = valid[today + s];
+                int up = (int) ((prices[yesterday + s] - prices[today + s] - 1) >> 63);
+                int length = ((run[s] + 1) & up) | (1 & ~up);
+                run[s] = (length & present) | (run[s] & ~present);
+                int newRun = ~up & present;
+                runStart[s] = (runStart[s] & ~newRun) | (day & newRun);
+                int longer = ((best[s] - length - 1) >> 31) & present;
+                best[s] = (length & longer) | (best[s] & ~longer);
+                bestStart[s] = (runStart[s] & longer) | (bestStart[s] & ~longer);
+                bestEnd[s] = (day & longer) | (bestEnd[s] & ~longer);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.eitel;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Columnar price history for a single stock in chronological order (oldest first).
+ *
+ * Dates are stored as epoch days and prices as fixed-point longs with {@link #PRICE_SCALE} decimal
+ * places, so a series of any length costs two primitive arrays rather than an object per row.
+ */
+final class PriceSeries implements PriceSink {
+
+    /** Number of decimal places kept for fixed-point prices. */
+    static final int PRICE_SCALE = 6;
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private int[] dates;
+    private long[] prices;
+    private int size;
+
+    PriceSeries() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    PriceSeries(int capacity) {
+        this.dates = new int[Math.max(capacity, 1)];
+        this.prices = new long[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Wrap existing arrays without copying.
+     */
+    PriceSeries(int[] dates, long[] prices, int size) {
+        if (dates.length < size || prices.length < size) {
+            throw new IllegalArgumentException("Arrays are shorter than the series size");
+        }
+        this.dates = dates;
+        this.prices = prices;
+        this.size = size;
+    }
+
+    void add(int date, long price) {
+        if (size == dates.length) {
+            int capacity = size + (size >> 1) + 1;
+            dates = Arrays.copyOf(dates, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+        }
+        dates[size] = date;
+        prices[size] = price;
+        size++;
+    }
+
+    @Override
+    public void accept(int date, long price) {
+        add(date, price);
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    int date(int index) {
+        return this.dates[index];
+    }
+
+    long price(int index) {
+        return this.prices[index];
+    }
+
+    /**
+     * Load a chronologically ordered series of one field from a source.
+     */
+    static PriceSeries load(PriceSource source, String stockSymbol, PriceField field, int startDate, int endDate) throws IOException {
+        PriceSeries series = new PriceSeries();
+        source.load(stockSymbol, startDate, endDate, field.project(series));
+        series.orderChronologically();
+        return series;
+    }
+
+    /**
+     * Deliver all rows to the sink, oldest first.
+     */
+    void replay(PriceSink sink) {
+        for (int i = 0; i < size; i++) {
+            sink.accept(dates[i], prices[i]);
+        }
+    }
+
+    /**
+     * Deliver all rows to the sink, newest first.
+     */
+    void replayNewestFirst(PriceSink sink) {
+        for (int i = size - 1; i >= 0; i--) {
+            sink.accept(dates[i], prices[i]);
+        }
+    }
+
+    /**
+     * Deliver the rows dated within {@code [startDate, endDate]} to the sink, newest first.
+     */
+    void replayNewestFirst(int startDate, int endDate, PriceSink sink) {
+        int from = lowerBound(startDate);
+        for (int i = lowerBound(endDate + 1) - 1; i >= from; i--) {
+            sink.accept(dates[i], prices[i]);
+        }
+    }
+
+    /**
+     * Index of the first row dated on or after the given epoch day, or {@link #size()} if there is none.
+     */
+    int lowerBound(int date) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dates[mid] < date) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Copy of the rows dated within {@code [startDate, endDate]}, inclusive.
+     */
+    PriceSeries slice(int startDate, int endDate) {
+        int from = lowerBound(startDate);
+        int to = Math.max(from, lowerBound(endDate + 1));
+        return new PriceSeries(Arrays.copyOfRange(dates, from, to), Arrays.copyOfRange(prices, from, to), to - from);
+    }
+
+    /**
+     * Merge two chronologically ordered series. Rows of {@code newer} replace rows of {@code older}
+     * that share the same date.
+     */
+    static PriceSeries merge(PriceSeries older, PriceSeries newer) {
+        PriceSeries merged = new PriceSeries(older.size + newer.size);
+        int i = 0;
+        int j = 0;
+        while (i < older.size || j < newer.size) {
+            if (j == newer.size || (i < older.size && older.dates[i] < newer.dates[j])) {
+                merged.add(older.dates[i], older.prices[i]);
+                i++;
+            } else {
+                if (i < older.size && older.dates[i] == newer.dates[j]) {
+                    i++;
+                }
+                merged.add(newer.dates[j], newer.prices[j]);
+                j++;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Reverse the series in place if it was collected from rows delivered newest first.
+     */
+    void orderChronologically() {
+        if (size > 1 && dates[0] > dates[size - 1]) {
+            reverse();
+        }
+    }
+
+    /**
+     * Reverse the series in place. Used to restore chronological order after loading from a source
+     * that returns the newest rows first.
+     */
+    void reverse() {
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            int date = dates[i];
+            dates[i] = dates[j];
+            dates[j] = date;
+            long price = prices[i];
+            prices[i] = prices[j];
+            prices[j] = price;
+        }
+    }
+
+    static long toFixedPoint(BigDecimal price) {
+        BigDecimal scaled = price.setScale(PRICE_SCALE, RoundingMode.HALF_UP);
+        if (scaled.unscaledValue().bitLength() > 63) {
+            throw new ArithmeticException("Price out of range: " + price);
+        }
+        return scaled.unscaledValue().longValue();
+    }
+
+    static BigDecimal toBigDecimal(long fixedPointPrice) {
+        return BigDecimal.valueOf(fixedPointPrice, PRICE_SCALE);
+    }
+}
@@ -0,0 +1,368 @@
+package com.eitel;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+/**
+ * Binary, memory-mappable storage for a {@link BarSeries}.
+ *
+ * Layout (big-endian): magic, version, range count, row count, field count, the covered
+ * [start, end] epoch-day ranges, then the dates as ints followed by one column of fixed-point longs
+ * per {@link PriceField}, all in chronological order. Every column is fixed-width, so a single field
+ * is scanned in place from the mapped file; nothing is copied until {@link #toSeries()}. Files are
+ * written from a series in memory by {@link #write}, or streamed by a {@link #writer}.
+ *
+ * Version 1 files held the opening price only and are no longer read.
+ */
+final class PriceSeriesFile {
+
+    static final int MAGIC = 0x55505243; // "UPRC"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 20;
+
+    private final int[] coverage;
+    private final IntBuffer dates;
+    private final LongBuffer[] columns;
+    private final int size;
+
+    private PriceSeriesFile(int[] coverage, IntBuffer dates, LongBuffer[] columns, int size) {
+        this.coverage = coverage;
+        this.dates = dates;
+        this.columns = columns;
+        this.size = size;
+    }
+
+    /**
+     * Map a file written by {@link #write}.
+     * @throws IOException if the file does not exist or is not a price file of a known version
+     */
+    static PriceSeriesFile map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a price file: " + file);
+            }
+            int rangeCount = buffer.getInt();
+            int rowCount = buffer.getInt();
+            if (buffer.getInt() != PriceField.COUNT) {
+                throw new IOException("Unexpected field count in " + file);
+            }
+
+            int[] coverage = new int[rangeCount * 2];
+            buffer.asIntBuffer().get(coverage);
+            buffer.position(buffer.position() + coverage.length * 4);
+
+            IntBuffer dates = buffer.asIntBuffer();
+            dates.limit(rowCount);
+            buffer.position(buffer.position() + rowCount * 4);
+            LongBuffer[] columns = new LongBuffer[PriceField.COUNT];
+            for (int field = 0; field < columns.length; field++) {
+                columns[field] = buffer.asLongBuffer();
+                columns[field].limit(rowCount);
+                buffer.position(buffer.position() + rowCount * 8);
+            }
+
+            return new PriceSeriesFile(coverage, dates, columns, rowCount);
+        }
+    }
+
+    /**
+     * Write the series and the ranges it covers. The file is replaced atomically, so concurrent
+     * readers see either the old or the new content.
+     * @param coverage sorted [start, end] pairs of epoch days, flattened
+     */
+    static void write(File file, int[] coverage, BarSeries series) throws IOException {
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(coverage.length / 2);
+                out.writeInt(series.size());
+                out.writeInt(PriceField.COUNT);
+                for (int date : coverage) {
+                    out.writeInt(date);
+                }
+                for (int i = 0; i < series.size(); i++) {
+                    out.writeInt(series.date(i));
+                }
+                for (PriceField field : PriceField.values()) {
+                    for (int i = 0; i < series.size(); i++) {
+                        out.writeLong(series.value(field, i));
+                    }
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Stream bars into a new file without holding the series in memory, for histories larger than
+     * the heap. See {@link Writer}.
+     * @param coverage sorted [start, end] pairs of epoch days, flattened
+     */
+    static Writer writer(File file, int[] coverage) throws IOException {
+        return new Writer(file, coverage);
+    }
+
+    /**
+     * Writes a file from bars delivered oldest first, holding one buffered output per column instead
+     * of the series. The dates are written after a header whose row count is left blank, and each
+     * field's column to a temporary file next to the target. {@link #close()} appends the columns,
+     * patches the row count into the header and replaces the target atomically, so concurrent
+     * readers see either the old or the new content. After a failure, {@link #abort()} discards
+     * everything written instead.
+     */
+    static final class Writer implements BarSink, Closeable {
+
+        private static final int ROW_COUNT_OFFSET = 12;
+        private static final int BUFFER_BYTES = 1 << 16;
+
+        private final File file;
+        private final File temp;
+        private final File[] columnFiles = new File[PriceField.COUNT];
+        private final DataOutputStream dates;
+        private final DataOutputStream[] columns = new DataOutputStream[PriceField.COUNT];
+        private long rows;
+        private int lastDate;
+        private boolean finished;
+
+        private Writer(File file, int[] coverage) throws IOException {
+            this.file = file;
+            File directory = file.getAbsoluteFile().getParentFile();
+            this.temp = File.createTempFile(file.getName(), ".tmp", directory);
+            boolean opened = false;
+            try {
+                this.dates = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_BYTES));
+                dates.writeInt(MAGIC);
+                dates.writeInt(VERSION);
+                dates.writeInt(coverage.length / 2);
+                dates.writeInt(0); // Row count, patched by close().
+                dates.writeInt(PriceField.COUNT);
+                for (int date : coverage) {
+                    dates.writeInt(date);
+                }
+                for (PriceField field : PriceField.values()) {
+                    columnFiles[field.ordinal()] = File.createTempFile(file.getName() + "." + field.name().toLowerCase(Locale.ROOT),
+                            ".tmp", directory);
+                    columns[field.ordinal()] = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(columnFiles[field.ordinal()]), BUFFER_BYTES));
+                }
+                opened = true;
+            } finally {
+                if (!opened) {
+                    abort();
+                }
+            }
+        }
+
+        /**
+         * @throws IllegalArgumentException if the bar is not newer than the previous one
+         */
+        @Override
+        public void accept(int date, long[] values) {
+            if (rows > 0 && date <= lastDate) {
+                throw new IllegalArgumentException(String.format("Row for %s is out of order after %s",
+                        EpochDays.format(date), EpochDays.format(lastDate)));
+            }
+            try {
+                dates.writeInt(date);
+                for (int field = 0; field < columns.length; field++) {
+                    columns[field].writeLong(values[field]);
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            lastDate = date;
+            rows++;
+        }
+
+        /**
+         * Number of rows written so far.
+         */
+        long rows() {
+            return this.rows;
+        }
+
+        /**
+         * Complete the file and move it in place of the target. Does nothing after {@link #abort()}.
+         */
+        @Override
+        public void close() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            try {
+                closeStreams();
+                if (rows > Integer.MAX_VALUE) {
+                    throw new IOException(String.format("%d rows do not fit in a price file", rows));
+                }
+                try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                    long position = out.size();
+                    for (File columnFile : columnFiles) {
+                        try (FileChannel in = FileChannel.open(columnFile.toPath(), StandardOpenOption.READ)) {
+                            long size = in.size();
+                            for (long copied = 0; copied < size; ) {
+                                copied += out.transferFrom(in, position + copied, size - copied);
+                            }
+                            position += size;
+                        }
+                    }
+                    ByteBuffer rowCount = ByteBuffer.allocate(4).putInt(0, (int) rows);
+                    while (rowCount.hasRemaining()) {
+                        out.write(rowCount, ROW_COUNT_OFFSET + rowCount.position());
+                    }
+                }
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                deleteTemporaryFiles();
+            }
+        }
+
+        /**
+         * Discard what has been written, leaving the target untouched.
+         */
+        void abort() {
+            finished = true;
+            try {
+                closeStreams();
+            } catch (IOException e) {
+                // The files are deleted anyway.
+            }
+            deleteTemporaryFiles();
+        }
+
+        private void closeStreams() throws IOException {
+            IOException failure = null;
+            List<Closeable> streams = Lists.<Closeable>newArrayList(columns);
+            streams.add(dates);
+            for (Closeable stream : streams) {
+                try {
+                    if (stream != null) {
+                        stream.close();
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void deleteTemporaryFiles() {
+            temp.delete();
+            for (File columnFile : columnFiles) {
+                if (columnFile != null) {
+                    columnFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Covered [start, end] epoch-day ranges, flattened.
+     */
+    int[] coverage() {
+        return this.coverage.clone();
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    int date(int index) {
+        return this.dates.get(index);
+    }
+
+    long value(PriceField field, int index) {
+        return this.columns[field.ordinal()].get(index);
+    }
+
+    /**
+     * Index of the first row dated on or after the given epoch day, or {@link #size()} if there is none.
+     */
+    int lowerBound(int date) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dates.get(mid) < date) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Copy of the rows dated within {@code [startDate, endDate]}, inclusive.
+     */
+    BarSeries slice(int startDate, int endDate) {
+        int from = lowerBound(startDate);
+        int to = Math.max(from, lowerBound(endDate + 1));
+        return copy(from, to);
+    }
+
+    /**
+     * Deliver the rows dated within {@code [startDate, endDate]} to the sink, newest first, straight
+     * from the mapped file. A {@link PriceField.Projection} reads its field's column only.
+     */
+    void replayNewestFirst(int startDate, int endDate, BarSink sink) {
+        int from = lowerBound(startDate);
+        int to = lowerBound(endDate + 1);
+        if (sink instanceof PriceField.Projection) {
+            PriceField.Projection projection = (PriceField.Projection) sink;
+            LongBuffer column = columns[projection.field.ordinal()];
+            for (int i = to - 1; i >= from; i--) {
+                projection.accept(dates.get(i), column.get(i));
+            }
+            return;
+        }
+        long[] values = new long[PriceField.COUNT];
+        for (int i = to - 1; i >= from; i--) {
+            for (int field = 0; field < columns.length; field++) {
+                values[field] = columns[field].get(i);
+            }
+            sink.accept(dates.get(i), values);
+        }
+    }
+
+    /**
+     * Copy all rows onto the heap.
+     */
+    BarSeries toSeries() {
+        return copy(0, size);
+    }
+
+    private BarSeries copy(int from, int to) {
+        int[] dateArray = new int[to - from];
+        ((IntBuffer) dates.duplicate().position(from)).get(dateArray);
+        long[][] columnArrays = new long[PriceField.COUNT][to - from];
+        for (int field = 0; field < columns.length; field++) {
+            ((LongBuffer) columns[field].duplicate().position(from)).get(columnArrays[field]);
+        }
+        return new BarSeries(dateArray, columnArrays, to - from);
+    }
+}
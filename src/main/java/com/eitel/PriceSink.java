@@ -0,0 +1,13 @@
+package com.eitel;
+
+/**
+ * Receives price rows one at a time, as primitives, while a source is being parsed.
+ */
+interface PriceSink {
+
+    /**
+     * @param date epoch day of the row
+     * @param price fixed-point price with {@link PriceSeries#PRICE_SCALE} decimal places
+     */
+    void accept(int date, long price);
+}
@@ -0,0 +1,18 @@
+package com.eitel;
+
+import java.io.IOException;
+
+/**
+ * Where {@link UpRunFinder} gets its price history from.
+ */
+interface PriceSource {
+
+    /**
+     * Deliver the bars of a stock dated within {@code [startDate, endDate]} (inclusive epoch days)
+     * to the sink, either newest first (the order of Yahoo's feed) or oldest first, whichever is
+     * natural for the source, but consistently within one call. If the sink is a
+     * {@link PriceField.Projection}, sources may fill in only the projected field.
+     * @throws java.io.FileNotFoundException if the source has no data for the stock symbol
+     */
+    void load(String stockSymbol, int startDate, int endDate, BarSink sink) throws IOException;
+}
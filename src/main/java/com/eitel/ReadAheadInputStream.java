@@ -0,0 +1,163 @@
+package com.eitel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Reads another stream ahead on a thread of its own, so that waiting for the network overlaps with
+ * whatever consumes the bytes.
+ *
+ * The reader fills a fixed set of chunks and hands them over in order; when every chunk is full and
+ * not yet consumed, it waits, which bounds the memory used and slows the download down to the pace
+ * of the consumer. Failures of the underlying stream, including runtime exceptions and errors, are
+ * rethrown by {@link #read} once the bytes read before them are consumed.
+ */
+final class ReadAheadInputStream extends InputStream {
+
+    private static final class Chunk {
+        final byte[] bytes;
+        // Number of bytes read, or -1 at the end of the stream.
+        int length;
+        // Anything thrown by the reader, which ends the stream.
+        Throwable failure;
+
+        Chunk(int size) {
+            this.bytes = new byte[size];
+        }
+    }
+
+    private final InputStream in;
+    // Every chunk is in one of the queues or held by the reader or the consumer, so neither queue
+    // blocks on insertion.
+    private final BlockingQueue<Chunk> filled = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Chunk> empty = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+
+    private Chunk current;
+    private int position;
+
+    /**
+     * @param executor runs the reader until the end of the stream, a failure or {@link #close()}
+     * @param chunkBytes maximum size of a single read of the underlying stream
+     * @param chunks number of chunks read ahead
+     */
+    ReadAheadInputStream(InputStream in, Executor executor, int chunkBytes, int chunks) {
+        this.in = in;
+        for (int i = 0; i < chunks; i++) {
+            empty.add(new Chunk(chunkBytes));
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                readAhead();
+            }
+        });
+    }
+
+    private void readAhead() {
+        try {
+            while (true) {
+                Chunk chunk = empty.take();
+                if (closed) {
+                    return;
+                }
+                try {
+                    chunk.length = in.read(chunk.bytes);
+                } catch (Throwable t) {
+                    chunk.failure = t;
+                }
+                filled.add(chunk);
+                if (chunk.length < 0 || chunk.failure != null) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The chunk holding the next byte, or {@code null} at the end of the stream.
+     */
+    private Chunk next() throws IOException {
+        while (true) {
+            if (current != null) {
+                if (position < current.length) {
+                    return current;
+                } else if (current.length < 0) {
+                    return null;
+                }
+                empty.add(current);
+                current = null;
+            }
+            Chunk chunk;
+            try {
+                chunk = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (chunk.failure != null) {
+                // Keep it queued, so that later reads fail again.
+                filled.add(chunk);
+                Throwables.propagateIfPossible(chunk.failure, IOException.class);
+                throw new IOException(chunk.failure);
+            }
+            current = chunk;
+            position = 0;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        Chunk chunk = next();
+        return chunk == null ? -1 : chunk.bytes[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        Chunk chunk = next();
+        if (chunk == null) {
+            return -1;
+        }
+        int read = Math.min(length, chunk.length - position);
+        System.arraycopy(chunk.bytes, position, buffer, offset, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return current == null || current.length < 0 ? 0 : current.length - position;
+    }
+
+    /**
+     * Stop reading ahead and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            in.close();
+        } finally {
+            // Hand every chunk back, so that a reader waiting for one wakes up and sees the stream closed.
+            if (current != null) {
+                empty.add(current);
+                current = null;
+            }
+            filled.drainTo(empty);
+        }
+    }
+}
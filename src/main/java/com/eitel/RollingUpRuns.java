@@ -0,0 +1,139 @@
+package com.eitel;
+
+/**
+ * Reports, for every row of a chronologically ordered series, the longest up-run inside the
+ * trailing window of the last {@code window} rows, and the length of the run in progress. The
+ * first rows have shorter windows, made of every row seen so far.
+ *
+ * Each row costs amortized constant time. Completed runs that still reach into the window are kept
+ * oldest first; those entirely inside it are also kept in a monotonic deque of decreasing length,
+ * whose head is the longest. The oldest run, cut by the start of the window, and the run in
+ * progress are compared separately. Ties are broken as in {@link RunIndex#query(int, int)}: the most
+ * recent of the longest runs wins, unless no run is longer than one day, in which case the first day
+ * of the window is reported.
+ */
+final class RollingUpRuns implements PriceSink {
+
+    /**
+     * Receives the result of each row as soon as the row is accepted.
+     */
+    interface Listener {
+
+        /**
+         * @param date epoch day of the row
+         * @param currentDuration number of business days in the up-run ending on this row, including
+         *        the days before the window
+         * @param startDate epoch day of the first day of the longest up-run in the window
+         * @param endDate epoch day of the last day of the longest up-run in the window
+         * @param duration number of business days of the longest up-run in the window
+         * @param startPrice fixed-point price on its first day
+         * @param endPrice fixed-point price on its last day
+         */
+        void onDay(int date, int currentDuration, int startDate, int endDate, int duration, long startPrice, long endPrice);
+    }
+
+    private final int window;
+    private final Listener listener;
+
+    // The last `window` rows, at their row number modulo `window`.
+    private final int[] dates;
+    private final long[] prices;
+
+    // Completed runs whose last row is in the window, oldest first, as first and last row numbers.
+    private final int[] runFirst;
+    private final int[] runLast;
+    private int runHead;
+    private int runCount;
+
+    // Completed runs entirely in the window, strictly decreasing in length from the head.
+    private final int[] longestFirst;
+    private final int[] longestLast;
+    private int longestHead;
+    private int longestCount;
+
+    private int row;
+    private int currentFirst;
+
+    /**
+     * @param window number of rows in the trailing window, at least one
+     */
+    RollingUpRuns(int window, Listener listener) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must hold at least one day: " + window);
+        }
+        this.window = window;
+        this.listener = listener;
+        this.dates = new int[window];
+        this.prices = new long[window];
+        this.runFirst = new int[window];
+        this.runLast = new int[window];
+        this.longestFirst = new int[window];
+        this.longestLast = new int[window];
+    }
+
+    @Override
+    public void accept(int date, long price) {
+        if (row > 0) {
+            int previous = (row - 1) % window;
+            if (date <= dates[previous]) {
+                throw new IllegalArgumentException(String.format("Row for %s is out of order after %s",
+                        EpochDays.format(date), EpochDays.format(dates[previous])));
+            }
+            if (price < prices[previous]) {
+                completeRun(currentFirst, row - 1);
+                currentFirst = row;
+            }
+        }
+        dates[row % window] = date;
+        prices[row % window] = price;
+
+        int windowFirst = Math.max(0, row - window + 1);
+        while (runCount > 0 && runLast[runHead] < windowFirst) {
+            runHead = (runHead + 1) % window;
+            runCount--;
+        }
+        while (longestCount > 0 && longestFirst[longestHead] < windowFirst) {
+            longestHead = (longestHead + 1) % window;
+            longestCount--;
+        }
+
+        // From the newest candidate to the oldest, so that only a strictly longer run replaces it.
+        int bestFirst = Math.max(currentFirst, windowFirst);
+        int bestLast = row;
+        if (longestCount > 0 && longestLast[longestHead] - longestFirst[longestHead] > bestLast - bestFirst) {
+            bestFirst = longestFirst[longestHead];
+            bestLast = longestLast[longestHead];
+        }
+        if (runCount > 0 && runFirst[runHead] < windowFirst && runLast[runHead] - windowFirst > bestLast - bestFirst) {
+            bestFirst = windowFirst;
+            bestLast = runLast[runHead];
+        }
+        if (bestFirst == bestLast) {
+            // No up-run longer than a day: the first day of the window is reported.
+            bestFirst = bestLast = windowFirst;
+        }
+
+        listener.onDay(date, row - currentFirst + 1, dates[bestFirst % window], dates[bestLast % window],
+                bestLast - bestFirst + 1, prices[bestFirst % window], prices[bestLast % window]);
+        row++;
+    }
+
+    private void completeRun(int first, int last) {
+        int tail = (runHead + runCount) % window;
+        runFirst[tail] = first;
+        runLast[tail] = last;
+        runCount++;
+
+        while (longestCount > 0) {
+            int back = (longestHead + longestCount - 1) % window;
+            if (longestLast[back] - longestFirst[back] > last - first) {
+                break;
+            }
+            longestCount--;
+        }
+        tail = (longestHead + longestCount) % window;
+        longestFirst[tail] = first;
+        longestLast[tail] = last;
+        longestCount++;
+    }
+}
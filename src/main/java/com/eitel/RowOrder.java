@@ -0,0 +1,29 @@
+package com.eitel;
+
+/**
+ * Order in which a source delivers its rows.
+ */
+enum RowOrder {
+    /** Reverse chronological, the order of Yahoo's feed. */
+    NEWEST_FIRST,
+    /** Chronological, the order of append-only streams. */
+    OLDEST_FIRST;
+
+    /**
+     * Order of two consecutive rows.
+     * @throws IllegalArgumentException if both have the same date
+     */
+    static RowOrder of(int firstDate, int secondDate) {
+        if (firstDate == secondDate) {
+            throw new IllegalArgumentException("Duplicate row for " + EpochDays.format(firstDate));
+        }
+        return firstDate > secondDate ? NEWEST_FIRST : OLDEST_FIRST;
+    }
+
+    /**
+     * Whether a row dated {@code date} may follow a row dated {@code previousDate}.
+     */
+    boolean follows(int previousDate, int date) {
+        return this == NEWEST_FIRST ? date < previousDate : date > previousDate;
+    }
+}
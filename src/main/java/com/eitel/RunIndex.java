@@ -0,0 +1,217 @@
+package com.eitel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.eitel.UpRunFinder.UpRunResult;
+
+/**
+ * Index over the up-runs of a chronologically ordered series that answers longest up-run queries
+ * for any date window in logarithmic time.
+ *
+ * The series is split into its maximal up-runs once. A segment tree over the run lengths finds the
+ * longest run lying entirely inside a window; the runs cut by the window edges are clipped and
+ * compared separately. Ties are broken as in {@link UpRunFinder#processStockData(PriceSeries)}: the
+ * most recent of the longest runs wins, unless no run is longer than one day, in which case the
+ * first day of the window is reported.
+ */
+final class RunIndex {
+
+    private static final int MAGIC = 0x55505249; // "UPRI"
+    private static final int VERSION = 1;
+
+    private final PriceSeries series;
+    // Index of the first row of each run, ascending.
+    private final int[] runStarts;
+    private final int runCount;
+    // Segment tree over runs: leaves at [runCount, 2 * runCount), each node holds the best run below it.
+    private final int[] tree;
+
+    private RunIndex(PriceSeries series, int[] runStarts, int runCount) {
+        this.series = series;
+        this.runStarts = runStarts;
+        this.runCount = runCount;
+        this.tree = new int[2 * runCount];
+        for (int run = 0; run < runCount; run++) {
+            tree[runCount + run] = run;
+        }
+        for (int node = runCount - 1; node > 0; node--) {
+            tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    /**
+     * @param series chronologically ordered series, which must not be modified afterwards
+     */
+    static RunIndex build(PriceSeries series) {
+        int[] runStarts = new int[16];
+        int runCount = 0;
+        for (int i = 0; i < series.size(); i++) {
+            if (i == 0 || series.price(i) < series.price(i - 1)) {
+                if (runCount == runStarts.length) {
+                    runStarts = Arrays.copyOf(runStarts, runCount * 2);
+                }
+                runStarts[runCount++] = i;
+            }
+        }
+        return new RunIndex(series, runStarts, runCount);
+    }
+
+    /**
+     * Whether no row is dated within {@code [startDate, endDate]} (inclusive epoch days), in which
+     * case {@link #query(int, int)} has no answer.
+     */
+    boolean isEmpty(int startDate, int endDate) {
+        return series.lowerBound(startDate) >= series.lowerBound(endDate + 1);
+    }
+
+    /**
+     * Longest up-run among the rows dated within {@code [startDate, endDate]} (inclusive epoch days).
+     * Same result as scanning just those rows.
+     */
+    UpRunResult query(int startDate, int endDate) {
+        int first = series.lowerBound(startDate);
+        int last = series.lowerBound(endDate + 1) - 1;
+        if (first > last) {
+            throw new IllegalArgumentException("No stock data available for the requested range");
+        }
+
+        int firstRun = runOf(first);
+        int lastRun = runOf(last);
+        if (firstRun == lastRun) {
+            return result(first, last);
+        }
+
+        // Candidates in chronological order; later candidates win ties.
+        int bestStart = first;
+        int bestEnd = runEnd(firstRun);
+        if (lastRun - firstRun > 1) {
+            int run = best(firstRun + 1, lastRun - 1);
+            if (runLength(run) >= bestEnd - bestStart + 1) {
+                bestStart = runStarts[run];
+                bestEnd = runEnd(run);
+            }
+        }
+        if (last - runStarts[lastRun] + 1 >= bestEnd - bestStart + 1) {
+            bestStart = runStarts[lastRun];
+            bestEnd = last;
+        }
+
+        if (bestEnd == bestStart) {
+            // No up-run longer than a day: the first day of the window is reported.
+            return result(first, first);
+        }
+        return result(bestStart, bestEnd);
+    }
+
+    int size() {
+        return series.size();
+    }
+
+    /**
+     * Save the series and its run boundaries. The search tree is rebuilt on {@link #read}.
+     */
+    void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(series.size());
+            out.writeInt(runCount);
+            for (int i = 0; i < series.size(); i++) {
+                out.writeInt(series.date(i));
+            }
+            for (int i = 0; i < series.size(); i++) {
+                out.writeLong(series.price(i));
+            }
+            for (int run = 0; run < runCount; run++) {
+                out.writeInt(runStarts[run]);
+            }
+        }
+    }
+
+    static RunIndex read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a run index: " + file);
+            }
+            int size = in.readInt();
+            int runCount = in.readInt();
+            int[] dates = new int[size];
+            long[] prices = new long[size];
+            int[] runStarts = new int[runCount];
+            for (int i = 0; i < size; i++) {
+                dates[i] = in.readInt();
+            }
+            for (int i = 0; i < size; i++) {
+                prices[i] = in.readLong();
+            }
+            for (int run = 0; run < runCount; run++) {
+                runStarts[run] = in.readInt();
+            }
+            return new RunIndex(new PriceSeries(dates, prices, size), runStarts, runCount);
+        }
+    }
+
+    /**
+     * Best run among runs {@code [from, to]}.
+     */
+    private int best(int from, int to) {
+        int best = -1;
+        for (int low = from + runCount, high = to + runCount + 1; low < high; low >>= 1, high >>= 1) {
+            if ((low & 1) == 1) {
+                best = better(best, tree[low++]);
+            }
+            if ((high & 1) == 1) {
+                best = better(best, tree[--high]);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The longer run, or the later one if they are equally long.
+     */
+    private int better(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+        int lengthA = runLength(a);
+        int lengthB = runLength(b);
+        if (lengthA != lengthB) {
+            return lengthA > lengthB ? a : b;
+        }
+        return Math.max(a, b);
+    }
+
+    private int runOf(int row) {
+        int run = Arrays.binarySearch(runStarts, 0, runCount, row);
+        return run >= 0 ? run : -run - 2;
+    }
+
+    private int runEnd(int run) {
+        return run + 1 < runCount ? runStarts[run + 1] - 1 : series.size() - 1;
+    }
+
+    private int runLength(int run) {
+        return runEnd(run) - runStarts[run] + 1;
+    }
+
+    private UpRunResult result(int start, int end) {
+        UpRunResult result = new UpRunResult();
+        result.duration = end - start + 1;
+        result.startDate = series.date(start);
+        result.endDate = series.date(end);
+        result.percentChange = UpRunFinder.computePercentChange(series.price(end), series.price(start));
+        return result;
+    }
+}
@@ -0,0 +1,194 @@
+package com.eitel;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a {@link PriceSeriesFile} of any size through fixed-size memory-mapped windows, for files
+ * too large to be mapped, or held on the heap, at once.
+ *
+ * A replay maps the dates and the needed columns of at most {@code segmentRows} rows at a time and
+ * drops its reference to each window before mapping the next one. Java cannot unmap a
+ * {@link java.nio.MappedByteBuffer} explicitly: a dropped window stays mapped until the garbage
+ * collector frees its buffer, so between collections a long replay accumulates mappings (address
+ * space, not heap). Their pages are clean file pages, which the OS can reclaim under memory
+ * pressure without writing them back, so resident memory stays bounded by what the OS allows the
+ * page cache, not by the size of the file. Rows are streamed to the sink in order across windows,
+ * so state such as an up-run in progress carries over from one window to the next without
+ * special handling.
+ *
+ * Files larger than the heap are written with {@link PriceSeriesFile#writer}.
+ */
+final class SegmentedPriceSeriesFile {
+
+    /** 1M rows: 4 MB of dates and 8 MB per column. */
+    static final int DEFAULT_SEGMENT_ROWS = 1 << 20;
+
+    private final File file;
+    private final int segmentRows;
+    private final int[] coverage;
+    private final int size;
+    private final long datesOffset;
+    private final Metrics.Timer map;
+    private final Metrics.Counter mappedBytes;
+
+    private SegmentedPriceSeriesFile(File file, int segmentRows, int[] coverage, int size, Metrics metrics) {
+        this.file = file;
+        this.segmentRows = segmentRows;
+        this.coverage = coverage;
+        this.size = size;
+        this.datesOffset = PriceSeriesFile.HEADER_BYTES + coverage.length * 4L;
+        this.map = metrics.timer("segment.map");
+        this.mappedBytes = metrics.counter("segment.bytes");
+    }
+
+    /**
+     * Read the header of a file written by {@link PriceSeriesFile#write}.
+     * @param segmentRows number of rows mapped at a time
+     * @param metrics records the time spent mapping windows ({@code segment.map}) and their size
+     *        ({@code segment.bytes})
+     * @throws IOException if the file does not exist or is not a price file of a known version
+     */
+    static SegmentedPriceSeriesFile open(File file, int segmentRows, Metrics metrics) throws IOException {
+        if (segmentRows < 1) {
+            throw new IllegalArgumentException("Segments must hold at least one row: " + segmentRows);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, PriceSeriesFile.HEADER_BYTES);
+            if (header.getInt() != PriceSeriesFile.MAGIC || header.getInt() != PriceSeriesFile.VERSION) {
+                throw new IOException("Not a price file: " + file);
+            }
+            int rangeCount = header.getInt();
+            int rowCount = header.getInt();
+            if (header.getInt() != PriceField.COUNT) {
+                throw new IOException("Unexpected field count in " + file);
+            }
+            int[] coverage = new int[rangeCount * 2];
+            read(channel, PriceSeriesFile.HEADER_BYTES, coverage.length * 4).asIntBuffer().get(coverage);
+
+            long expectedBytes = PriceSeriesFile.HEADER_BYTES + coverage.length * 4L + rowCount * (4L + 8L * PriceField.COUNT);
+            if (channel.size() < expectedBytes) {
+                throw new IOException("Truncated price file: " + file);
+            }
+            return new SegmentedPriceSeriesFile(file, segmentRows, coverage, rowCount, metrics);
+        }
+    }
+
+    /**
+     * Covered [start, end] epoch-day ranges, flattened.
+     */
+    int[] coverage() {
+        return this.coverage.clone();
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Deliver the rows dated within {@code [startDate, endDate]} to the sink, newest first, one
+     * mapped window at a time. A {@link PriceField.Projection} maps its field's column only.
+     */
+    void replayNewestFirst(int startDate, int endDate, BarSink sink) throws IOException {
+        replay(startDate, endDate, sink, true);
+    }
+
+    /**
+     * Deliver the rows dated within {@code [startDate, endDate]} to the sink, oldest first, as
+     * {@link PriceSeriesFile.Writer} takes them.
+     */
+    void replay(int startDate, int endDate, BarSink sink) throws IOException {
+        replay(startDate, endDate, sink, false);
+    }
+
+    private void replay(int startDate, int endDate, BarSink sink, boolean newestFirst) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int from = lowerBound(channel, startDate);
+            int to = lowerBound(channel, endDate + 1);
+            PriceField.Projection projection = sink instanceof PriceField.Projection ? (PriceField.Projection) sink : null;
+            long[] values = new long[PriceField.COUNT];
+
+            for (int done = 0; done < to - from; ) {
+                int rows = Math.min(segmentRows, to - from - done);
+                int segmentStart = newestFirst ? to - done - rows : from + done;
+
+                IntBuffer dates;
+                LongBuffer[] columns = new LongBuffer[PriceField.COUNT];
+                Metrics.Sample mapping = map.start();
+                try {
+                    dates = channel.map(FileChannel.MapMode.READ_ONLY, datesOffset + segmentStart * 4L, rows * 4L).asIntBuffer();
+                    for (PriceField field : PriceField.values()) {
+                        if (projection == null || projection.field == field) {
+                            columns[field.ordinal()] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                    columnOffset(field) + segmentStart * 8L, rows * 8L).asLongBuffer();
+                        }
+                    }
+                } finally {
+                    mapping.stop();
+                }
+                mappedBytes.add(rows * (projection == null ? 4L + 8L * PriceField.COUNT : 12L));
+
+                for (int k = 0; k < rows; k++) {
+                    int i = newestFirst ? rows - 1 - k : k;
+                    if (projection != null) {
+                        projection.accept(dates.get(i), columns[projection.field.ordinal()].get(i));
+                    } else {
+                        for (int field = 0; field < columns.length; field++) {
+                            values[field] = columns[field].get(i);
+                        }
+                        sink.accept(dates.get(i), values);
+                    }
+                }
+                done += rows;
+            }
+        }
+    }
+
+    private long columnOffset(PriceField field) {
+        return datesOffset + size * 4L + field.ordinal() * (size * 8L);
+    }
+
+    /**
+     * Index of the first row dated on or after the given epoch day, or {@link #size()} if there is
+     * none, reading one date per probe instead of mapping the column.
+     */
+    private int lowerBound(FileChannel channel, int date) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(4);
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            probe.clear();
+            readFully(channel, probe, datesOffset + mid * 4L);
+            if (probe.getInt(0) < date) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        readFully(channel, buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+}
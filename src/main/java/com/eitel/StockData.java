@@ -3,20 +3,20 @@ package com.eitel;
 import java.math.BigDecimal;
 
 class StockData {
-    private String date;
+    private int date; // epoch day
     private BigDecimal price;
 
-    StockData(String date, BigDecimal price) {
+    StockData(int date, BigDecimal price) {
         this.date = date;
         this.price = price;
     }
 
-    StockData(String date, String price) {
+    StockData(int date, String price) {
         this.date = date;
         this.price = new BigDecimal(price);
     }
 
-    String getDate() {
+    int getDate() {
         return this.date;
     }
 
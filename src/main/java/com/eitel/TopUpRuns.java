@@ -0,0 +1,114 @@
+package com.eitel;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.collect.Lists;
+
+/**
+ * Keeps the best K up-runs reported to it in a bounded heap, so that any number of runs can be
+ * ranked in one pass with O(K) memory. Equally ranked runs are ordered most recent first.
+ */
+final class TopUpRuns implements UpRunListener {
+
+    enum Ranking {
+        DURATION,
+        PERCENT_GAIN
+    }
+
+    private final int k;
+    private final RunOrder order;
+    // Worst of the kept runs at the head, so it can be replaced cheaply.
+    private final PriorityQueue<Run> heap;
+
+    TopUpRuns(int k, Ranking ranking) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be at least 1");
+        }
+        this.k = k;
+        this.order = ranking == Ranking.DURATION ? BY_DURATION : BY_PERCENT_GAIN;
+        this.heap = new PriorityQueue<>(Math.min(k, 1024) + 1, order);
+    }
+
+    @Override
+    public void onUpRun(int startDate, int endDate, int duration, long startPrice, long endPrice) {
+        if (heap.size() == k) {
+            Run worst = heap.peek();
+            // Cheap rejection before allocating: most runs do not make the cut.
+            if (order.compare(worst, duration, endDate, startPrice, endPrice) >= 0) {
+                return;
+            }
+            heap.poll();
+        }
+        heap.add(new Run(startDate, endDate, duration, startPrice, endPrice));
+    }
+
+    /**
+     * The kept runs, best first.
+     */
+    List<UpRunResult> results() {
+        List<Run> runs = Lists.newArrayList(heap);
+        Collections.sort(runs, Collections.reverseOrder(order));
+        List<UpRunResult> results = Lists.newArrayListWithCapacity(runs.size());
+        for (Run run : runs) {
+            UpRunResult result = new UpRunResult();
+            result.startDate = run.startDate;
+            result.endDate = run.endDate;
+            result.duration = run.duration;
+            result.percentChange = UpRunFinder.computePercentChange(run.endPrice, run.startPrice);
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static final class Run {
+        final int startDate;
+        final int endDate;
+        final int duration;
+        final long startPrice;
+        final long endPrice;
+
+        Run(int startDate, int endDate, int duration, long startPrice, long endPrice) {
+            this.startDate = startDate;
+            this.endDate = endDate;
+            this.duration = duration;
+            this.startPrice = startPrice;
+            this.endPrice = endPrice;
+        }
+    }
+
+    /**
+     * Orders runs from worst to best. Also compares a run with one that has not been allocated yet.
+     */
+    private abstract static class RunOrder implements Comparator<Run> {
+        @Override
+        public int compare(Run a, Run b) {
+            return compare(a, b.duration, b.endDate, b.startPrice, b.endPrice);
+        }
+
+        abstract int compare(Run a, int duration, int endDate, long startPrice, long endPrice);
+    }
+
+    private static final RunOrder BY_DURATION = new RunOrder() {
+        @Override
+        int compare(Run a, int duration, int endDate, long startPrice, long endPrice) {
+            int result = Integer.compare(a.duration, duration);
+            return result != 0 ? result : Integer.compare(a.endDate, endDate);
+        }
+    };
+
+    private static final RunOrder BY_PERCENT_GAIN = new RunOrder() {
+        @Override
+        int compare(Run a, int duration, int endDate, long startPrice, long endPrice) {
+            int result = Double.compare(gain(a.startPrice, a.endPrice), gain(startPrice, endPrice));
+            return result != 0 ? result : Integer.compare(a.endDate, endDate);
+        }
+    };
+
+    private static double gain(long startPrice, long endPrice) {
+        return (double) (endPrice - startPrice) / startPrice;
+    }
+}
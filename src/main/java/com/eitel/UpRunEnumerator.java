@@ -0,0 +1,61 @@
+package com.eitel;
+
+/**
+ * Splits rows into maximal up-runs and reports each one to a listener, in a single pass and
+ * without buffering rows. Rows may arrive newest first or oldest first, detected from the first two
+ * rows, and runs are reported in the same order; the last run is only reported by {@link #finish()}.
+ */
+final class UpRunEnumerator implements PriceSink {
+
+    private final UpRunListener listener;
+
+    private RowOrder order;
+    private boolean inRun;
+    // The first row of the current run in arrival order.
+    private int firstDate;
+    private long firstPrice;
+    private int previousDate;
+    private long previousPrice;
+    private int duration;
+
+    UpRunEnumerator(UpRunListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void accept(int date, long price) {
+        if (inRun && order == null) {
+            order = RowOrder.of(previousDate, date);
+        } else if (inRun && !order.follows(previousDate, date)) {
+            throw new IllegalArgumentException(String.format("Row for %s is out of order after %s",
+                    EpochDays.format(date), EpochDays.format(previousDate)));
+        }
+
+        boolean continuing = inRun && (order == RowOrder.NEWEST_FIRST ? price <= previousPrice : price >= previousPrice);
+        if (continuing) {
+            duration++;
+        } else {
+            finish();
+            inRun = true;
+            firstDate = date;
+            firstPrice = price;
+            duration = 1;
+        }
+        previousDate = date;
+        previousPrice = price;
+    }
+
+    /**
+     * Report the run in progress. Call once all rows have been delivered.
+     */
+    void finish() {
+        if (inRun) {
+            if (order == RowOrder.NEWEST_FIRST) {
+                listener.onUpRun(previousDate, firstDate, duration, previousPrice, firstPrice);
+            } else {
+                listener.onUpRun(firstDate, previousDate, duration, firstPrice, previousPrice);
+            }
+            inRun = false;
+        }
+    }
+}
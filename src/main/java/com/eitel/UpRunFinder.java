@@ -2,124 +2,399 @@ package com.eitel;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVRecord;
 import org.joda.time.DateTime;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 class UpRunFinder {
 
     @VisibleForTesting
     static final String HEADER_DATE = "Date";
     @VisibleForTesting
-    static final String HEADER_PRICE = "Open"; // Use the opening price
+    static final String HEADER_PRICE = "Open"; // Use the opening price by default
+
+    // Rows scanned sequentially by each task of a parallel scan; longer series are split.
+    static final int PARALLEL_CHUNK_ROWS = 1 << 16;
+
+    private final PriceSource source;
+    private final PriceField field;
+    private final Metrics metrics;
+    private final Metrics.Timer load;
+    private final Metrics.Timer scan;
+    private final Metrics.Counter scannedRows;
+    // Null when series are scanned on the calling thread only.
+    private final ParallelUpRunScan parallelScan;
 
     public UpRunFinder() {
+        this(new YahooPriceSource());
+    }
+
+    /**
+     * @param source where the price history is retrieved from
+     */
+    public UpRunFinder(PriceSource source) {
+        this(source, PriceField.OPEN);
+    }
+
+    /**
+     * @param source where the price history is retrieved from
+     * @param field which price of each day is compared
+     */
+    public UpRunFinder(PriceSource source, PriceField field) {
+        this(source, field, Metrics.DISABLED);
+    }
+
+    /**
+     * @param source where the price history is retrieved from
+     * @param field which price of each day is compared
+     * @param metrics records the time spent retrieving histories ({@code load}, which includes the scan
+     *        when rows are scanned as they arrive) and scanning retrieved histories ({@code scan})
+     */
+    UpRunFinder(PriceSource source, PriceField field, Metrics metrics) {
+        this(source, field, metrics, null);
+    }
+
+    private UpRunFinder(PriceSource source, PriceField field, Metrics metrics, ParallelUpRunScan parallelScan) {
+        this.source = source;
+        this.field = field;
+        this.metrics = metrics;
+        this.load = metrics.timer("load");
+        this.scan = metrics.timer("scan");
+        this.scannedRows = metrics.counter("scan.rows");
+        this.parallelScan = parallelScan;
+    }
+
+    /**
+     * A finder comparing another price field, sharing this finder's source.
+     */
+    public UpRunFinder forField(PriceField field) {
+        return field == this.field ? this : new UpRunFinder(source, field, metrics, parallelScan);
+    }
+
+    /**
+     * A finder that scans series of more than {@link #PARALLEL_CHUNK_ROWS} rows in chunks on the
+     * given pool, sharing this finder's source. Its {@link #findUpRun} then collects the rows before
+     * scanning them. The pool is not shut down by the finder.
+     */
+    UpRunFinder withScanPool(ForkJoinPool pool) {
+        return new UpRunFinder(source, field, metrics, new ParallelUpRunScan(pool, PARALLEL_CHUNK_ROWS));
+    }
+
+    PriceSource source() {
+        return this.source;
+    }
+
+    PriceField field() {
+        return this.field;
+    }
+
+    Metrics metrics() {
+        return this.metrics;
     }
 
     public UpRunResult findUpRun(String stockSymbol, DateTime start, DateTime end) {
         if (start.isAfter(end) || start.equals(end)) {
             throw new IllegalArgumentException();
         }
+        return findUpRun(stockSymbol, EpochDays.of(start), EpochDays.of(end));
+    }
 
-        try (Reader reader = retrieveStockData(stockSymbol, start, end)) {
-            Iterable<StockData> stockData = parseStockData(reader);
-            return processStockData(stockData);
-        } catch (MalformedURLException e) {
-            Throwables.propagate(e);
-        } catch (FileNotFoundException e) {
-            // This is only encountered when the stock symbol is invalid/unknown.
-            throw new InvalidStockSymbolException(e);
-        } catch (IOException e) {
-            Throwables.propagate(e);
+    /**
+     * @param startDate epoch day (inclusive)
+     * @param endDate epoch day (inclusive)
+     */
+    UpRunResult findUpRun(String stockSymbol, int startDate, int endDate) {
+        if (parallelScan != null) {
+            return processStockData(loadStockData(stockSymbol, startDate, endDate));
+        }
+        // Rows are scanned as the source delivers them, without materializing the series.
+        UpRunScanner scanner = new UpRunScanner();
+        load(stockSymbol, startDate, endDate, scanner);
+        return scanner.result();
+    }
+
+    /**
+     * Find the longest up-run on the given executor, without blocking the caller. Failures are
+     * reported by the future rather than thrown: {@link InvalidStockSymbolException} for an unknown
+     * symbol, {@link IllegalArgumentException} for an invalid date range, {@link IOException} when the
+     * prices cannot be retrieved, and {@link java.util.concurrent.RejectedExecutionException} when the
+     * executor does not accept the query. Cancelling the future with {@code mayInterruptIfRunning}
+     * interrupts the query, which stops at the next interruptible wait or within a few rows.
+     */
+    public ListenableFuture<UpRunResult> findUpRunAsync(String stockSymbol, DateTime start, DateTime end, Executor executor) {
+        if (start.isAfter(end) || start.equals(end)) {
+            return Futures.immediateFailedFuture(new IllegalArgumentException());
         }
-        // Should never be reached.
-        return null;
+        return findUpRunAsync(stockSymbol, EpochDays.of(start), EpochDays.of(end), executor);
     }
 
+    /**
+     * Find the longest up-run on the given executor, within a deadline. Past the deadline the future
+     * fails with a {@link TimeoutException} and the query is interrupted.
+     * @param scheduler enforces the deadline
+     * @see #findUpRunAsync(String, DateTime, DateTime, Executor)
+     */
+    public ListenableFuture<UpRunResult> findUpRunAsync(String stockSymbol, DateTime start, DateTime end, Executor executor,
+            long timeout, TimeUnit unit, ScheduledExecutorService scheduler) {
+        return withDeadline(findUpRunAsync(stockSymbol, start, end, executor), timeout, unit, scheduler);
+    }
 
-    private Iterable<StockData> parseStockData(Reader reader) throws IOException {
-        final Iterator<CSVRecord> iterator = CSVFormat.DEFAULT.withHeader().parse(reader).iterator();
-        // A custom iterator is created to adapt the data to help with testing and hide the underlying CSV processing.
-        return new Iterable<StockData>() {
+    /**
+     * @param startDate epoch day (inclusive)
+     * @param endDate epoch day (inclusive)
+     */
+    ListenableFuture<UpRunResult> findUpRunAsync(final String stockSymbol, final int startDate, final int endDate, Executor executor) {
+        ListenableFutureTask<UpRunResult> query = ListenableFutureTask.create(new Callable<UpRunResult>() {
             @Override
-            public Iterator<StockData> iterator() {
-                return new Iterator<StockData>() {
-
-                    @Override
-                    public boolean hasNext() {
-                        return iterator.hasNext();
-                    }
+            public UpRunResult call() throws IOException {
+                UpRunScanner scanner = new UpRunScanner();
+                loadChecked(stockSymbol, startDate, endDate, new InterruptibleSink(scanner));
+                return scanner.result();
+            }
+        });
+        try {
+            executor.execute(query);
+        } catch (RejectedExecutionException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        return query;
+    }
 
-                    @Override
-                    public StockData next() {
-                        CSVRecord record = iterator.next();
-                        return new StockData(record.get(HEADER_DATE), new BigDecimal(record.get(HEADER_PRICE)));
-                    }
+    /**
+     * A future completed as {@code query}, or failed with a {@link TimeoutException} once the timeout
+     * has elapsed, in which case {@code query} is cancelled. Cancelling the returned future cancels
+     * {@code query}.
+     */
+    static <V> ListenableFuture<V> withDeadline(final ListenableFuture<V> query, final long timeout, final TimeUnit unit,
+            ScheduledExecutorService scheduler) {
+        final SettableFuture<V> result = SettableFuture.create();
+        Futures.addCallback(query, new FutureCallback<V>() {
+            @Override
+            public void onSuccess(V value) {
+                result.set(value);
+            }
 
-                    @Override
-                    public void remove() {
-                        iterator.remove();
-                    }
-                };
+            @Override
+            public void onFailure(Throwable t) {
+                result.setException(t);
+            }
+        });
+        final ScheduledFuture<?> deadline = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (result.setException(new TimeoutException(String.format("No result within %d %s",
+                        timeout, unit.name().toLowerCase(Locale.ROOT))))) {
+                    query.cancel(true);
+                }
             }
-        };
+        }, timeout, unit);
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                deadline.cancel(false);
+                if (result.isCancelled()) {
+                    query.cancel(true);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
     }
 
     /**
-     * Retrieve stock data from Yahoo's historical stock price API in reverse chronological order (there does not seem to be a good way to reverse this).
-     * @param stockSymbol
-     * @param startDate
-     * @param endDate
+     * The best {@code k} up-runs in the date range, best first, found in a single pass.
      */
-    private Reader retrieveStockData(String stockSymbol, DateTime startDate, DateTime endDate) throws MalformedURLException, IOException {
-        /*
-         * We are using Yahoo's historical stock price API which uses the following URL structure:
-         *
-         * http://ichart.finance.yahoo.com/table.csv?
-         *
-         * The following options are added to the URL to retrieve data for a given stock:
-         *
-         * s: stock symbol
-         * a: start month (January is 0)
-         * b: start day (First day of the month is 1)
-         * c: start year
-         * d: end month (January is 0)
-         * e: end day (First day of the month is 1)
-         * f: end year
-         *
-         * Note that the data is retrieved in reverse chronological order.
-         * There does NOT appear to be a away to reverse this.
-         */
-        String url = String.format("http://ichart.finance.yahoo.com/table.csv?s=%s&a=%s&b=%s&c=%s&d=%s&e=%s&f=%s&g=d&ignore=.csv",
-            stockSymbol,
-            startDate.getMonthOfYear() - 1,
-            startDate.getDayOfMonth(),
-            startDate.getYear(),
-            endDate.getMonthOfYear() - 1,
-            endDate.getDayOfMonth(),
-            endDate.getYear()
-        );
-        return new InputStreamReader(new URL(url).openStream());
+    public List<UpRunResult> findTopUpRuns(String stockSymbol, DateTime start, DateTime end, int k, TopUpRuns.Ranking ranking) {
+        if (start.isAfter(end) || start.equals(end)) {
+            throw new IllegalArgumentException();
+        }
+        return findTopUpRuns(stockSymbol, EpochDays.of(start), EpochDays.of(end), k, ranking);
+    }
+
+    /**
+     * @param startDate epoch day (inclusive)
+     * @param endDate epoch day (inclusive)
+     */
+    List<UpRunResult> findTopUpRuns(String stockSymbol, int startDate, int endDate, int k, TopUpRuns.Ranking ranking) {
+        TopUpRuns topUpRuns = new TopUpRuns(k, ranking);
+        enumerateUpRuns(stockSymbol, startDate, endDate, topUpRuns);
+        return topUpRuns.results();
+    }
+
+    /**
+     * Report every maximal up-run in the date range to the listener, newest first, while the price
+     * history is being retrieved.
+     * @param startDate epoch day (inclusive)
+     * @param endDate epoch day (inclusive)
+     */
+    void enumerateUpRuns(String stockSymbol, int startDate, int endDate, UpRunListener listener) {
+        UpRunEnumerator enumerator = new UpRunEnumerator(listener);
+        load(stockSymbol, startDate, endDate, enumerator);
+        enumerator.finish();
+    }
+
+    /**
+     * Retrieve the price history without scanning it, so that retrieval (I/O) and
+     * {@link #processStockData(PriceSeries)} (CPU) can run on different threads.
+     * @param startDate epoch day (inclusive)
+     * @param endDate epoch day (inclusive)
+     */
+    PriceSeries loadStockData(String stockSymbol, int startDate, int endDate) {
+        PriceSeries series = new PriceSeries();
+        load(stockSymbol, startDate, endDate, series);
+        series.orderChronologically();
+        return series;
+    }
+
+    /**
+     * The longest up-run of each symbol in the date range, in the order of the symbols, scanned
+     * together in a {@link PriceMatrix}. Each symbol is compared over its own trading days, as if
+     * scanned alone.
+     */
+    public List<UpRunResult> findUpRuns(List<String> stockSymbols, DateTime start, DateTime end) {
+        if (start.isAfter(end) || start.equals(end)) {
+            throw new IllegalArgumentException();
+        }
+        return findUpRuns(stockSymbols, EpochDays.of(start), EpochDays.of(end));
+    }
+
+    /**
+     * @param startDate epoch day (inclusive)
+     * @param endDate epoch day (inclusive)
+     */
+    List<UpRunResult> findUpRuns(List<String> stockSymbols, int startDate, int endDate) {
+        List<PriceSeries> series = Lists.newArrayListWithCapacity(stockSymbols.size());
+        for (String stockSymbol : stockSymbols) {
+            series.add(loadStockData(stockSymbol, startDate, endDate));
+        }
+        Metrics.Sample scanning = scan.start();
+        PriceMatrix matrix = PriceMatrix.align(series);
+        List<UpRunResult> results = matrix.longestUpRuns();
+        scanning.stop();
+        scannedRows.add((long) matrix.days() * matrix.symbols());
+        return results;
+    }
+
+    /**
+     * Report, for each trading day of the date range, oldest first, the longest up-run in the trailing
+     * window of {@code window} trading days ending on it, and the length of the up-run in progress.
+     * Days are reported as they are scanned, in a single pass over the history.
+     * @param startDate epoch day (inclusive)
+     * @param endDate epoch day (inclusive)
+     */
+    void findRollingUpRuns(String stockSymbol, int startDate, int endDate, int window, RollingUpRuns.Listener listener) {
+        RollingUpRuns rolling = new RollingUpRuns(window, listener);
+        PriceSeries series = loadStockData(stockSymbol, startDate, endDate);
+        Metrics.Sample scanning = scan.start();
+        series.replay(rolling);
+        scanning.stop();
+        scannedRows.add(series.size());
+    }
+
+    /**
+     * Seed a tracker with the price history, to follow the stock's up-runs as new bars arrive.
+     * @param startDate epoch day (inclusive)
+     * @param endDate epoch day (inclusive)
+     */
+    UpRunTracker track(String stockSymbol, int startDate, int endDate) {
+        return UpRunTracker.seed(loadStockData(stockSymbol, startDate, endDate));
+    }
+
+    /**
+     * Build a {@link RunIndex} over the price history, to answer many longest up-run queries for
+     * windows within {@code [startDate, endDate]} without scanning again.
+     */
+    RunIndex buildIndex(String stockSymbol, int startDate, int endDate) {
+        return RunIndex.build(loadStockData(stockSymbol, startDate, endDate));
+    }
+
+    /**
+     * The longest up-run of each window, in the order of the windows. The history covering every
+     * window is retrieved once and split into its up-runs once, and each window is then answered
+     * from the {@link RunIndex} without scanning again, including runs cut by the window's edges.
+     * @param windows {@code {startDate, endDate}} pairs of inclusive epoch days, which may overlap
+     * @return the result of each window, or {@code null} for a window without any trading day
+     */
+    List<UpRunResult> findUpRunsInWindows(String stockSymbol, List<int[]> windows) {
+        if (windows.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        int startDate = Integer.MAX_VALUE;
+        int endDate = Integer.MIN_VALUE;
+        for (int[] window : windows) {
+            if (window[0] >= window[1]) {
+                throw new IllegalArgumentException();
+            }
+            startDate = Math.min(startDate, window[0]);
+            endDate = Math.max(endDate, window[1]);
+        }
+
+        PriceSeries series = loadStockData(stockSymbol, startDate, endDate);
+        Metrics.Sample scanning = scan.start();
+        RunIndex index = RunIndex.build(series);
+        List<UpRunResult> results = Lists.newArrayListWithCapacity(windows.size());
+        for (int[] window : windows) {
+            results.add(index.isEmpty(window[0], window[1]) ? null : index.query(window[0], window[1]));
+        }
+        scanning.stop();
+        scannedRows.add(series.size());
+        return results;
+    }
+
+    private void load(String stockSymbol, int startDate, int endDate, PriceSink sink) {
+        try {
+            loadChecked(stockSymbol, startDate, endDate, sink);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private void loadChecked(String stockSymbol, int startDate, int endDate, PriceSink sink) throws IOException {
+        if (startDate >= endDate) {
+            throw new IllegalArgumentException();
+        }
+        Metrics.Sample loading = load.start();
+        try {
+            source.load(stockSymbol, startDate, endDate, field.project(sink));
+        } catch (FileNotFoundException e) {
+            // This is only encountered when the stock symbol is invalid/unknown.
+            throw new InvalidStockSymbolException(e);
+        } finally {
+            // Failed loads, such as timeouts, are recorded too.
+            loading.stop();
+        }
     }
 
     @VisibleForTesting
     UpRunResult processStockData(Iterable<StockData> stockData) {
-        String startDate = null;
+        boolean first = true;
+        int startDate = 0;
         BigDecimal startPrice = null;
 
-        String bestUpRunStart = null;
-        String bestUpRunEnd = null;
+        boolean found = false;
+        int bestUpRunStart = 0;
+        int bestUpRunEnd = 0;
 
         double percentChange = 0;
 
@@ -127,15 +402,16 @@ class UpRunFinder {
         int maxDuration = 1;
 
         BigDecimal previousPrice = null;
-        String previousDate = null;
+        int previousDate = 0;
 
         for (StockData record : stockData) {
 
-            String date = record.getDate();
+            int date = record.getDate();
             BigDecimal currentPrice = record.getPrice();
 
-            if (startDate == null) {
+            if (first) {
                 // Only happens for first record
+                first = false;
                 startDate = date;
                 startPrice = currentPrice;
 
@@ -147,6 +423,7 @@ class UpRunFinder {
                 } else {
                     // Up-run ended
                     if (duration > maxDuration) {
+                        found = true;
                         maxDuration = duration;
                         bestUpRunStart = startDate;
                         bestUpRunEnd = previousDate;
@@ -165,7 +442,7 @@ class UpRunFinder {
          * Handle the case when the entire time range is an up-run
          * and when the last "run" is the longest.
          */
-        if (bestUpRunStart == null || duration > maxDuration) {
+        if (!found || duration > maxDuration) {
             bestUpRunStart = startDate;
             bestUpRunEnd= previousDate;
             maxDuration = duration;
@@ -181,13 +458,68 @@ class UpRunFinder {
         return result;
     }
 
-    private double computePercentChange(BigDecimal startPrice, BigDecimal endPrice) {
+    /**
+     * Find the longest up-run in a chronologically ordered series. Produces the same result as
+     * {@link #processStockData(Iterable)} without allocating per row. Series of
+     * more than {@link #PARALLEL_CHUNK_ROWS} rows are scanned in chunks on the pool given to
+     * {@link #withScanPool}, if any.
+     */
+    @VisibleForTesting
+    UpRunResult processStockData(PriceSeries series) {
+        Metrics.Sample scanning = scan.start();
+        UpRunResult result;
+        if (parallelScan != null && series.size() > PARALLEL_CHUNK_ROWS) {
+            result = parallelScan.scan(series);
+        } else {
+            UpRunScanner scanner = new UpRunScanner(RowOrder.OLDEST_FIRST);
+            series.replay(scanner);
+            result = scanner.result();
+        }
+        scanning.stop();
+        scannedRows.add(series.size());
+        return result;
+    }
+
+    static double computePercentChange(long startPrice, long endPrice) {
+        return computePercentChange(PriceSeries.toBigDecimal(startPrice), PriceSeries.toBigDecimal(endPrice));
+    }
+
+    static double computePercentChange(BigDecimal startPrice, BigDecimal endPrice) {
         return startPrice.subtract(endPrice).divide(endPrice, 2, RoundingMode.HALF_UP).abs().doubleValue() * 100.0;
     }
 
-    class UpRunResult {
-        protected String startDate;
-        protected String endDate;
+    /**
+     * Stops a query whose thread has been interrupted, for sources that do not wait interruptibly
+     * while rows are being delivered.
+     */
+    private static final class InterruptibleSink implements PriceSink {
+
+        // Checking every row would cost more than the rows themselves.
+        private static final int CHECK_ROWS = 1024;
+
+        private final PriceSink sink;
+        private int rows;
+
+        InterruptibleSink(PriceSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void accept(int date, long price) {
+            if (++rows % CHECK_ROWS == 0 && Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Query interrupted");
+            }
+            sink.accept(date, price);
+        }
+    }
+
+    /**
+     * An up-run, with its first and last day as epoch days. Dates are formatted for display only
+     * when the result is printed.
+     */
+    static class UpRunResult {
+        protected int startDate;
+        protected int endDate;
         protected int duration;
         protected double percentChange;
     }
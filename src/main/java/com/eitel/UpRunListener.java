@@ -0,0 +1,16 @@
+package com.eitel;
+
+/**
+ * Receives every maximal up-run of a series as it is found.
+ */
+interface UpRunListener {
+
+    /**
+     * @param startDate epoch day of the first day of the run
+     * @param endDate epoch day of the last day of the run
+     * @param duration number of business days in the run
+     * @param startPrice fixed-point price on the first day
+     * @param endPrice fixed-point price on the last day
+     */
+    void onUpRun(int startDate, int endDate, int duration, long startPrice, long endPrice);
+}
@@ -0,0 +1,242 @@
+package com.eitel;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import com.eitel.UpRunFinder.UpRunResult;
+
+/**
+ * Single-pass, allocation-free longest up-run scan, so it can be fed directly by
+ * {@link PriceCsvParser} while the data is parsed.
+ *
+ * Rows may arrive newest first (the order of Yahoo's feed) or oldest first. The order is either
+ * declared or detected from the first two rows, and rows out of that order are rejected. Either way
+ * the result is the same as {@link UpRunFinder#processStockData(Iterable)}: the most recent of the
+ * longest runs, or the oldest day if no run is longer than one day. In chronological order each new
+ * row is folded into the result in constant time, so the scan can follow an append-only stream and
+ * {@link #result()} be asked for at any point.
+ */
+final class UpRunScanner implements PriceSink {
+
+    private RowOrder order;
+
+    private int rows;
+
+    private int oldestDate;
+    private long oldestPrice;
+
+    // The run in progress, by its first and latest row in arrival order.
+    private int runFirstDate;
+    private long runFirstPrice;
+    private int previousDate;
+    private long previousPrice;
+    private int duration;
+
+    private int bestFirstDate;
+    private long bestFirstPrice;
+    private int bestLastDate;
+    private long bestLastPrice;
+    private int maxDuration; // num business days
+
+    /**
+     * Scan rows in either order, detected from the first two rows.
+     */
+    UpRunScanner() {
+        this(null);
+    }
+
+    UpRunScanner(RowOrder order) {
+        this.order = order;
+    }
+
+    @Override
+    public void accept(int date, long price) {
+        if (rows == 0) {
+            oldestDate = date;
+            oldestPrice = price;
+            startRun(date, price);
+        } else {
+            if (order == null) {
+                order = RowOrder.of(previousDate, date);
+            } else if (!order.follows(previousDate, date)) {
+                throw new IllegalArgumentException(String.format("Row for %s is out of order after %s",
+                        EpochDays.format(date), EpochDays.format(previousDate)));
+            }
+
+            if (order == RowOrder.NEWEST_FIRST) {
+                oldestDate = date;
+                oldestPrice = price;
+                if (price <= previousPrice) {
+                    // Continuing up-run
+                    duration++;
+                } else {
+                    // Up-run ended. Runs arrive newest first, so an equally long run does not replace the best.
+                    if (duration > maxDuration) {
+                        keepRunAsBest();
+                    }
+                    startRun(date, price);
+                }
+            } else if (price >= previousPrice) {
+                // Continuing up-run
+                duration++;
+            } else {
+                // Up-run ended. Runs arrive oldest first, so an equally long run replaces the best.
+                if (duration >= maxDuration) {
+                    keepRunAsBest();
+                }
+                startRun(date, price);
+            }
+        }
+        previousDate = date;
+        previousPrice = price;
+        rows++;
+    }
+
+    int rows() {
+        return this.rows;
+    }
+
+    /**
+     * Order of the rows seen so far, or null before the second row.
+     */
+    RowOrder order() {
+        return this.order;
+    }
+
+    /**
+     * Date of the row delivered last.
+     */
+    int lastDate() {
+        if (rows == 0) {
+            throw new IllegalStateException("No rows scanned");
+        }
+        return this.previousDate;
+    }
+
+    /**
+     * The up-run that includes the row delivered last, which may still grow. In chronological order
+     * this is the current run of the stock.
+     */
+    UpRunResult runInProgress() {
+        if (rows == 0) {
+            throw new IllegalArgumentException("No stock data available for the requested range");
+        }
+        return order == RowOrder.NEWEST_FIRST
+                ? result(previousDate, previousPrice, runFirstDate, runFirstPrice, duration)
+                : result(runFirstDate, runFirstPrice, previousDate, previousPrice, duration);
+    }
+
+    /**
+     * Result for the rows seen so far. Scanning may continue afterwards.
+     */
+    UpRunResult result() {
+        if (rows == 0) {
+            throw new IllegalArgumentException("No stock data available for the requested range");
+        }
+
+        // The run in progress is the oldest run when rows arrive newest first, and the newest otherwise.
+        boolean runInProgressWins = order == RowOrder.OLDEST_FIRST ? duration >= maxDuration : duration > maxDuration;
+        int firstDate = runInProgressWins ? runFirstDate : bestFirstDate;
+        long firstPrice = runInProgressWins ? runFirstPrice : bestFirstPrice;
+        int lastDate = runInProgressWins ? previousDate : bestLastDate;
+        long lastPrice = runInProgressWins ? previousPrice : bestLastPrice;
+        int bestDuration = Math.max(duration, maxDuration);
+
+        if (bestDuration == 1) {
+            // No up-run longer than a day: the oldest day is reported.
+            return result(oldestDate, oldestPrice, oldestDate, oldestPrice, 1);
+        } else if (order == RowOrder.NEWEST_FIRST) {
+            return result(lastDate, lastPrice, firstDate, firstPrice, bestDuration);
+        }
+        return result(firstDate, firstPrice, lastDate, lastPrice, bestDuration);
+    }
+
+    /**
+     * Make this scanner continue from the state of another one.
+     */
+    void copyFrom(UpRunScanner other) {
+        order = other.order;
+        rows = other.rows;
+        oldestDate = other.oldestDate;
+        oldestPrice = other.oldestPrice;
+        runFirstDate = other.runFirstDate;
+        runFirstPrice = other.runFirstPrice;
+        previousDate = other.previousDate;
+        previousPrice = other.previousPrice;
+        duration = other.duration;
+        bestFirstDate = other.bestFirstDate;
+        bestFirstPrice = other.bestFirstPrice;
+        bestLastDate = other.bestLastDate;
+        bestLastPrice = other.bestLastPrice;
+        maxDuration = other.maxDuration;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeByte(order == null ? -1 : order.ordinal());
+        out.writeInt(rows);
+        out.writeInt(oldestDate);
+        out.writeLong(oldestPrice);
+        out.writeInt(runFirstDate);
+        out.writeLong(runFirstPrice);
+        out.writeInt(previousDate);
+        out.writeLong(previousPrice);
+        out.writeInt(duration);
+        out.writeInt(bestFirstDate);
+        out.writeLong(bestFirstPrice);
+        out.writeInt(bestLastDate);
+        out.writeLong(bestLastPrice);
+        out.writeInt(maxDuration);
+    }
+
+    /**
+     * Restore a scanner saved by {@link #writeTo}.
+     */
+    static UpRunScanner readFrom(DataInput in) throws IOException {
+        int order = in.readByte();
+        if (order < -1 || order >= RowOrder.values().length) {
+            throw new IOException("Unknown row order: " + order);
+        }
+        UpRunScanner scanner = new UpRunScanner(order < 0 ? null : RowOrder.values()[order]);
+        scanner.rows = in.readInt();
+        scanner.oldestDate = in.readInt();
+        scanner.oldestPrice = in.readLong();
+        scanner.runFirstDate = in.readInt();
+        scanner.runFirstPrice = in.readLong();
+        scanner.previousDate = in.readInt();
+        scanner.previousPrice = in.readLong();
+        scanner.duration = in.readInt();
+        scanner.bestFirstDate = in.readInt();
+        scanner.bestFirstPrice = in.readLong();
+        scanner.bestLastDate = in.readInt();
+        scanner.bestLastPrice = in.readLong();
+        scanner.maxDuration = in.readInt();
+        return scanner;
+    }
+
+    /**
+     * Result for a run given by its oldest and newest row.
+     */
+    static UpRunResult result(int startDate, long startPrice, int endDate, long endPrice, int duration) {
+        UpRunResult result = new UpRunResult();
+        result.duration = duration;
+        result.startDate = startDate;
+        result.endDate = endDate;
+        result.percentChange = UpRunFinder.computePercentChange(endPrice, startPrice);
+        return result;
+    }
+
+    private void startRun(int date, long price) {
+        runFirstDate = date;
+        runFirstPrice = price;
+        duration = 1;
+    }
+
+    private void keepRunAsBest() {
+        maxDuration = duration;
+        bestFirstDate = runFirstDate;
+        bestFirstPrice = runFirstPrice;
+        bestLastDate = previousDate;
+        bestLastPrice = previousPrice;
+    }
+}
@@ -0,0 +1,253 @@
+package com.eitel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Answers up-run queries over HTTP from a long-running process, so that one finder and its caches
+ * stay warm across queries.
+ *
+ * {@code GET /uprun?symbol=MSFT&start=01-01-2014&end=01-31-2014} returns the longest up-run as JSON.
+ * Optional parameters: {@code k}, {@code rank-by} and {@code field} as on the command line, and {@code format=text}
+ * for the command line's output. Failures are answered with status 400 or 404 and an error message.
+ * {@code GET /health} answers {@code ok}. When the finder records {@link Metrics},
+ * {@code GET /metrics} answers their current values, one {@code name value} line each.
+ */
+final class UpRunServer {
+
+    private static final Splitter QUERY_SPLITTER = Splitter.on('&').omitEmptyStrings();
+    private static final Splitter PARAMETER_SPLITTER = Splitter.on('=').limit(2);
+
+    private final UpRunFinder finder;
+    private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+    private final ForkJoinPool scanPool;
+    private final Metrics.Timer requests;
+
+    /**
+     * @param threads number of threads handling requests; requests beyond those and a bounded queue
+     *        are handled on the accepting thread, which slows down accepting new connections. Long
+     *        histories are also scanned in parallel by as many threads.
+     */
+    UpRunServer(UpRunFinder finder, InetSocketAddress address, int threads) throws IOException {
+        this.scanPool = new ForkJoinPool(threads);
+        this.finder = finder.withScanPool(scanPool);
+        this.requests = finder.metrics().timer("http.requests");
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 64),
+                new ThreadFactoryBuilder().setNameFormat("uprun-http-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.server = HttpServer.create(address, threads * 64);
+        this.server.setExecutor(executor);
+        this.server.createContext("/uprun", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Metrics.Sample request = requests.start();
+                try {
+                    handleQuery(exchange);
+                } finally {
+                    request.stop();
+                }
+            }
+        });
+        this.server.createContext("/health", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, "text/plain", "ok\n");
+            }
+        });
+        final Metrics metrics = finder.metrics();
+        if (metrics.enabled()) {
+            this.server.createContext("/metrics", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    respond(exchange, 200, "text/plain", metrics.format());
+                }
+            });
+        }
+    }
+
+    void start() {
+        server.start();
+    }
+
+    /**
+     * Stop accepting requests and wait up to {@code delaySeconds} for the ones in progress.
+     */
+    void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        scanPool.shutdown();
+    }
+
+    /**
+     * Address the server listens on, with the actual port if it was started on port 0.
+     */
+    InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    private void handleQuery(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            respond(exchange, 405, "text/plain", "Only GET is supported.\n");
+            return;
+        }
+
+        Map<String, String> parameters;
+        try {
+            parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+        } catch (IllegalArgumentException e) {
+            respondError(exchange, 400, false, "Incorrectly formatted input provided.");
+            return;
+        }
+        boolean text = "text".equals(parameters.get("format"));
+
+        String symbol;
+        int startDate;
+        int endDate;
+        int k;
+        TopUpRuns.Ranking ranking;
+        UpRunFinder finder;
+        try {
+            symbol = required(parameters, "symbol");
+            startDate = Main.parseDate(required(parameters, "start"));
+            endDate = Main.parseDate(required(parameters, "end"));
+            k = parameters.containsKey("k") ? Integer.parseInt(parameters.get("k")) : 0;
+            ranking = Main.parseRanking(parameters.containsKey("rank-by") ? parameters.get("rank-by") : "duration");
+            finder = parameters.containsKey("field") ? this.finder.forField(PriceField.parse(parameters.get("field"))) : this.finder;
+        } catch (IllegalArgumentException e) {
+            respondError(exchange, 400, text, "Incorrectly formatted input provided.");
+            return;
+        }
+
+        List<UpRunResult> results;
+        try {
+            if (parameters.containsKey("k")) {
+                results = finder.findTopUpRuns(symbol, startDate, endDate, k, ranking);
+            } else {
+                results = Collections.singletonList(finder.findUpRun(symbol, startDate, endDate));
+            }
+        } catch (InvalidStockSymbolException e) {
+            respondError(exchange, 404, text, String.format("Invalid stock symbol provided: %s", symbol));
+            return;
+        } catch (IllegalArgumentException e) {
+            respondError(exchange, 400, text, "Invalid arguments provided.");
+            return;
+        } catch (RuntimeException e) {
+            respondError(exchange, 500, text, String.format("Failed: %s", e));
+            return;
+        }
+
+        if (text) {
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < results.size(); i++) {
+                if (i > 0) {
+                    body.append('\n');
+                }
+                body.append(Main.formatResult(results.get(i)));
+            }
+            respond(exchange, 200, "text/plain", body.toString());
+        } else if (parameters.containsKey("k")) {
+            StringBuilder body = new StringBuilder("{\"symbol\":").append(quote(symbol)).append(",\"upRuns\":[");
+            for (int i = 0; i < results.size(); i++) {
+                if (i > 0) {
+                    body.append(',');
+                }
+                appendJson(body, results.get(i));
+            }
+            respond(exchange, 200, "application/json", body.append("]}\n").toString());
+        } else {
+            StringBuilder body = new StringBuilder("{\"symbol\":").append(quote(symbol)).append(',');
+            appendJsonFields(body, results.get(0));
+            respond(exchange, 200, "application/json", body.append("}\n").toString());
+        }
+    }
+
+    private static void appendJson(StringBuilder body, UpRunResult result) {
+        appendJsonFields(body.append('{'), result);
+        body.append('}');
+    }
+
+    private static void appendJsonFields(StringBuilder body, UpRunResult result) {
+        body.append("\"start\":").append(quote(EpochDays.format(result.startDate)))
+                .append(",\"end\":").append(quote(EpochDays.format(result.endDate)))
+                .append(",\"duration\":").append(result.duration)
+                .append(",\"percentGain\":").append(result.percentChange);
+    }
+
+    private static void respondError(HttpExchange exchange, int status, boolean text, String message) throws IOException {
+        if (text) {
+            respond(exchange, status, "text/plain", message + "\n");
+        } else {
+            respond(exchange, status, "application/json", "{\"error\":" + quote(message) + "}\n");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = Maps.newHashMap();
+        if (query == null) {
+            return parameters;
+        }
+        try {
+            for (String parameter : QUERY_SPLITTER.split(query)) {
+                List<String> nameAndValue = PARAMETER_SPLITTER.splitToList(parameter);
+                parameters.put(URLDecoder.decode(nameAndValue.get(0), "UTF-8"),
+                        nameAndValue.size() > 1 ? URLDecoder.decode(nameAndValue.get(1), "UTF-8") : "");
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        return parameters;
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
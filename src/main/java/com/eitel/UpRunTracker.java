@@ -0,0 +1,151 @@
+package com.eitel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Keeps the longest and the current up-run of one stock up to date as new bars arrive, without
+ * rescanning its history.
+ *
+ * A tracker is seeded with the history once, after which each {@link #update} costs constant time.
+ * An update for the day of the latest bar revises that bar instead of appending one, so intraday
+ * prices can be followed until the day closes. Trackers can be saved to disk and restored, alone or
+ * many at a time.
+ */
+final class UpRunTracker {
+
+    private static final int MAGIC = 0x55505254; // "UPRT"
+    private static final int VERSION = 1;
+
+    // State after every bar, and before the latest one so that it can be revised.
+    private final UpRunScanner state;
+    private final UpRunScanner beforeLatest;
+
+    UpRunTracker() {
+        this(new UpRunScanner(RowOrder.OLDEST_FIRST), new UpRunScanner(RowOrder.OLDEST_FIRST));
+    }
+
+    private UpRunTracker(UpRunScanner state, UpRunScanner beforeLatest) {
+        this.state = state;
+        this.beforeLatest = beforeLatest;
+    }
+
+    /**
+     * A tracker that has seen every row of a chronologically ordered series.
+     */
+    static UpRunTracker seed(PriceSeries series) {
+        UpRunTracker tracker = new UpRunTracker();
+        for (int i = 0; i < series.size() - 1; i++) {
+            tracker.state.accept(series.date(i), series.price(i));
+        }
+        if (series.size() > 0) {
+            tracker.update(series.date(series.size() - 1), series.price(series.size() - 1));
+        }
+        return tracker;
+    }
+
+    /**
+     * Append the bar of a new day, or revise the latest bar if {@code date} is its day.
+     * @param date epoch day, not before the latest bar
+     * @param price fixed-point price with {@link PriceSeries#PRICE_SCALE} decimal places
+     */
+    void update(int date, long price) {
+        if (state.rows() > 0 && date == state.lastDate()) {
+            state.copyFrom(beforeLatest);
+        } else if (state.rows() > 0 && date < state.lastDate()) {
+            throw new IllegalArgumentException(String.format("Bar for %s is older than the latest bar of %s",
+                    EpochDays.format(date), EpochDays.format(state.lastDate())));
+        } else {
+            beforeLatest.copyFrom(state);
+        }
+        state.accept(date, price);
+    }
+
+    /**
+     * Number of days seen.
+     */
+    int days() {
+        return state.rows();
+    }
+
+    /**
+     * Longest up-run so far, the most recent one if several are equally long.
+     */
+    UpRunResult longest() {
+        return state.result();
+    }
+
+    /**
+     * The up-run that includes the latest bar.
+     */
+    UpRunResult current() {
+        return state.runInProgress();
+    }
+
+    void write(File file) throws IOException {
+        writeAll(file, ImmutableMap.of("", this));
+    }
+
+    static UpRunTracker read(File file) throws IOException {
+        Map<String, UpRunTracker> trackers = readAll(file);
+        if (trackers.size() != 1) {
+            throw new IOException("Expected a single tracker in " + file);
+        }
+        return trackers.values().iterator().next();
+    }
+
+    /**
+     * Save trackers by stock symbol. The file is replaced atomically.
+     */
+    static void writeAll(File file, Map<String, UpRunTracker> trackers) throws IOException {
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(trackers.size());
+                for (Map.Entry<String, UpRunTracker> tracker : trackers.entrySet()) {
+                    out.writeUTF(tracker.getKey());
+                    tracker.getValue().state.writeTo(out);
+                    tracker.getValue().beforeLatest.writeTo(out);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Restore trackers saved by {@link #writeAll}, by stock symbol.
+     */
+    static Map<String, UpRunTracker> readAll(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a tracker snapshot: " + file);
+            }
+            int count = in.readInt();
+            Map<String, UpRunTracker> trackers = Maps.newLinkedHashMap();
+            for (int i = 0; i < count; i++) {
+                String symbol = in.readUTF();
+                UpRunScanner state = UpRunScanner.readFrom(in);
+                UpRunScanner beforeLatest = UpRunScanner.readFrom(in);
+                trackers.put(symbol, new UpRunTracker(state, beforeLatest));
+            }
+            return trackers;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.eitel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.concurrent.Executor;
+
+/**
+ * Prices from Yahoo's historical stock price API.
+ */
+final class YahooPriceSource implements PriceSource {
+
+    private static final PriceCsvParser PARSER = new PriceCsvParser(UpRunFinder.HEADER_DATE, UpRunFinder.HEADER_PRICE);
+
+    private static final int READ_AHEAD_CHUNK_BYTES = 64 * 1024;
+    private static final int READ_AHEAD_CHUNKS = 4;
+
+    static final String DEFAULT_URL = "http://ichart.finance.yahoo.com/table.csv";
+
+    private final String baseUrl;
+    private final HttpFetcher fetcher;
+    private final Metrics metrics;
+    private final Executor readAhead;
+    private final Metrics.Timer connect;
+    private final Metrics.Timer parse;
+    private final Metrics.Counter rows;
+
+    YahooPriceSource() {
+        this(HttpFetcher.withDefaults(Metrics.DISABLED), Metrics.DISABLED, null);
+    }
+
+    /**
+     * @param fetcher opens the responses of the API
+     * @param metrics records the time until the response arrives, retries included ({@code fetch.connect}),
+     *        the bytes downloaded and the time spent parsing them, which includes waiting for the
+     *        download ({@code parse})
+     * @param readAhead if not {@code null}, downloads on a thread of this executor while the calling
+     *        thread parses, see {@link ReadAheadInputStream}
+     */
+    YahooPriceSource(HttpFetcher fetcher, Metrics metrics, Executor readAhead) {
+        this(DEFAULT_URL, fetcher, metrics, readAhead);
+    }
+
+    /**
+     * @param baseUrl address of the API, to which the query is appended
+     */
+    YahooPriceSource(String baseUrl, HttpFetcher fetcher, Metrics metrics, Executor readAhead) {
+        this.baseUrl = baseUrl;
+        this.fetcher = fetcher;
+        this.metrics = metrics;
+        this.readAhead = readAhead;
+        this.connect = metrics.timer("fetch.connect");
+        this.parse = metrics.timer("parse");
+        this.rows = metrics.counter("parse.rows");
+    }
+
+    @Override
+    public void load(String stockSymbol, int startDate, int endDate, BarSink sink) throws IOException {
+        InputStream response;
+        Metrics.Sample connecting = connect.start();
+        try {
+            response = retrieveStockData(stockSymbol, startDate, endDate);
+        } finally {
+            connecting.stop();
+        }
+        // The feed is already newest first, so rows are parsed straight into the sink.
+        InputStream metered = metrics.meter(response);
+        try (InputStream in = readAhead == null ? metered
+                : new ReadAheadInputStream(metered, readAhead, READ_AHEAD_CHUNK_BYTES, READ_AHEAD_CHUNKS)) {
+            Metrics.Sample parsing = parse.start();
+            try {
+                rows.add(PARSER.parse(in, sink));
+            } finally {
+                parsing.stop();
+            }
+        }
+    }
+
+    /**
+     * Retrieve stock data from Yahoo's historical stock price API in reverse chronological order (there does not seem to be a good way to reverse this).
+     * @param stockSymbol
+     * @param startDate epoch day
+     * @param endDate epoch day
+     */
+    private InputStream retrieveStockData(String stockSymbol, int startDate, int endDate) throws IOException {
+        /*
+         * We are using Yahoo's historical stock price API which uses the following URL structure:
+         *
+         * http://ichart.finance.yahoo.com/table.csv?
+         *
+         * The following options are added to the URL to retrieve data for a given stock:
+         *
+         * s: stock symbol
+         * a: start month (January is 0)
+         * b: start day (First day of the month is 1)
+         * c: start year
+         * d: end month (January is 0)
+         * e: end day (First day of the month is 1)
+         * f: end year
+         *
+         * Note that the data is retrieved in reverse chronological order.
+         * There does NOT appear to be a away to reverse this.
+         */
+        String url = String.format("%s?s=%s&a=%s&b=%s&c=%s&d=%s&e=%s&f=%s&g=d&ignore=.csv",
+            baseUrl,
+            URLEncoder.encode(stockSymbol, "UTF-8"),
+            EpochDays.month(startDate) - 1,
+            EpochDays.dayOfMonth(startDate),
+            EpochDays.year(startDate),
+            EpochDays.month(endDate) - 1,
+            EpochDays.dayOfMonth(endDate),
+            EpochDays.year(endDate)
+        );
+        return fetcher.open(new URL(url));
+    }
+}
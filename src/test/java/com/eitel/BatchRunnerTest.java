@@ -0,0 +1,78 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+
+public class BatchRunnerTest {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    private BatchRunner runner;
+
+    @Before
+    public void before() {
+        this.runner = new BatchRunner(new UpRunFinder(CsvPriceSource.forClasspath("/prices")), 4, 2);
+    }
+
+    @After
+    public void after() {
+        this.runner.shutdown();
+    }
+
+    @Test
+    public void testManyJobs() throws IOException, InterruptedException {
+        StringBuilder input = new StringBuilder("# symbol start end\n");
+        for (int i = 0; i < 100; i++) {
+            input.append("MSFT 01-01-2014 01-31-2014\n");
+        }
+        assertEquals(0, run(input.toString()));
+
+        List<String> lines = lines(out);
+        assertEquals(100, lines.size());
+        for (String line : lines) {
+            assertEquals("MSFT,2014-01-13,2014-01-24,10,7.000000000000001", line);
+        }
+        assertTrue(err.toString().isEmpty());
+    }
+
+    @Test
+    public void testFailuresDoNotAbortTheBatch() throws IOException, InterruptedException {
+        String input = "MSFT1234 01-01-2014 01-31-2014\n"
+                + "MSFT 01/01/2014 01/31/2014\n"
+                + "MSFT,01-31-2014,01-01-2014\n"
+                + "\n"
+                + "msft, 01-01-2014, 01-17-2014\n";
+        assertEquals(3, run(input));
+
+        assertEquals(Lists.newArrayList("msft,2014-01-13,2014-01-17,5,5.0"), lines(out));
+        List<String> errors = Ordering.natural().sortedCopy(lines(err));
+        assertEquals(3, errors.size());
+        assertEquals("Line 2: incorrectly formatted input provided: MSFT 01/01/2014 01/31/2014", errors.get(0));
+        assertEquals("MSFT1234: Invalid stock symbol provided: MSFT1234", errors.get(1));
+        assertEquals("MSFT: Invalid arguments provided.", errors.get(2));
+    }
+
+    private int run(String input) throws IOException, InterruptedException {
+        return runner.run(new BufferedReader(new StringReader(input)), new PrintStream(out, true), new PrintStream(err, true));
+    }
+
+    private static List<String> lines(ByteArrayOutputStream stream) {
+        return Lists.newArrayList(Splitter.on('\n').trimResults().omitEmptyStrings().split(stream.toString()));
+    }
+}
@@ -0,0 +1,253 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class CoalescingPriceSourceTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final BlockingSource blocking = new BlockingSource();
+    private final Metrics metrics = new Metrics();
+
+    @After
+    public void after() throws InterruptedException {
+        blocking.release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneLoad() throws Exception {
+        final PriceSource source = new CoalescingPriceSource(blocking, 4, metrics);
+        Future<PriceSeries> leader = load(source, PriceField.OPEN, 0, 99);
+        blocking.started.await();
+        List<Future<PriceSeries>> joiners = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            joiners.add(load(source, PriceField.OPEN, i * 5, i * 5 + 20));
+        }
+        awaitJoined(10);
+        blocking.release.countDown();
+
+        assertEquals(100, leader.get().size());
+        for (int i = 0; i < 10; i++) {
+            PriceSeries series = joiners.get(i).get();
+            assertEquals(21, series.size());
+            assertEquals(i * 5, series.date(0));
+            assertEquals(BlockingSource.priceOf(i * 5 + 20), series.price(20));
+        }
+        assertEquals(1, blocking.loads.get());
+    }
+
+    @Test
+    public void testRequestsOutsideTheFlightLoadAgain() throws Exception {
+        PriceSource source = new CoalescingPriceSource(blocking, 4, metrics);
+        Future<PriceSeries> open = load(source, PriceField.OPEN, 0, 99);
+        blocking.started.await();
+        Future<PriceSeries> close = load(source, PriceField.CLOSE, 0, 99);
+        Future<PriceSeries> wider = load(source, PriceField.OPEN, 0, 199);
+        awaitJoined(1);
+        blocking.release.countDown();
+
+        assertEquals(100, open.get().size());
+        assertEquals(BlockingSource.priceOf(5) + 3, close.get().price(5));
+        assertEquals(200, wider.get().size());
+        // The wider request only loads the dates the first one does not cover.
+        assertEquals(3, blocking.loads.get());
+        assertTrue(blocking.ranges.contains("100-199"));
+
+        // Completed loads are not reused.
+        assertEquals(100, load(source, PriceField.OPEN, 0, 99).get().size());
+        assertEquals(4, blocking.loads.get());
+    }
+
+    @Test
+    public void testOverlappingRequestsLoadOnlyMissingDates() throws Exception {
+        PriceSource source = new CoalescingPriceSource(blocking, 4, metrics);
+        Future<PriceSeries> flight = load(source, PriceField.OPEN, 100, 199);
+        blocking.started.await();
+        Future<PriceSeries> overlapping = load(source, PriceField.OPEN, 50, 249);
+        awaitJoined(1);
+        blocking.release.countDown();
+
+        assertEquals(100, flight.get().size());
+        PriceSeries series = overlapping.get();
+        assertEquals(200, series.size());
+        for (int i = 0; i < series.size(); i++) {
+            assertEquals(50 + i, series.date(i));
+            assertEquals(BlockingSource.priceOf(50 + i), series.price(i));
+        }
+        assertEquals(Sets.newHashSet("100-199", "200-249", "50-99"), Sets.newHashSet(blocking.ranges));
+    }
+
+    @Test
+    public void testInterruptedLeaderFailsAlone() throws Exception {
+        final PriceSource source = new CoalescingPriceSource(blocking, 1, metrics);
+        // Holds the only permit.
+        Future<PriceSeries> running = load(source, PriceField.OPEN, 1000, 1009);
+        blocking.started.await();
+
+        FutureTask<PriceSeries> leader = new FutureTask<PriceSeries>(new Callable<PriceSeries>() {
+            @Override
+            public PriceSeries call() throws IOException {
+                return PriceSeries.load(source, "MSFT", PriceField.OPEN, 0, 99);
+            }
+        });
+        Thread leaderThread = new Thread(leader);
+        leaderThread.start();
+        // Waiting for the permit.
+        while (leaderThread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        Future<PriceSeries> joiner = load(source, PriceField.OPEN, 10, 20);
+        awaitJoined(1);
+        leaderThread.interrupt();
+        leaderThread.join();
+        blocking.release.countDown();
+
+        try {
+            leader.get();
+            throw new AssertionError();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InterruptedIOException);
+        }
+        assertEquals(11, joiner.get().size());
+        assertEquals(10, running.get().size());
+        assertEquals(Sets.newHashSet("1000-1009", "10-20"), Sets.newHashSet(blocking.ranges));
+    }
+
+    @Test
+    public void testBarsServeEveryField() throws Exception {
+        final PriceSource source = new CoalescingPriceSource(blocking, 4, metrics);
+        Future<BarSeries> bars = executor.submit(new Callable<BarSeries>() {
+            @Override
+            public BarSeries call() throws IOException {
+                return BarSeries.load(source, "MSFT", 0, 99);
+            }
+        });
+        blocking.started.await();
+        Future<PriceSeries> close = load(source, PriceField.CLOSE, 10, 20);
+        awaitJoined(1);
+        blocking.release.countDown();
+
+        assertEquals(100, bars.get().size());
+        assertEquals(BlockingSource.priceOf(10) + 3, close.get().price(0));
+        assertEquals(1, blocking.loads.get());
+    }
+
+    @Test
+    public void testConcurrentLoadsAreLimited() throws Exception {
+        PriceSource source = new CoalescingPriceSource(blocking, 2, metrics);
+        List<Future<PriceSeries>> results = Lists.newArrayList();
+        for (int i = 0; i < 6; i++) {
+            results.add(load(source, PriceField.OPEN, i * 1000, i * 1000 + 9));
+        }
+        blocking.release.countDown();
+        for (Future<PriceSeries> result : results) {
+            assertEquals(10, result.get().size());
+        }
+        assertEquals(6, blocking.loads.get());
+        assertTrue(blocking.maxConcurrent.get() <= 2);
+    }
+
+    @Test
+    public void testFailureReachesEveryRequest() throws Exception {
+        PriceSource source = new CoalescingPriceSource(blocking, 4, metrics);
+        Future<PriceSeries> leader = load(source, PriceField.OPEN, -10, 99);
+        blocking.started.await();
+        Future<PriceSeries> joiner = load(source, PriceField.OPEN, -5, 5);
+        awaitJoined(1);
+        blocking.release.countDown();
+
+        for (Future<PriceSeries> result : ImmutableList.of(leader, joiner)) {
+            try {
+                result.get();
+                throw new AssertionError();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof FileNotFoundException);
+            }
+        }
+    }
+
+    private Future<PriceSeries> load(final PriceSource source, final PriceField field, final int startDate, final int endDate) {
+        return executor.submit(new Callable<PriceSeries>() {
+            @Override
+            public PriceSeries call() throws IOException {
+                return PriceSeries.load(source, "MSFT", field, startDate, endDate);
+            }
+        });
+    }
+
+    private void awaitJoined(int requests) throws InterruptedException {
+        while (metrics.counter("coalesce.joined").value() < requests) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Delivers a bar for every day once released; fails for negative dates.
+     */
+    private static class BlockingSource implements PriceSource {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final List<String> ranges = new CopyOnWriteArrayList<>();
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        static long priceOf(int date) {
+            return 1000000L + date * 1000L;
+        }
+
+        @Override
+        public void load(String stockSymbol, int startDate, int endDate, BarSink sink) throws IOException {
+            loads.incrementAndGet();
+            ranges.add(startDate + "-" + endDate);
+            int running = concurrent.incrementAndGet();
+            while (running > maxConcurrent.get()) {
+                maxConcurrent.set(running);
+            }
+            started.countDown();
+            try {
+                release.await();
+                // Yield to other loaders, so that the limit would be exceeded without it.
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+            if (startDate < 0) {
+                throw new FileNotFoundException(stockSymbol);
+            }
+            long[] values = new long[PriceField.COUNT];
+            for (int date = endDate; date >= startDate; date--) {
+                for (PriceField field : PriceField.values()) {
+                    values[field.ordinal()] = priceOf(date) + field.ordinal();
+                }
+                sink.accept(date, values);
+            }
+        }
+    }
+}
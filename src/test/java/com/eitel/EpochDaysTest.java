@@ -0,0 +1,56 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+
+public class EpochDaysTest {
+
+    @Test
+    public void testEpoch() {
+        assertEquals(0, EpochDays.of(1970, 1, 1));
+        assertEquals("1970-01-01", EpochDays.format(0));
+    }
+
+    @Test
+    public void testParseIso() {
+        assertEquals(EpochDays.of(2014, 11, 12), EpochDays.parseIso("2014-11-12"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseIsoWithWrongFormat() {
+        EpochDays.parseIso("11-12-2014");
+    }
+
+    @Test
+    public void testParseMonthDayYear() {
+        assertEquals(EpochDays.of(2014, 11, 2), EpochDays.parseMonthDayYear("11-02-2014"));
+        assertEquals(EpochDays.of(2014, 1, 2), EpochDays.parseMonthDayYear("1-2-2014"));
+        assertEquals(EpochDays.of(2012, 2, 29), EpochDays.parseMonthDayYear("02-29-2012"));
+    }
+
+    @Test
+    public void testParseMonthDayYearRejectsInvalidDates() {
+        for (String date : new String[] {"2014-11-12", "13-01-2014", "00-10-2014", "04-31-2014", "04-00-2014",
+                "1-2-14", "111-2-2014", "1-222-2014", "1--2014", "a1-02-2014", "01-02-2014 "}) {
+            try {
+                EpochDays.parseMonthDayYear(date);
+                throw new AssertionError(date);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesJoda() {
+        LocalDate epoch = new LocalDate(1970, 1, 1);
+        for (LocalDate date = new LocalDate(1899, 12, 25); date.getYear() < 2101; date = date.plusDays(1)) {
+            int epochDay = EpochDays.of(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth());
+            assertEquals(Days.daysBetween(epoch, date).getDays(), epochDay);
+            assertEquals(date.toString(), EpochDays.format(epochDay));
+        }
+    }
+}
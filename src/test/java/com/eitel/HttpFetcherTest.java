@@ -0,0 +1,253 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Resources;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * {@link HttpFetcher} and {@link YahooPriceSource} against a local stub server.
+ */
+public class HttpFetcherTest {
+
+    private HttpServer server;
+    private final ExecutorService handlers = Executors.newCachedThreadPool();
+    private final Metrics metrics = new Metrics();
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+    private final Set<InetSocketAddress> clients = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+
+    @Before
+    public void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/table.csv", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                queries.add(exchange.getRequestURI().getRawQuery());
+                clients.add(exchange.getRemoteAddress());
+                if (failuresLeft.getAndDecrement() > 0) {
+                    respond(exchange, 503, "busy".getBytes(StandardCharsets.US_ASCII), false);
+                } else if (exchange.getRequestURI().getRawQuery().startsWith("s=BAD")) {
+                    respond(exchange, 400, "bad request".getBytes(StandardCharsets.US_ASCII), false);
+                } else if (!exchange.getRequestURI().getRawQuery().startsWith("s=MSFT")) {
+                    respond(exchange, 404, "unknown".getBytes(StandardCharsets.US_ASCII), false);
+                } else {
+                    boolean gzip = "gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+                    respond(exchange, 200, Resources.toByteArray(Resources.getResource("prices/MSFT.csv")), gzip);
+                }
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                queries.add("slow");
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, 200, new byte[0], false);
+            }
+        });
+        server.createContext("/endless-error", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(500, 0);
+                byte[] chunk = new byte[8192];
+                // Until the client hangs up.
+                try (OutputStream out = exchange.getResponseBody()) {
+                    while (true) {
+                        out.write(chunk);
+                    }
+                }
+            }
+        });
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    @After
+    public void after() {
+        server.stop(0);
+        handlers.shutdown();
+    }
+
+    @Test
+    public void testGzippedResponsesOverOneConnection() throws IOException {
+        HttpFetcher fetcher = new HttpFetcher(1000, 1000, 1, 1, metrics);
+        byte[] expected = Resources.toByteArray(Resources.getResource("prices/MSFT.csv"));
+        for (int i = 0; i < 5; i++) {
+            try (InputStream in = fetcher.open(url("/table.csv?s=MSFT&i=" + i))) {
+                assertEquals(expected.length, ByteStreams.toByteArray(in).length);
+            }
+        }
+        assertEquals(5, queries.size());
+        assertEquals(1, clients.size());
+        assertEquals(5, metrics.timer("fetch.response").count());
+    }
+
+    @Test
+    public void testRetriesUnavailableServer() throws IOException {
+        failuresLeft.set(2);
+        HttpFetcher fetcher = new HttpFetcher(1000, 1000, 3, 1, metrics);
+        try (InputStream in = fetcher.open(url("/table.csv?s=MSFT"))) {
+            assertTrue(ByteStreams.toByteArray(in).length > 0);
+        }
+        assertEquals(3, queries.size());
+        assertEquals(2, metrics.counter("fetch.retries").value());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() throws IOException {
+        failuresLeft.set(5);
+        HttpFetcher fetcher = new HttpFetcher(1000, 1000, 2, 1, metrics);
+        try {
+            fetcher.open(url("/table.csv?s=MSFT"));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("503"));
+        }
+        assertEquals(2, queries.size());
+        assertEquals(1, metrics.counter("fetch.failures").value());
+    }
+
+    @Test
+    public void testRetryBudget() throws IOException {
+        failuresLeft.set(Integer.MAX_VALUE);
+        HttpFetcher fetcher = new HttpFetcher(1000, 1000, 3, 0, metrics);
+        for (int i = 0; i < 10; i++) {
+            try {
+                fetcher.open(url("/table.csv?s=MSFT"));
+                fail();
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+        // The ten retries available at first are spent by the first five requests; the later ones
+        // earn back less than a retry.
+        assertEquals(10, metrics.counter("fetch.retries").value());
+        assertEquals(20, queries.size());
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testNotFoundIsNotRetried() throws IOException {
+        try {
+            new HttpFetcher(1000, 1000, 3, 1, metrics).open(url("/table.csv?s=AAPL"));
+        } finally {
+            assertEquals(1, queries.size());
+        }
+    }
+
+    @Test
+    public void testClientErrorIsNotRetried() throws IOException {
+        HttpFetcher fetcher = new HttpFetcher(1000, 1000, 3, 1, metrics);
+        try {
+            fetcher.open(url("/table.csv?s=BAD"));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("400"));
+        }
+        assertEquals(1, queries.size());
+        assertEquals(0, metrics.counter("fetch.retries").value());
+        assertEquals(1, metrics.counter("fetch.failures").value());
+    }
+
+    @Test
+    public void testTimeoutsAreTimed() throws IOException {
+        HttpFetcher fetcher = new HttpFetcher(1000, 100, 1, 1, metrics);
+        try {
+            fetcher.open(url("/slow"));
+            fail();
+        } catch (SocketTimeoutException e) {
+            // Expected
+        }
+        assertEquals(1, metrics.timer("fetch.response").count());
+    }
+
+    @Test(timeout = 10000)
+    public void testErrorBodyIsDrainedUpToALimit() throws IOException {
+        HttpFetcher fetcher = new HttpFetcher(1000, 1000, 1, 1, metrics);
+        try {
+            fetcher.open(url("/endless-error"));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("500"));
+        }
+    }
+
+    @Test
+    public void testReadTimeout() throws IOException {
+        HttpFetcher fetcher = new HttpFetcher(1000, 100, 2, 1, metrics);
+        try {
+            fetcher.open(url("/slow"));
+            fail();
+        } catch (SocketTimeoutException e) {
+            // Expected
+        }
+        assertEquals(2, queries.size());
+    }
+
+    @Test
+    public void testYahooPriceSource() throws IOException {
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/table.csv";
+        UpRunFinder finder = new UpRunFinder(new YahooPriceSource(baseUrl, new HttpFetcher(1000, 1000, 1, 1, metrics), metrics, null));
+
+        UpRunFinder.UpRunResult result = finder.findUpRun("MSFT", EpochDays.parseIso("2014-01-01"), EpochDays.parseIso("2014-01-31"));
+        assertEquals(EpochDays.parseIso("2014-01-13"), result.startDate);
+        assertEquals(10, result.duration);
+        assertEquals("s=MSFT&a=0&b=1&c=2014&d=0&e=31&f=2014&g=d&ignore=.csv", queries.get(0));
+        try {
+            finder.findUpRun("AAPL", EpochDays.parseIso("2014-01-01"), EpochDays.parseIso("2014-01-31"));
+            fail();
+        } catch (InvalidStockSymbolException e) {
+            // Expected
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body, boolean gzip) throws IOException {
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(body);
+            }
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -3,19 +3,30 @@ package com.eitel;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.contrib.java.lang.system.Assertion;
 import org.junit.contrib.java.lang.system.ExpectedSystemExit;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
 
 public class MainIntegrationTest {
 
     @Rule
     public final ExpectedSystemExit exit = ExpectedSystemExit.none();
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     private final ByteArrayOutputStream standardOut = new ByteArrayOutputStream();
     private final ByteArrayOutputStream standardError = new ByteArrayOutputStream();
 
@@ -42,6 +53,54 @@ public class MainIntegrationTest {
         assertTrue(standardError.toString().isEmpty());
     }
 
+    @Test
+    public void testWithLocalSource() {
+        String[] args = {"-t", "MSFT", "-s", "01-01-2014", "-e", "01-31-2014", "--source", "classpath:/prices"};
+        Main.main(args);
+        assertTrue(standardOut.toString().contains("Start: 2014-01-13"));
+        assertTrue(standardOut.toString().contains("End: 2014-01-24"));
+        assertTrue(standardOut.toString().contains("Duration: 10 business days"));
+        assertTrue(standardOut.toString().contains("Percent Gain: 7.0"));
+        assertTrue(standardError.toString().isEmpty());
+    }
+
+    @Test
+    public void testWithLocalSourceAndField() {
+        // Volume is the same every day, so the whole range is one up-run.
+        String[] args = {"-t", "MSFT", "-s", "01-01-2014", "-e", "01-31-2014", "--source", "classpath:/prices", "--field", "volume"};
+        Main.main(args);
+        assertTrue(standardOut.toString().contains("Start: 2014-01-02"));
+        assertTrue(standardOut.toString().contains("End: 2014-01-30"));
+        assertTrue(standardOut.toString().contains("Duration: 21 business days"));
+        assertTrue(standardOut.toString().contains("Percent Gain: 0.0"));
+        assertTrue(standardError.toString().isEmpty());
+    }
+
+    @Test
+    public void testWithLocalSourceAndInvalidStock() {
+        exit.expectSystemExitWithStatus(1);
+        String[] args = {"-t", "MSFT1234", "-s", "01-01-2014", "-e", "01-31-2014", "--source", "classpath:/prices"};
+        Main.main(args);
+        assertTrue(standardError.toString().contains("Invalid stock symbol provided: MSFT1234"));
+        assertTrue(standardOut.toString().isEmpty());
+    }
+
+    @Test
+    public void testBatch() throws IOException {
+        exit.expectSystemExitWithStatus(1);
+        File batch = folder.newFile("batch.txt");
+        Files.write(batch.toPath(), Arrays.asList("MSFT 01-01-2014 01-31-2014", "MSFT1234 01-01-2014 01-31-2014"), Charsets.UTF_8);
+        String[] args = {"-b", batch.getPath(), "--source", "classpath:/prices", "--threads", "1", "--io-threads", "1"};
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() {
+                assertTrue(standardOut.toString().contains("MSFT,2014-01-13,2014-01-24,10,"));
+                assertTrue(standardError.toString().contains("MSFT1234: Invalid stock symbol provided: MSFT1234"));
+            }
+        });
+        Main.main(args);
+    }
+
     @Test
     public void testWithInvalidDateFormat() {
         exit.expectSystemExitWithStatus(1);
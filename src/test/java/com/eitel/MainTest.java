@@ -1,7 +1,11 @@
 package com.eitel;
 import static org.junit.Assert.assertEquals;
 
-import org.joda.time.DateTime;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
 import org.junit.Test;
 
 public class MainTest {
@@ -13,6 +17,28 @@ public class MainTest {
 
     @Test
     public void testParseDateWithCorrectFormat() {
-        assertEquals(new DateTime(1519, 3, 14, 0, 0), Main.parseDate("3-14-1519"));
+        assertEquals(EpochDays.of(1519, 3, 14), Main.parseDate("3-14-1519"));
+        assertEquals(EpochDays.of(2013, 12, 3), Main.parseDate("12-03-2013"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseDateThatDoesNotExist() {
+        Main.parseDate("02-29-2014");
+    }
+
+    @Test
+    public void testParseWindows() throws IOException {
+        List<int[]> windows = Main.parseWindows(new BufferedReader(new StringReader(
+                "# January\n01-01-2014 01-31-2014\n\n2-1-2014,2-28-2014\n")));
+        assertEquals(2, windows.size());
+        assertEquals(EpochDays.of(2014, 1, 1), windows.get(0)[0]);
+        assertEquals(EpochDays.of(2014, 1, 31), windows.get(0)[1]);
+        assertEquals(EpochDays.of(2014, 2, 1), windows.get(1)[0]);
+        assertEquals(EpochDays.of(2014, 2, 28), windows.get(1)[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseWindowWithoutEnd() throws IOException {
+        Main.parseWindows(new BufferedReader(new StringReader("01-01-2014\n")));
     }
 }
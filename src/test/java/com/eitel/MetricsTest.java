@@ -0,0 +1,108 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetricsTest {
+
+    private static final int START = EpochDays.parseIso("2014-01-01");
+    private static final int END = EpochDays.parseIso("2014-01-31");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCountersAndTimers() {
+        Metrics metrics = new Metrics();
+        metrics.counter("rows").add(20);
+        metrics.counter("rows").increment();
+        metrics.timer("scan").record(3, TimeUnit.MILLISECONDS);
+        metrics.timer("scan").record(1, TimeUnit.MILLISECONDS);
+
+        SortedMap<String, Number> snapshot = metrics.snapshot();
+        assertEquals(21L, snapshot.get("rows"));
+        assertEquals(2L, snapshot.get("scan.count"));
+        assertEquals(4.0, snapshot.get("scan.total_ms"));
+        assertEquals(3.0, snapshot.get("scan.max_ms"));
+        assertTrue(metrics.format().contains("rows 21\n"));
+    }
+
+    @Test
+    public void testDisabledRecordsNothing() throws IOException {
+        Metrics metrics = Metrics.DISABLED;
+        metrics.counter("rows").add(20);
+        metrics.timer("scan").start().stop();
+        InputStream in = new ByteArrayInputStream(new byte[10]);
+
+        assertSame(in, metrics.meter(in));
+        assertEquals(0, metrics.counter("rows").value());
+        assertEquals(0, metrics.timer("scan").count());
+        assertTrue(metrics.snapshot().isEmpty());
+    }
+
+    @Test
+    public void testMeteredInputStream() throws IOException {
+        Metrics metrics = new Metrics();
+        try (InputStream in = metrics.meter(new ByteArrayInputStream(new byte[100]))) {
+            in.read();
+            in.read(new byte[64]);
+            in.read(new byte[64]);
+        }
+        assertEquals(100, metrics.counter("fetch.bytes").value());
+        assertEquals(3, metrics.timer("fetch.read").count());
+    }
+
+    @Test
+    public void testQueryPhases() throws IOException {
+        Metrics metrics = new Metrics();
+        PriceSource source = new PriceCache(folder.getRoot(), CsvPriceSource.forClasspath("/prices", metrics),
+                PriceCache.NO_EVICTION, metrics);
+        UpRunFinder finder = new UpRunFinder(source, PriceField.OPEN, metrics);
+
+        finder.findUpRun("MSFT", START, END);
+        finder.processStockData(finder.loadStockData("MSFT", START, END));
+
+        SortedMap<String, Number> snapshot = metrics.snapshot();
+        assertEquals(21L, snapshot.get("parse.rows"));
+        assertEquals(1L, snapshot.get("parse.count"));
+        assertTrue(snapshot.get("fetch.bytes").longValue() > 0);
+        assertEquals(1L, snapshot.get("cache.misses"));
+        assertEquals(1L, snapshot.get("cache.hits"));
+        assertEquals(2L, snapshot.get("load.count"));
+        assertEquals(1L, snapshot.get("scan.count"));
+        assertEquals(21L, snapshot.get("scan.rows"));
+    }
+
+    @Test
+    public void testFailedPhasesAreTimed() throws IOException {
+        Metrics metrics = new Metrics();
+        File file = folder.newFile("BROKEN.csv");
+        Files.write(file.toPath(), "Date,Open\n2014-01-02,37.35\nnot a row\n".getBytes(StandardCharsets.US_ASCII));
+        UpRunFinder finder = new UpRunFinder(CsvPriceSource.forFile(file, metrics), PriceField.OPEN, metrics);
+        try {
+            finder.findUpRun("BROKEN", START, END);
+            fail();
+        } catch (RuntimeException e) {
+            // Expected
+        }
+
+        SortedMap<String, Number> snapshot = metrics.snapshot();
+        assertEquals(1L, snapshot.get("parse.count"));
+        assertEquals(1L, snapshot.get("load.count"));
+    }
+}
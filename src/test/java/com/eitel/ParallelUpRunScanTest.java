@@ -0,0 +1,82 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import com.eitel.UpRunFinder.UpRunResult;
+
+public class ParallelUpRunScanTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    private final UpRunFinder upRunFinder = new UpRunFinder(new InMemoryPriceSource());
+
+    @AfterClass
+    public static void afterClass() {
+        POOL.shutdown();
+    }
+
+    @Test
+    public void testMatchesSequentialScan() {
+        Random random = new Random(11);
+        for (int trial = 0; trial < 500; trial++) {
+            PriceSeries series = randomSeries(random, 1 + random.nextInt(200), 1 + random.nextInt(4));
+            UpRunResult expected = upRunFinder.processStockData(series);
+            for (int chunkRows : new int[] {1, 2, 3, 7, 64}) {
+                assertSameResult(expected, new ParallelUpRunScan(POOL, chunkRows).scan(series));
+            }
+        }
+    }
+
+    @Test
+    public void testLargeSeries() {
+        PriceSeries series = randomSeries(new Random(3), 8 * UpRunFinder.PARALLEL_CHUNK_ROWS + 12345, 3);
+        UpRunScanner scanner = new UpRunScanner();
+        series.replayNewestFirst(scanner);
+        assertSameResult(scanner.result(), upRunFinder.processStockData(series));
+        // processStockData takes the parallel path at this size.
+        assertSameResult(scanner.result(), upRunFinder.withScanPool(POOL).processStockData(series));
+
+        // A single query collects the rows and takes the parallel path too.
+        UpRunFinder finder = new UpRunFinder(new InMemoryPriceSource().put("X", series)).withScanPool(POOL);
+        assertSameResult(scanner.result(), finder.findUpRun("X", series.date(0), series.date(series.size() - 1)));
+        assertSameResult(scanner.result(), finder.forField(PriceField.CLOSE).findUpRun("X", series.date(0), series.date(series.size() - 1)));
+    }
+
+    @Test
+    public void testSingleRow() {
+        PriceSeries series = new PriceSeries();
+        series.add(10, 5000000L);
+        UpRunResult result = new ParallelUpRunScan(POOL, 1).scan(series);
+        assertEquals(1, result.duration);
+        assertEquals(10, result.startDate);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptySeries() {
+        new ParallelUpRunScan(POOL, 1).scan(new PriceSeries());
+    }
+
+    /**
+     * Few distinct prices, so that ties and flat stretches are frequent.
+     */
+    private static PriceSeries randomSeries(Random random, int size, int distinctPrices) {
+        PriceSeries series = new PriceSeries(size);
+        for (int i = 0; i < size; i++) {
+            series.add(i, (1 + random.nextInt(distinctPrices + 1)) * 1000000L);
+        }
+        return series;
+    }
+
+    private static void assertSameResult(UpRunResult expected, UpRunResult actual) {
+        assertEquals(expected.startDate, actual.startDate);
+        assertEquals(expected.endDate, actual.endDate);
+        assertEquals(expected.duration, actual.duration);
+        assertEquals(expected.percentChange, actual.percentChange, 0);
+    }
+}
@@ -0,0 +1,166 @@
+package com.eitel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class PipelineTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void after() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testReadAhead() throws IOException {
+        byte[] bytes = new byte[100000];
+        new Random(3).nextBytes(bytes);
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        try (InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(bytes), executor, 1000, 3)) {
+            copy.write(in.read());
+            ByteStreams.copy(in, copy);
+            assertEquals(-1, in.read());
+        }
+        assertArrayEquals(bytes, copy.toByteArray());
+    }
+
+    @Test
+    public void testReadAheadFailure() throws IOException {
+        final IOException failure = new IOException("reset");
+        InputStream failing = new SequenceInputStream(new ByteArrayInputStream(new byte[10]), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw failure;
+            }
+        });
+        try (InputStream in = new ReadAheadInputStream(failing, executor, 4, 2)) {
+            assertEquals(10, ByteStreams.read(in, new byte[10], 0, 10));
+            try {
+                in.read();
+                fail();
+            } catch (IOException e) {
+                assertSame(failure, e);
+            }
+        }
+    }
+
+    @Test
+    public void testReadAheadRuntimeFailure() throws IOException {
+        final IllegalStateException failure = new IllegalStateException("broken");
+        InputStream failing = new SequenceInputStream(new ByteArrayInputStream(new byte[10]), new InputStream() {
+            @Override
+            public int read() {
+                throw failure;
+            }
+        });
+        try (InputStream in = new ReadAheadInputStream(failing, executor, 4, 2)) {
+            assertEquals(10, ByteStreams.read(in, new byte[10], 0, 10));
+            for (int attempt = 0; attempt < 2; attempt++) {
+                // Rethrown rather than leaving the consumer waiting for the end of the stream.
+                try {
+                    in.read();
+                    fail();
+                } catch (IllegalStateException e) {
+                    assertSame(failure, e);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCloseStopsReadingAhead() throws IOException {
+        // Never consumed beyond the first byte; closing must release the reader.
+        InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(new byte[100000]), executor, 100, 2);
+        in.read();
+        in.close();
+    }
+
+    @Test
+    public void testPipelinedMatchesDirect() throws IOException {
+        PriceSeries series = randomWalk(10000);
+        PriceSource source = new PipelinedPriceSource(new InMemoryPriceSource().put("X", series), executor, 64, 3);
+
+        UpRunScanner direct = new UpRunScanner();
+        series.replayNewestFirst(direct);
+        UpRunScanner pipelined = new UpRunScanner();
+        source.load("X", series.date(0), series.date(series.size() - 1), PriceField.OPEN.project(pipelined));
+
+        assertEquals(direct.rows(), pipelined.rows());
+        assertEquals(direct.result().startDate, pipelined.result().startDate);
+        assertEquals(direct.result().endDate, pipelined.result().endDate);
+        assertEquals(direct.result().duration, pipelined.result().duration);
+    }
+
+    @Test
+    public void testPipelinedBars() throws IOException {
+        PriceSource source = new PipelinedPriceSource(CsvPriceSource.forClasspath("/prices"), executor, 4, 2);
+        BarSeries bars = new BarSeries();
+        source.load("MSFT", Integer.MIN_VALUE, Integer.MAX_VALUE - 1, bars);
+        bars.orderChronologically();
+
+        assertEquals(21, bars.size());
+        assertEquals(EpochDays.parseIso("2014-01-02"), bars.date(0));
+        assertEquals(bars.value(PriceField.OPEN, 20) + 100000L, bars.value(PriceField.CLOSE, 20));
+        assertEquals(30000000L * 1000000L, bars.value(PriceField.VOLUME, 20));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testPipelinedUnknownSymbol() throws IOException {
+        new PipelinedPriceSource(CsvPriceSource.forClasspath("/prices"), executor, 4, 2)
+                .load("AAPL", 0, 1, new BarSeries());
+    }
+
+    @Test
+    public void testSinkFailureStopsProducer() throws IOException {
+        PriceSeries series = randomWalk(10000);
+        PriceSource source = new PipelinedPriceSource(new InMemoryPriceSource().put("X", series), executor, 16, 2);
+        final IllegalStateException failure = new IllegalStateException();
+        try {
+            source.load("X", series.date(0), series.date(series.size() - 1), PriceField.OPEN.project(new PriceSink() {
+                private int rows;
+
+                @Override
+                public void accept(int date, long price) {
+                    if (++rows == 100) {
+                        throw failure;
+                    }
+                }
+            }));
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    private static PriceSeries randomWalk(int rows) {
+        Random random = new Random(7);
+        PriceSeries series = new PriceSeries();
+        long price = 50000000L;
+        for (int i = 0; i < rows; i++) {
+            price += (random.nextInt(5) - 2) * 10000L;
+            series.add(i, price);
+        }
+        return series;
+    }
+}
@@ -0,0 +1,120 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.io.Resources;
+
+public class PriceArchiveTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMatchesSeriesOnEveryRange() throws IOException {
+        Random random = new Random(13);
+        BarSeries series = randomSeries(random, 300);
+        File file = new File(folder.getRoot(), "RAND.upa");
+        // Small blocks, so that ranges start and end inside and across blocks.
+        PriceArchive.write(file, series, 16);
+        PriceArchive archive = PriceArchive.open(file);
+        assertEquals(300, archive.size());
+
+        for (int trial = 0; trial < 200; trial++) {
+            int startDate = series.date(0) - 5 + random.nextInt(series.date(299) - series.date(0) + 10);
+            int endDate = startDate + random.nextInt(200);
+            BarSeries expected = series.slice(startDate, endDate);
+
+            BarSeries bars = new BarSeries();
+            archive.replay(startDate, endDate, bars);
+            assertEquals(expected.size(), bars.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.date(i), bars.date(i));
+                for (PriceField field : PriceField.values()) {
+                    assertEquals(expected.value(field, i), bars.value(field, i));
+                }
+            }
+
+            PriceSeries closes = new PriceSeries();
+            archive.replay(startDate, endDate, PriceField.CLOSE.project(closes));
+            assertEquals(expected.size(), closes.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.date(i), closes.date(i));
+                assertEquals(expected.value(PriceField.CLOSE, i), closes.price(i));
+            }
+        }
+    }
+
+    @Test
+    public void testMissingAndExtremeValues() throws IOException {
+        BarSeries series = new BarSeries();
+        series.add(-30000, new long[] {1L, Long.MAX_VALUE, 0L, -5000000L, BarSink.MISSING, 7L});
+        series.add(-29999, new long[] {Long.MIN_VALUE + 1, Long.MIN_VALUE, 0L, 5000000L, BarSink.MISSING, -7L});
+        series.add(20000, new long[] {1000000L, Long.MAX_VALUE, 0L, 5000000L, 0L, 0L});
+        File file = new File(folder.getRoot(), "EDGE.upa");
+        PriceArchive.write(file, series);
+
+        BarSeries bars = new BarSeries();
+        PriceArchive.open(file).replay(Integer.MIN_VALUE, Integer.MAX_VALUE - 1, bars);
+        assertEquals(3, bars.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(series.date(i), bars.date(i));
+            for (PriceField field : PriceField.values()) {
+                assertEquals(series.value(field, i), bars.value(field, i));
+            }
+        }
+    }
+
+    @Test
+    public void testExportIsSmallerThanCsv() throws IOException {
+        File directory = new File(folder.getRoot(), "archive");
+        int rows = ArchivePriceSource.export(CsvPriceSource.forClasspath("/prices"), "msft", Integer.MIN_VALUE,
+                Integer.MAX_VALUE - 1, directory);
+        assertEquals(21, rows);
+
+        File archive = new File(directory, "MSFT.upa");
+        long csvBytes = Resources.toByteArray(Resources.getResource("prices/MSFT.csv")).length;
+        assertTrue(archive.length() + " bytes", archive.length() * 4 < csvBytes);
+
+        UpRunResult result = new UpRunFinder(new ArchivePriceSource(directory)).findUpRun("MSFT",
+                EpochDays.of(2014, 1, 1), EpochDays.of(2014, 1, 31));
+        assertEquals(EpochDays.parseIso("2014-01-13"), result.startDate);
+        assertEquals(EpochDays.parseIso("2014-01-24"), result.endDate);
+        assertEquals(10, result.duration);
+        assertEquals(7.000000000000001, result.percentChange, 0.0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotAnArchive() throws IOException {
+        File file = folder.newFile("MSFT.upa");
+        Files.write(file.toPath(), new byte[64]);
+        PriceArchive.open(file);
+    }
+
+    private static BarSeries randomSeries(Random random, int size) {
+        BarSeries series = new BarSeries();
+        long[] values = new long[PriceField.COUNT];
+        long price = 50000000L;
+        int date = 16000;
+        for (int i = 0; i < size; i++) {
+            date += 1 + random.nextInt(4);
+            price = Math.max(10000L, price + (random.nextInt(201) - 100) * 10000L);
+            for (PriceField field : PriceField.values()) {
+                values[field.ordinal()] = price + field.ordinal() * 10000L;
+            }
+            values[PriceField.VOLUME.ordinal()] = random.nextInt(50000000) * 1000000L;
+            series.add(date, values);
+        }
+        return series;
+    }
+}
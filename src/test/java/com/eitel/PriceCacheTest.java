@@ -0,0 +1,199 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+public class PriceCacheTest {
+
+    private static final int DAY = EpochDays.parseIso("2014-01-01");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private CountingLoader loader;
+
+    @Before
+    public void before() {
+        this.loader = new CountingLoader();
+    }
+
+    @Test
+    public void testWarmQueryDoesNotLoad() throws IOException {
+        PriceCache cache = new PriceCache(folder.getRoot(), loader, PriceCache.NO_EVICTION);
+        BarSeries first = cache.get("MSFT", DAY, DAY + 9);
+        BarSeries second = cache.get("MSFT", DAY + 2, DAY + 5);
+
+        assertEquals(1, loader.requests.size());
+        assertEquals(10, first.size());
+        assertEquals(4, second.size());
+        assertEquals(DAY + 2, second.date(0));
+        assertEquals(loader.priceOf(DAY + 5), second.value(PriceField.OPEN, 3));
+    }
+
+    @Test
+    public void testOnlyGapsAreLoaded() throws IOException {
+        PriceCache cache = new PriceCache(folder.getRoot(), loader, PriceCache.NO_EVICTION);
+        cache.get("MSFT", DAY + 10, DAY + 19);
+        cache.get("MSFT", DAY + 30, DAY + 39);
+        BarSeries series = cache.get("MSFT", DAY, DAY + 49);
+
+        assertEquals(5, loader.requests.size());
+        assertRequest(DAY, DAY + 9, loader.requests.get(2));
+        assertRequest(DAY + 20, DAY + 29, loader.requests.get(3));
+        assertRequest(DAY + 40, DAY + 49, loader.requests.get(4));
+        assertEquals(50, series.size());
+        for (int i = 0; i < series.size(); i++) {
+            assertEquals(DAY + i, series.date(i));
+            assertEquals(loader.priceOf(DAY + i), series.value(PriceField.OPEN, i));
+        }
+    }
+
+    @Test
+    public void testCacheIsSharedThroughTheDirectory() throws IOException {
+        new PriceCache(folder.getRoot(), loader, PriceCache.NO_EVICTION).get("MSFT", DAY, DAY + 9);
+        BarSeries series = new PriceCache(folder.getRoot(), loader, PriceCache.NO_EVICTION).get("msft", DAY, DAY + 9);
+
+        assertEquals(1, loader.requests.size());
+        assertEquals(10, series.size());
+    }
+
+    @Test
+    public void testOneLoadServesEveryField() throws IOException {
+        PriceCache cache = new PriceCache(folder.getRoot(), loader, PriceCache.NO_EVICTION);
+        PriceSeries open = PriceSeries.load(cache, "MSFT", PriceField.OPEN, DAY, DAY + 9);
+        PriceSeries close = PriceSeries.load(cache, "MSFT", PriceField.CLOSE, DAY, DAY + 9);
+
+        assertEquals(1, loader.requests.size());
+        assertEquals(10, close.size());
+        assertEquals(loader.priceOf(DAY + 3), open.price(3));
+        assertEquals(loader.priceOf(DAY + 3) + PriceField.CLOSE.ordinal(), close.price(3));
+    }
+
+    @Test
+    public void testCurrentDayIsNotMarkedAsCovered() throws IOException {
+        PriceCache cache = new PriceCache(folder.getRoot(), loader, PriceCache.NO_EVICTION);
+        int today = EpochDays.today();
+        cache.get("MSFT", today - 5, today);
+        cache.get("MSFT", today - 5, today);
+
+        assertEquals(2, loader.requests.size());
+        assertRequest(today, today, loader.requests.get(1));
+    }
+
+    @Test
+    public void testLargeEntriesAreReadInWindows() throws IOException {
+        Metrics metrics = new Metrics();
+        // Every entry is read through windows of 3 rows.
+        PriceCache cache = new PriceCache(folder.getRoot(), loader, PriceCache.NO_EVICTION, 0, 3, metrics);
+        cache.get("MSFT", DAY + 10, DAY + 19);
+        cache.get("MSFT", DAY + 30, DAY + 39);
+        BarSeries series = cache.get("MSFT", DAY, DAY + 49);
+        assertEquals(5, loader.requests.size());
+        assertEquals(50, series.size());
+        for (int i = 0; i < series.size(); i++) {
+            assertEquals(DAY + i, series.date(i));
+            for (PriceField field : PriceField.values()) {
+                assertEquals(loader.priceOf(DAY + i) + field.ordinal(), series.value(field, i));
+            }
+        }
+        assertTrue(metrics.counter("segment.bytes").value() > 0);
+
+        PriceSeries closes = new PriceSeries();
+        cache.load("MSFT", DAY + 5, DAY + 14, PriceField.CLOSE.project(closes));
+        closes.orderChronologically();
+        assertEquals(10, closes.size());
+        assertEquals(loader.priceOf(DAY + 5) + PriceField.CLOSE.ordinal(), closes.price(0));
+        assertEquals(5, loader.requests.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws IOException {
+        PriceCache cache = new PriceCache(folder.getRoot(), loader, PriceCache.leastRecentlyUsed(4000));
+        cache.get("AAPL", DAY, DAY + 49);
+        new File(folder.getRoot(), "AAPL.prices").setLastModified(System.currentTimeMillis() - 60000);
+        cache.get("MSFT", DAY, DAY + 49);
+
+        assertFalse(new File(folder.getRoot(), "AAPL.prices").exists());
+        assertTrue(new File(folder.getRoot(), "MSFT.prices").exists());
+    }
+
+    @Test
+    public void testEntryJustWrittenIsNotEvicted() throws IOException {
+        PriceCache cache = new PriceCache(folder.getRoot(), loader, PriceCache.leastRecentlyUsed(100));
+        cache.get("MSFT", DAY, DAY + 49);
+        cache.get("MSFT", DAY, DAY + 49);
+
+        assertTrue(new File(folder.getRoot(), "MSFT.prices").exists());
+        assertEquals(1, loader.requests.size());
+    }
+
+    @Test
+    public void testLockedEntryIsNotEvicted() throws IOException {
+        PriceCache cache = new PriceCache(folder.getRoot(), loader, PriceCache.leastRecentlyUsed(4000));
+        cache.get("AAPL", DAY, DAY + 49);
+        new File(folder.getRoot(), "AAPL.prices").setLastModified(System.currentTimeMillis() - 60000);
+        // As another process updating AAPL would.
+        try (FileChannel channel = FileChannel.open(new File(folder.getRoot(), "AAPL.lock").toPath(),
+                    StandardOpenOption.WRITE);
+                FileLock lock = channel.lock()) {
+            cache.get("MSFT", DAY, DAY + 49);
+            assertTrue(lock.isValid());
+        }
+        assertTrue(new File(folder.getRoot(), "AAPL.prices").exists());
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testLoaderFailuresAreNotCached() throws IOException {
+        PriceCache cache = new PriceCache(folder.getRoot(), loader, PriceCache.NO_EVICTION);
+        try {
+            cache.get("UNKNOWN", DAY, DAY + 9);
+        } finally {
+            assertFalse(new File(folder.getRoot(), "UNKNOWN.prices").exists());
+        }
+    }
+
+    private static void assertRequest(int startDate, int endDate, int[] request) {
+        assertEquals(startDate, request[0]);
+        assertEquals(endDate, request[1]);
+    }
+
+    private static class CountingLoader implements PriceSource {
+        final List<int[]> requests = Lists.newArrayList();
+
+        @Override
+        public void load(String stockSymbol, int startDate, int endDate, BarSink sink) throws IOException {
+            if (stockSymbol.equals("UNKNOWN")) {
+                throw new FileNotFoundException(stockSymbol);
+            }
+            requests.add(new int[] {startDate, endDate});
+            long[] values = new long[PriceField.COUNT];
+            for (int date = endDate; date >= startDate; date--) {
+                // Each field differs, so that mixing up fields is noticed.
+                for (int field = 0; field < values.length; field++) {
+                    values[field] = priceOf(date) + field;
+                }
+                sink.accept(date, values);
+            }
+        }
+
+        long priceOf(int date) {
+            return (date * 7919L) % 1000 * 10000;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.eitel.UpRunFinder.UpRunResult;
+
+public class PriceCsvParserTest {
+
+    private static final String CSV =
+            "Date,Open,High,Low,Close,Volume,Adj Close\n"
+            + "2014-01-14,35.00,36.00,34.00,35.50,1000,35.50\n"
+            + "2014-01-13,40.00,41.00,39.00,40.50,1000,40.50\n"
+            + "2014-01-12,20.00,21.00,19.00,20.50,1000,20.50\n"
+            + "2014-01-11,20.00,21.00,19.00,20.50,1000,20.50\n"
+            + "2014-01-10,50.00,51.00,49.00,50.50,1000,50.50\n";
+
+    private final PriceCsvParser parser = new PriceCsvParser(UpRunFinder.HEADER_DATE, UpRunFinder.HEADER_PRICE);
+
+    @Test
+    public void testParse() throws IOException {
+        PriceSeries series = new PriceSeries();
+        assertEquals(5, parser.parse(stream(CSV), series));
+        assertEquals(EpochDays.parseIso("2014-01-14"), series.date(0));
+        assertEquals(35000000L, series.price(0));
+        assertEquals(EpochDays.parseIso("2014-01-10"), series.date(4));
+        assertEquals(50000000L, series.price(4));
+    }
+
+    @Test
+    public void testLinesSpanningBufferBoundaries() throws IOException {
+        PriceSeries expected = new PriceSeries();
+        parser.parse(stream(CSV), expected);
+        for (int bufferSize = 1; bufferSize < 64; bufferSize++) {
+            PriceSeries actual = new PriceSeries();
+            new PriceCsvParser(UpRunFinder.HEADER_DATE, UpRunFinder.HEADER_PRICE, bufferSize).parse(stream(CSV), actual);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.date(i), actual.date(i));
+                assertEquals(expected.price(i), actual.price(i));
+            }
+        }
+    }
+
+    @Test
+    public void testCarriageReturnsAndMissingTrailingNewline() throws IOException {
+        PriceSeries series = new PriceSeries();
+        parser.parse(stream("Open,Date\r\n1.5,2014-01-14\r\n\r\n2.25,2014-01-13"), series);
+        assertEquals(2, series.size());
+        assertEquals(1500000L, series.price(0));
+        assertEquals(EpochDays.parseIso("2014-01-13"), series.date(1));
+        assertEquals(2250000L, series.price(1));
+    }
+
+    @Test
+    public void testPriceRoundingMatchesBigDecimal() {
+        String[] prices = {"0", "7", "47.529999", "47.5299995", "47.52999949", "-3.0000005", "0.000001", "123456789.123"};
+        for (String price : prices) {
+            byte[] bytes = price.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(price, PriceSeries.toFixedPoint(new BigDecimal(price)), PriceCsvParser.parsePrice(bytes, 0, bytes.length, 1));
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testMalformedPrice() throws IOException {
+        parser.parse(stream("Date,Open\n2014-01-14,null\n"), new PriceSeries());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedDate() throws IOException {
+        parser.parse(stream("Date,Open\n01-14-2014,1.00\n"), new PriceSeries());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingColumn() throws IOException {
+        parser.parse(stream("Date,Close\n2014-01-14,1.00\n"), new PriceSeries());
+    }
+
+    @Test
+    public void testParseBars() throws IOException {
+        BarSeries bars = new BarSeries();
+        assertEquals(5, parser.parse(stream(CSV), bars));
+        assertEquals(EpochDays.parseIso("2014-01-14"), bars.date(0));
+        assertEquals(35000000L, bars.value(PriceField.OPEN, 0));
+        assertEquals(36000000L, bars.value(PriceField.HIGH, 0));
+        assertEquals(34000000L, bars.value(PriceField.LOW, 0));
+        assertEquals(35500000L, bars.value(PriceField.CLOSE, 0));
+        assertEquals(1000000000L, bars.value(PriceField.VOLUME, 0));
+        assertEquals(35500000L, bars.value(PriceField.ADJ_CLOSE, 0));
+    }
+
+    @Test
+    public void testBarsWithoutSomeColumns() throws IOException {
+        BarSeries bars = new BarSeries();
+        parser.parse(stream("Close,Date\n1.5,2014-01-14\n"), bars);
+        assertEquals(1, bars.size());
+        assertEquals(1500000L, bars.value(PriceField.CLOSE, 0));
+        assertEquals(BarSink.MISSING, bars.value(PriceField.OPEN, 0));
+    }
+
+    @Test
+    public void testProjectedBars() throws IOException {
+        PriceSeries series = new PriceSeries();
+        parser.parse(stream(CSV), PriceField.HIGH.project(series));
+        assertEquals(5, series.size());
+        assertEquals(36000000L, series.price(0));
+        assertEquals(51000000L, series.price(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testProjectedColumnMissing() throws IOException {
+        parser.parse(stream("Date,Open\n2014-01-14,1.00\n"), PriceField.CLOSE.project(new PriceSeries()));
+    }
+
+    @Test
+    public void testParseAndScanInOnePass() throws IOException {
+        UpRunScanner scanner = new UpRunScanner();
+        parser.parse(stream(CSV), scanner);
+        UpRunResult result = scanner.result();
+        assertEquals(3, result.duration);
+        assertEquals(EpochDays.parseIso("2014-01-11"), result.startDate);
+        assertEquals(EpochDays.parseIso("2014-01-13"), result.endDate);
+        assertEquals(100.0, result.percentChange, 0.1);
+    }
+
+    private static InputStream stream(String csv) {
+        return new ByteArrayInputStream(csv.getBytes(StandardCharsets.US_ASCII));
+    }
+}
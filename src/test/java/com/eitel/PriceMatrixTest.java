@@ -0,0 +1,126 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.collect.Lists;
+
+public class PriceMatrixTest {
+
+    private final UpRunFinder finder = new UpRunFinder(new InMemoryPriceSource());
+
+    @Test
+    public void testMatchesScanningEachSymbol() {
+        Random random = new Random(5);
+        List<PriceSeries> series = Lists.newArrayList();
+        for (int s = 0; s < 37; s++) {
+            PriceSeries prices = new PriceSeries();
+            // Few distinct prices, so that ties and flat stretches are common.
+            for (int day = 0; day < 500; day++) {
+                prices.add(day, (1 + random.nextInt(s % 4 + 2)) * 1000000L);
+            }
+            series.add(prices);
+        }
+
+        List<UpRunResult> results = PriceMatrix.align(series).longestUpRuns();
+        assertEquals(series.size(), results.size());
+        for (int s = 0; s < series.size(); s++) {
+            assertSameResult(finder.processStockData(series.get(s)), results.get(s));
+        }
+    }
+
+    @Test
+    public void testNoRunLongerThanADay() {
+        List<UpRunResult> results = PriceMatrix.align(Arrays.asList(series(0, 5, 4, 3, 2), series(0, 1, 2, 3, 4))).longestUpRuns();
+        assertSameResult(finder.processStockData(series(0, 5, 4, 3, 2)), results.get(0));
+        assertEquals(0, results.get(0).startDate);
+        assertEquals(1, results.get(0).duration);
+        assertEquals(4, results.get(1).duration);
+        assertEquals(300.0, results.get(1).percentChange, 0.1);
+    }
+
+    @Test
+    public void testMissingDaysBreakOnlyTheirSymbol() {
+        PriceSeries first = series(0, 1, 2, 3, 4, 5);
+        // Starts late, and has no price on day 4.
+        PriceSeries second = new PriceSeries();
+        second.add(2, 9000000L);
+        second.add(3, 8000000L);
+        second.add(5, 7000000L);
+        second.add(6, 6000000L);
+
+        PriceMatrix matrix = PriceMatrix.align(Arrays.asList(first, second));
+        assertEquals(7, matrix.days());
+        assertEquals(1000000L, matrix.price(0, 0));
+        assertFalse(matrix.hasPrice(0, 1));
+        assertFalse(matrix.hasPrice(4, 1));
+        assertTrue(matrix.hasPrice(5, 1));
+        List<UpRunResult> results = matrix.longestUpRuns();
+        assertEquals(5, results.get(0).duration);
+        assertSameResult(finder.processStockData(first), results.get(0));
+        assertSameResult(finder.processStockData(second), results.get(1));
+    }
+
+    @Test
+    public void testMatchesScanningEachSymbolWithGaps() {
+        Random random = new Random(7);
+        List<PriceSeries> series = Lists.newArrayList();
+        for (int s = 0; s < 37; s++) {
+            PriceSeries prices = new PriceSeries();
+            // Listed late, delisted early and missing days at random.
+            int first = random.nextInt(100);
+            int last = 400 + random.nextInt(100);
+            for (int day = first; day < last; day++) {
+                if (random.nextInt(10) != 0) {
+                    prices.add(day, (1 + random.nextInt(s % 4 + 2)) * 1000000L);
+                }
+            }
+            series.add(prices);
+        }
+
+        List<UpRunResult> results = PriceMatrix.align(series).longestUpRuns();
+        for (int s = 0; s < series.size(); s++) {
+            assertSameResult(finder.processStockData(series.get(s)), results.get(s));
+        }
+    }
+
+    @Test
+    public void testFindUpRuns() {
+        UpRunFinder finder = new UpRunFinder(CsvPriceSource.forClasspath("/prices"));
+        List<UpRunResult> results = finder.findUpRuns(Arrays.asList("MSFT", "msft"),
+                new DateTime(2014, 1, 1, 0, 0), new DateTime(2014, 1, 31, 0, 0));
+        for (UpRunResult result : results) {
+            assertEquals(EpochDays.parseIso("2014-01-13"), result.startDate);
+            assertEquals(EpochDays.parseIso("2014-01-24"), result.endDate);
+            assertEquals(10, result.duration);
+            assertEquals(7.000000000000001, result.percentChange, 0);
+        }
+    }
+
+    /**
+     * A series of consecutive days starting at {@code firstDate}.
+     */
+    private static PriceSeries series(int firstDate, long... prices) {
+        PriceSeries series = new PriceSeries();
+        for (int i = 0; i < prices.length; i++) {
+            series.add(firstDate + i, prices[i] * 1000000L);
+        }
+        return series;
+    }
+
+    private static void assertSameResult(UpRunResult expected, UpRunResult actual) {
+        assertEquals(expected.startDate, actual.startDate);
+        assertEquals(expected.endDate, actual.endDate);
+        assertEquals(expected.duration, actual.duration);
+        assertEquals(expected.percentChange, actual.percentChange, 0);
+    }
+}
@@ -0,0 +1,211 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+
+public class PriceSourceTest {
+
+    private static final int START = EpochDays.parseIso("2014-01-10");
+    private static final int END = EpochDays.parseIso("2014-01-20");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testClasspath() throws IOException {
+        assertExpectedRows(CsvPriceSource.forClasspath("/prices"));
+    }
+
+    @Test
+    public void testCsvDirectory() throws IOException {
+        copyFixture(new File(folder.getRoot(), "MSFT.csv"));
+        assertExpectedRows(CsvPriceSource.forDirectory(folder.getRoot()));
+    }
+
+    @Test
+    public void testCsvFileInChronologicalOrder() throws IOException {
+        List<String> lines = Resources.readLines(Resources.getResource("prices/MSFT.csv"), Charsets.UTF_8);
+        List<String> chronological = Lists.newArrayList(lines.get(0));
+        chronological.addAll(Lists.reverse(lines.subList(1, lines.size())));
+        File file = folder.newFile("chronological.csv");
+        Files.write(file.toPath(), chronological, Charsets.UTF_8);
+
+        assertExpectedRows(CsvPriceSource.forFile(file));
+
+        // Streamed in the order of the file.
+        PriceSeries series = new PriceSeries();
+        CsvPriceSource.forFile(file).load("MSFT", START, END, PriceField.OPEN.project(series));
+        assertEquals(START, series.date(0));
+    }
+
+    @Test
+    public void testBinary() throws IOException {
+        BarSeries series = BarSeries.load(CsvPriceSource.forClasspath("/prices"), "MSFT", Integer.MIN_VALUE, Integer.MAX_VALUE - 1);
+        PriceSeriesFile.write(new File(folder.getRoot(), "MSFT.prices"), new int[0], series);
+        assertExpectedRows(new BinaryPriceSource(folder.getRoot()));
+        assertExpectedCloseRows(new BinaryPriceSource(folder.getRoot()));
+    }
+
+    @Test
+    public void testBinaryBars() throws IOException {
+        BarSeries series = BarSeries.load(CsvPriceSource.forClasspath("/prices"), "MSFT", Integer.MIN_VALUE, Integer.MAX_VALUE - 1);
+        PriceSeriesFile.write(new File(folder.getRoot(), "MSFT.prices"), new int[0], series);
+        BarSeries bars = new BarSeries();
+        new BinaryPriceSource(folder.getRoot()).load("MSFT", START, END, bars);
+        // Binary files are replayed newest first.
+
+        assertEquals(7, bars.size());
+        assertEquals(EpochDays.parseIso("2014-01-20"), bars.date(0));
+        assertEquals(36530000L, bars.value(PriceField.OPEN, 0));
+        assertEquals(37030000L, bars.value(PriceField.HIGH, 0));
+        assertEquals(36030000L, bars.value(PriceField.LOW, 0));
+        assertEquals(36630000L, bars.value(PriceField.CLOSE, 0));
+        assertEquals(30000000L * 1000000L, bars.value(PriceField.VOLUME, 0));
+        assertEquals(36630000L, bars.value(PriceField.ADJ_CLOSE, 0));
+    }
+
+    @Test
+    public void testBinaryInSegments() throws IOException {
+        BarSeries series = BarSeries.load(CsvPriceSource.forClasspath("/prices"), "MSFT", Integer.MIN_VALUE, Integer.MAX_VALUE - 1);
+        PriceSeriesFile.write(new File(folder.getRoot(), "MSFT.prices"), new int[0], series);
+        Metrics metrics = new Metrics();
+        // Windows of 3 rows, so that the 10 day up-run spans several of them.
+        PriceSource source = new BinaryPriceSource(folder.getRoot(), 0, 3, metrics);
+        assertExpectedRows(source);
+        assertExpectedCloseRows(source);
+
+        UpRunResult result = new UpRunFinder(source).findUpRun("MSFT", EpochDays.of(2014, 1, 1), EpochDays.of(2014, 1, 31));
+        assertEquals(EpochDays.parseIso("2014-01-13"), result.startDate);
+        assertEquals(EpochDays.parseIso("2014-01-24"), result.endDate);
+        assertEquals(10, result.duration);
+        assertEquals(7.000000000000001, result.percentChange, 0.0);
+        // 3 windows for each 7 row range, 7 for the whole month.
+        assertEquals(3L + 3L + 7L, metrics.snapshot().get("segment.map.count"));
+        assertTrue(metrics.snapshot().containsKey("memory.heap.peak_bytes"));
+
+        BarSeries bars = new BarSeries();
+        source.load("MSFT", START, END, bars);
+        assertEquals(7, bars.size());
+        assertEquals(36630000L, bars.value(PriceField.CLOSE, 0));
+        assertEquals(30000000L * 1000000L, bars.value(PriceField.VOLUME, 0));
+    }
+
+    @Test
+    public void testBinaryWriter() throws IOException {
+        BarSeries series = BarSeries.load(CsvPriceSource.forClasspath("/prices"), "MSFT", Integer.MIN_VALUE, Integer.MAX_VALUE - 1);
+        File file = new File(folder.getRoot(), "MSFT.prices");
+        int[] coverage = {series.date(0), series.date(series.size() - 1)};
+        try (PriceSeriesFile.Writer writer = PriceSeriesFile.writer(file, coverage)) {
+            long[] values = new long[PriceField.COUNT];
+            for (int i = 0; i < series.size(); i++) {
+                for (PriceField field : PriceField.values()) {
+                    values[field.ordinal()] = series.value(field, i);
+                }
+                writer.accept(series.date(i), values);
+            }
+            assertEquals(series.size(), writer.rows());
+        }
+        assertEquals(1, folder.getRoot().list().length);
+
+        PriceSeriesFile written = PriceSeriesFile.map(file);
+        assertEquals(series.size(), written.size());
+        assertEquals(coverage[0], written.coverage()[0]);
+        assertEquals(coverage[1], written.coverage()[1]);
+        BarSeries bars = written.toSeries();
+        for (int i = 0; i < series.size(); i++) {
+            assertEquals(series.date(i), bars.date(i));
+            for (PriceField field : PriceField.values()) {
+                assertEquals(series.value(field, i), bars.value(field, i));
+            }
+        }
+        assertExpectedRows(new BinaryPriceSource(folder.getRoot(), 0, 3, new Metrics()));
+    }
+
+    @Test
+    public void testBinaryWriterRejectsRowsOutOfOrder() throws IOException {
+        File file = new File(folder.getRoot(), "MSFT.prices");
+        PriceSeriesFile.Writer writer = PriceSeriesFile.writer(file, new int[0]);
+        writer.accept(EpochDays.of(2014, 1, 2), new long[PriceField.COUNT]);
+        try {
+            writer.accept(EpochDays.of(2014, 1, 2), new long[PriceField.COUNT]);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            writer.abort();
+        }
+        // Nothing is left behind, not even the temporary files.
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testCloseFromCsv() throws IOException {
+        assertExpectedCloseRows(CsvPriceSource.forClasspath("/prices"));
+    }
+
+    @Test
+    public void testInMemory() throws IOException {
+        PriceSeries series = PriceSeries.load(CsvPriceSource.forClasspath("/prices"), "MSFT", PriceField.OPEN,
+                Integer.MIN_VALUE, Integer.MAX_VALUE - 1);
+        assertExpectedRows(new InMemoryPriceSource().put("MSFT", series));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testUnknownSymbolOnClasspath() throws IOException {
+        CsvPriceSource.forClasspath("/prices").load("AAPL", START, END, new BarSeries());
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testUnknownSymbolInBinaryDirectory() throws IOException {
+        new BinaryPriceSource(folder.getRoot()).load("AAPL", START, END, new BarSeries());
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testUnknownSymbolInMemory() throws IOException {
+        new InMemoryPriceSource().load("AAPL", START, END, new BarSeries());
+    }
+
+    private static void assertExpectedRows(PriceSource source) throws IOException {
+        // Rows may be delivered in either order.
+        PriceSeries series = new PriceSeries();
+        source.load("msft", START, END, PriceField.OPEN.project(series));
+        series.orderChronologically();
+
+        assertEquals(7, series.size());
+        assertEquals(EpochDays.parseIso("2014-01-10"), series.date(0));
+        assertEquals(35630000L, series.price(0));
+        assertEquals(EpochDays.parseIso("2014-01-20"), series.date(6));
+        assertEquals(36530000L, series.price(6));
+    }
+
+    private static void assertExpectedCloseRows(PriceSource source) throws IOException {
+        PriceSeries series = new PriceSeries();
+        source.load("msft", START, END, PriceField.CLOSE.project(series));
+        series.orderChronologically();
+
+        assertEquals(7, series.size());
+        assertEquals(35730000L, series.price(0));
+        assertEquals(36630000L, series.price(6));
+    }
+
+    private static void copyFixture(File target) throws IOException {
+        try (InputStream in = Resources.getResource("prices/MSFT.csv").openStream()) {
+            Files.copy(in, target.toPath());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.collect.Lists;
+
+public class RollingUpRunsTest {
+
+    @Test
+    public void testMatchesIndexOnEveryTrailingWindow() {
+        Random random = new Random(5);
+        for (int trial = 0; trial < 50; trial++) {
+            PriceSeries series = randomSeries(random, 1 + random.nextInt(80));
+            RunIndex index = RunIndex.build(series);
+            int window = 1 + random.nextInt(20);
+
+            List<long[]> days = roll(series, window);
+            assertEquals(series.size(), days.size());
+            for (int i = 0; i < series.size(); i++) {
+                UpRunResult expected = index.query(series.date(Math.max(0, i - window + 1)), series.date(i));
+                long[] day = days.get(i);
+                assertEquals(series.date(i), day[0]);
+                assertEquals(expected.startDate, day[2]);
+                assertEquals(expected.endDate, day[3]);
+                assertEquals(expected.duration, day[4]);
+                assertEquals(expected.percentChange, UpRunFinder.computePercentChange(day[6], day[5]), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testCurrentRunIncludesDaysBeforeWindow() {
+        PriceSeries series = new PriceSeries();
+        long[] prices = {5, 1, 2, 3, 4, 5, 2};
+        for (int i = 0; i < prices.length; i++) {
+            series.add(100 + i, prices[i] * 1000000L);
+        }
+
+        List<long[]> days = roll(series, 3);
+        assertEquals(5, days.get(5)[1]);
+        assertEquals(3, days.get(5)[4]);
+        assertEquals(103, days.get(5)[2]);
+        assertEquals(1, days.get(6)[1]);
+        // Cut by the start of the window.
+        assertEquals(2, days.get(6)[4]);
+        assertEquals(104, days.get(6)[2]);
+        assertEquals(105, days.get(6)[3]);
+    }
+
+    @Test
+    public void testFindRollingUpRuns() {
+        UpRunFinder finder = new UpRunFinder(CsvPriceSource.forClasspath("/prices"));
+        final List<int[]> days = Lists.newArrayList();
+        finder.findRollingUpRuns("MSFT", EpochDays.of(2014, 1, 1), EpochDays.of(2014, 1, 31), 5, new RollingUpRuns.Listener() {
+            @Override
+            public void onDay(int date, int currentDuration, int startDate, int endDate, int duration, long startPrice, long endPrice) {
+                days.add(new int[] {date, currentDuration, duration});
+            }
+        });
+        assertEquals(21, days.size());
+        assertEquals(EpochDays.parseIso("2014-01-02"), days.get(0)[0]);
+        // 2014-01-24 ends the 10 day up-run, of which the window holds 5 days.
+        assertEquals(EpochDays.parseIso("2014-01-24"), days.get(16)[0]);
+        assertEquals(10, days.get(16)[1]);
+        assertEquals(5, days.get(16)[2]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRowsOutOfOrder() {
+        RollingUpRuns rolling = new RollingUpRuns(3, new RollingUpRuns.Listener() {
+            @Override
+            public void onDay(int date, int currentDuration, int startDate, int endDate, int duration, long startPrice, long endPrice) {
+            }
+        });
+        rolling.accept(11, 1000000L);
+        rolling.accept(10, 1000000L);
+    }
+
+    private static List<long[]> roll(PriceSeries series, int window) {
+        final List<long[]> days = Lists.newArrayList();
+        series.replay(new RollingUpRuns(window, new RollingUpRuns.Listener() {
+            @Override
+            public void onDay(int date, int currentDuration, int startDate, int endDate, int duration, long startPrice, long endPrice) {
+                days.add(new long[] {date, currentDuration, startDate, endDate, duration, startPrice, endPrice});
+            }
+        }));
+        return days;
+    }
+
+    private static PriceSeries randomSeries(Random random, int size) {
+        PriceSeries series = new PriceSeries();
+        int date = 16000;
+        for (int i = 0; i < size; i++) {
+            date += 1 + random.nextInt(3);
+            // Few distinct prices so that ties and equal-length runs are common.
+            series.add(date, (1 + random.nextInt(4)) * 1000000L);
+        }
+        return series;
+    }
+}
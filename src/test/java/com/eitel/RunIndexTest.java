@@ -0,0 +1,113 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.collect.Lists;
+
+public class RunIndexTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final UpRunFinder upRunFinder = new UpRunFinder(new InMemoryPriceSource());
+
+    @Test
+    public void testMatchesScanOnEveryWindow() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 50; trial++) {
+            PriceSeries series = randomSeries(random, 1 + random.nextInt(60));
+            RunIndex index = RunIndex.build(series);
+            for (int first = 0; first < series.size(); first++) {
+                for (int last = first; last < series.size(); last++) {
+                    int startDate = series.date(first);
+                    int endDate = series.date(last);
+                    assertSameResult(upRunFinder.processStockData(series.slice(startDate, endDate)), index.query(startDate, endDate));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWindowEdgesBetweenTradingDays() {
+        PriceSeries series = new PriceSeries();
+        series.add(10, 5000000L);
+        series.add(12, 6000000L);
+        series.add(14, 7000000L);
+        series.add(16, 1000000L);
+
+        UpRunResult result = RunIndex.build(series).query(11, 15);
+        assertEquals(2, result.duration);
+        assertEquals(12, result.startDate);
+        assertEquals(14, result.endDate);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWindowWithoutData() {
+        PriceSeries series = new PriceSeries();
+        series.add(10, 5000000L);
+        RunIndex.build(series).query(11, 15);
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        PriceSeries series = randomSeries(new Random(3), 500);
+        File file = new File(folder.getRoot(), "index");
+        RunIndex.build(series).write(file);
+        RunIndex index = RunIndex.read(file);
+
+        assertEquals(500, index.size());
+        assertSameResult(upRunFinder.processStockData(series), index.query(series.date(0), series.date(499)));
+        assertSameResult(upRunFinder.processStockData(series.slice(series.date(100), series.date(300))),
+                index.query(series.date(100), series.date(300)));
+    }
+
+    @Test
+    public void testFindUpRunsInWindows() {
+        UpRunFinder finder = new UpRunFinder(CsvPriceSource.forClasspath("/prices"));
+        List<int[]> windows = Lists.newArrayList();
+        // Weeks, overlapping windows, the whole month, and a window before the first trading day.
+        for (int day = 1; day <= 22; day += 7) {
+            windows.add(new int[] {EpochDays.of(2014, 1, day), EpochDays.of(2014, 1, day + 6)});
+        }
+        windows.add(new int[] {EpochDays.of(2014, 1, 10), EpochDays.of(2014, 1, 28)});
+        windows.add(new int[] {EpochDays.of(2014, 1, 1), EpochDays.of(2014, 1, 31)});
+        windows.add(new int[] {EpochDays.of(2013, 12, 20), EpochDays.of(2013, 12, 31)});
+
+        List<UpRunResult> results = finder.findUpRunsInWindows("MSFT", windows);
+        assertEquals(windows.size(), results.size());
+        for (int i = 0; i < windows.size() - 1; i++) {
+            assertSameResult(finder.findUpRun("MSFT", windows.get(i)[0], windows.get(i)[1]), results.get(i));
+        }
+        assertEquals(10, results.get(5).duration);
+        assertNull(results.get(6));
+    }
+
+    private static PriceSeries randomSeries(Random random, int size) {
+        PriceSeries series = new PriceSeries();
+        int date = 16000;
+        for (int i = 0; i < size; i++) {
+            date += 1 + random.nextInt(3);
+            // Few distinct prices so that ties and equal-length runs are common.
+            series.add(date, (1 + random.nextInt(4)) * 1000000L);
+        }
+        return series;
+    }
+
+    private static void assertSameResult(UpRunResult expected, UpRunResult actual) {
+        assertEquals(expected.duration, actual.duration);
+        assertEquals(expected.startDate, actual.startDate);
+        assertEquals(expected.endDate, actual.endDate);
+        assertEquals(expected.percentChange, actual.percentChange, 0.0);
+    }
+}
@@ -0,0 +1,82 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SyntheticSeriesTest {
+
+    // The largest CSV size of ParseBenchmark and FindUpRunBenchmark.
+    private static final int LARGEST_CSV_ROWS = 10 * 1000 * 1000;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLargestBenchmarkRoundTripsThroughCsv() throws Exception {
+        final PriceSeries series = SyntheticSeries.generate(SyntheticSeries.Shape.RANDOM_WALK, LARGEST_CSV_ROWS, 42);
+        List<PriceSeries> parts = SyntheticSeries.splitForCsv(series);
+        assertEquals((LARGEST_CSV_ROWS + SyntheticSeries.MAX_CSV_ROWS - 1) / SyntheticSeries.MAX_CSV_ROWS, parts.size());
+
+        PriceCsvParser parser = new PriceCsvParser(UpRunFinder.HEADER_DATE, UpRunFinder.HEADER_PRICE);
+        int row = 0;
+        for (final PriceSeries part : parts) {
+            // Streamed through a pipe, so the CSV text is never held in memory.
+            final PipedOutputStream pipe = new PipedOutputStream();
+            PipedInputStream in = new PipedInputStream(pipe, 1 << 16);
+            Future<Void> written = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    try (OutputStream out = new BufferedOutputStream(pipe, 1 << 16)) {
+                        SyntheticSeries.writeCsv(part, out);
+                    }
+                    return null;
+                }
+            });
+
+            final int partStart = row;
+            final int[] parsed = {0};
+            parser.parse(in, new PriceSink() {
+                @Override
+                public void accept(int date, long price) {
+                    // Newest row first.
+                    int i = part.size() - 1 - parsed[0]++;
+                    assertEquals(part.date(i), date);
+                    assertEquals(series.price(partStart + i), price);
+                }
+            });
+            written.get();
+            assertEquals(part.size(), parsed[0]);
+            assertTrue(part.date(part.size() - 1) <= EpochDays.of(9999, 12, 31));
+            row += part.size();
+        }
+        assertEquals(LARGEST_CSV_ROWS, row);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSeriesPastYear9999IsNotWritten() throws IOException {
+        PriceSeries series = SyntheticSeries.generate(SyntheticSeries.Shape.TIES, SyntheticSeries.MAX_CSV_ROWS + 1, 42);
+        SyntheticSeries.writeCsv(series, new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        });
+    }
+}
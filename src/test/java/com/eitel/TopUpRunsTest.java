@@ -0,0 +1,164 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.collect.Lists;
+
+public class TopUpRunsTest {
+
+    @Test
+    public void testEnumeratesEveryRun() {
+        PriceSeries series = series(50, 40, 20, 20, 35, 30, 10);
+        final List<int[]> runs = Lists.newArrayList();
+        UpRunEnumerator enumerator = new UpRunEnumerator(new UpRunListener() {
+            @Override
+            public void onUpRun(int startDate, int endDate, int duration, long startPrice, long endPrice) {
+                runs.add(new int[] {startDate, endDate, duration});
+            }
+        });
+        series.replayNewestFirst(enumerator);
+        enumerator.finish();
+
+        // Newest first: [10], [30], [20, 20, 35], [40], [50]
+        assertEquals(5, runs.size());
+        assertRun(runs.get(0), 6, 6, 1);
+        assertRun(runs.get(1), 5, 5, 1);
+        assertRun(runs.get(2), 2, 4, 3);
+        assertRun(runs.get(3), 1, 1, 1);
+        assertRun(runs.get(4), 0, 0, 1);
+    }
+
+    @Test
+    public void testEnumeratesEveryRunOldestFirst() {
+        PriceSeries series = series(50, 40, 20, 20, 35, 30, 10);
+        final List<int[]> runs = Lists.newArrayList();
+        UpRunEnumerator enumerator = new UpRunEnumerator(new UpRunListener() {
+            @Override
+            public void onUpRun(int startDate, int endDate, int duration, long startPrice, long endPrice) {
+                runs.add(new int[] {startDate, endDate, duration});
+            }
+        });
+        series.replay(enumerator);
+        enumerator.finish();
+
+        assertEquals(5, runs.size());
+        assertRun(runs.get(0), 0, 0, 1);
+        assertRun(runs.get(1), 1, 1, 1);
+        assertRun(runs.get(2), 2, 4, 3);
+        assertRun(runs.get(3), 5, 5, 1);
+        assertRun(runs.get(4), 6, 6, 1);
+    }
+
+    @Test
+    public void testTopByDuration() {
+        PriceSeries series = series(10, 20, 30, 40, 5, 6, 7, 1, 2, 3, 4, 1, 9);
+        TopUpRuns topUpRuns = new TopUpRuns(3, TopUpRuns.Ranking.DURATION);
+        enumerate(series, topUpRuns);
+
+        List<UpRunResult> results = topUpRuns.results();
+        assertEquals(3, results.size());
+        // Equally long runs are ordered most recent first.
+        assertResult(results.get(0), 7, 10, 4);
+        assertResult(results.get(1), 0, 3, 4);
+        assertResult(results.get(2), 4, 6, 3);
+        assertEquals(300.0, results.get(0).percentChange, 0.1);
+    }
+
+    @Test
+    public void testTopByPercentGain() {
+        PriceSeries series = series(10, 20, 30, 40, 5, 6, 7, 1, 9);
+        TopUpRuns topUpRuns = new TopUpRuns(2, TopUpRuns.Ranking.PERCENT_GAIN);
+        enumerate(series, topUpRuns);
+
+        List<UpRunResult> results = topUpRuns.results();
+        assertEquals(2, results.size());
+        assertResult(results.get(0), 7, 8, 2);
+        assertEquals(800.0, results.get(0).percentChange, 0.1);
+        assertResult(results.get(1), 0, 3, 4);
+    }
+
+    @Test
+    public void testMatchesSortingAllRuns() {
+        Random random = new Random(11);
+        long[] prices = new long[2000];
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = 1 + random.nextInt(5);
+        }
+        PriceSeries series = series(prices);
+
+        final List<int[]> runs = Lists.newArrayList();
+        final TopUpRuns topUpRuns = new TopUpRuns(25, TopUpRuns.Ranking.DURATION);
+        enumerate(series, new UpRunListener() {
+            @Override
+            public void onUpRun(int startDate, int endDate, int duration, long startPrice, long endPrice) {
+                runs.add(new int[] {startDate, endDate, duration});
+                topUpRuns.onUpRun(startDate, endDate, duration, startPrice, endPrice);
+            }
+        });
+
+        int rows = 0;
+        for (int[] run : runs) {
+            rows += run[2];
+        }
+        assertEquals(series.size(), rows);
+        Collections.sort(runs, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return a[2] != b[2] ? Integer.compare(b[2], a[2]) : Integer.compare(b[1], a[1]);
+            }
+        });
+        List<UpRunResult> results = topUpRuns.results();
+        for (int i = 0; i < 25; i++) {
+            assertResult(results.get(i), runs.get(i)[0], runs.get(i)[1], runs.get(i)[2]);
+        }
+    }
+
+    @Test
+    public void testFindTopUpRuns() {
+        UpRunFinder finder = new UpRunFinder(CsvPriceSource.forClasspath("/prices"));
+        List<UpRunResult> results = finder.findTopUpRuns("MSFT", new DateTime(2014, 1, 1, 0, 0), new DateTime(2014, 1, 31, 0, 0),
+                2, TopUpRuns.Ranking.DURATION);
+        assertEquals(2, results.size());
+        assertEquals(EpochDays.parseIso("2014-01-13"), results.get(0).startDate);
+        assertEquals(EpochDays.parseIso("2014-01-24"), results.get(0).endDate);
+        assertEquals(10, results.get(0).duration);
+        assertEquals(EpochDays.parseIso("2014-01-28"), results.get(1).startDate);
+        assertEquals(EpochDays.parseIso("2014-01-30"), results.get(1).endDate);
+        assertEquals(3, results.get(1).duration);
+    }
+
+    private static void enumerate(PriceSeries series, UpRunListener listener) {
+        UpRunEnumerator enumerator = new UpRunEnumerator(listener);
+        series.replayNewestFirst(enumerator);
+        enumerator.finish();
+    }
+
+    private static PriceSeries series(long... prices) {
+        PriceSeries series = new PriceSeries();
+        for (int i = 0; i < prices.length; i++) {
+            series.add(i, prices[i] * 1000000L);
+        }
+        return series;
+    }
+
+    private static void assertRun(int[] run, int startDate, int endDate, int duration) {
+        assertEquals(startDate, run[0]);
+        assertEquals(endDate, run[1]);
+        assertEquals(duration, run[2]);
+    }
+
+    private static void assertResult(UpRunResult result, int startDate, int endDate, int duration) {
+        assertEquals(startDate, result.startDate);
+        assertEquals(endDate, result.endDate);
+        assertEquals(duration, result.duration);
+    }
+}
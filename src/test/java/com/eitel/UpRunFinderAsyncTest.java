@@ -0,0 +1,125 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Test;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class UpRunFinderAsyncTest {
+
+    private static final DateTime START = new DateTime(2014, 1, 1, 0, 0);
+    private static final DateTime END = new DateTime(2014, 1, 31, 0, 0);
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final BlockingSource blocking = new BlockingSource();
+
+    @After
+    public void after() throws InterruptedException {
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFindUpRunAsync() throws Exception {
+        UpRunFinder finder = new UpRunFinder(CsvPriceSource.forClasspath("/prices"));
+        UpRunResult result = finder.findUpRunAsync("MSFT", START, END, executor).get(10, TimeUnit.SECONDS);
+        assertEquals(EpochDays.parseIso("2014-01-13"), result.startDate);
+        assertEquals(EpochDays.parseIso("2014-01-24"), result.endDate);
+        assertEquals(10, result.duration);
+    }
+
+    @Test
+    public void testFailuresAreReportedByTheFuture() throws Exception {
+        UpRunFinder finder = new UpRunFinder(CsvPriceSource.forClasspath("/prices"));
+        assertFailure(finder.findUpRunAsync("AAPL", START, END, executor), InvalidStockSymbolException.class);
+        assertFailure(finder.findUpRunAsync("MSFT", END, START, executor), IllegalArgumentException.class);
+
+        executor.shutdown();
+        assertFailure(finder.findUpRunAsync("MSFT", START, END, executor), RejectedExecutionException.class);
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        UpRunFinder finder = new UpRunFinder(blocking);
+        ListenableFuture<UpRunResult> result = finder.findUpRunAsync("MSFT", START, END, executor, 50, TimeUnit.MILLISECONDS, scheduler);
+        assertFailure(result, TimeoutException.class);
+        // The query is interrupted rather than left running.
+        assertTrue(blocking.interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        UpRunFinder finder = new UpRunFinder(blocking);
+        ListenableFuture<UpRunResult> result = finder.findUpRunAsync("MSFT", START, END, executor, 1, TimeUnit.HOURS, scheduler);
+        assertTrue(blocking.started.await(10, TimeUnit.SECONDS));
+        assertTrue(result.cancel(true));
+        assertTrue(blocking.interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testInterruptStopsDeliveredRows() throws Exception {
+        final CountDownLatch delivering = new CountDownLatch(1);
+        PriceSource endless = new PriceSource() {
+            @Override
+            public void load(String stockSymbol, int startDate, int endDate, BarSink sink) {
+                long[] values = new long[PriceField.COUNT];
+                for (int date = endDate; ; date--) {
+                    delivering.countDown();
+                    values[PriceField.OPEN.ordinal()] = 1000000L;
+                    sink.accept(date, values);
+                }
+            }
+        };
+        ListenableFuture<UpRunResult> result = new UpRunFinder(endless).findUpRunAsync("MSFT", 0, Integer.MAX_VALUE - 1, executor);
+        assertTrue(delivering.await(10, TimeUnit.SECONDS));
+        result.cancel(true);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private static void assertFailure(ListenableFuture<UpRunResult> future, Class<? extends Throwable> expected) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Expected " + expected.getSimpleName());
+        } catch (ExecutionException e) {
+            assertEquals(expected, e.getCause().getClass());
+        }
+    }
+
+    /**
+     * Waits until interrupted.
+     */
+    private static class BlockingSource implements PriceSource {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        @Override
+        public void load(String stockSymbol, int startDate, int endDate, BarSink sink) throws IOException {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new IOException(e);
+            }
+        }
+    }
+}
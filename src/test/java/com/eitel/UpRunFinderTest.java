@@ -2,7 +2,9 @@ package com.eitel;
 
 import static org.junit.Assert.assertEquals;
 
+import java.math.BigDecimal;
 import java.util.List;
+import java.util.Random;
 
 import org.joda.time.DateTime;
 import org.junit.Before;
@@ -36,58 +38,58 @@ public class UpRunFinderTest {
     @Test
     public void testNoUpRuns() {
         List<StockData> data = Lists.newArrayList();
-        data.add(new StockData("01-12-2014", "20.00"));
-        data.add(new StockData("01-11-2014", "21.00"));
-        data.add(new StockData("01-10-2014", "22.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 12), "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 11), "21.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 10), "22.00"));
 
         UpRunResult result = this.upRunFinder.processStockData(data);
         assertEquals(1, result.duration);
-        assertEquals("01-10-2014", result.startDate);
-        assertEquals("01-10-2014", result.endDate);
+        assertEquals(EpochDays.of(2014, 1, 10), result.startDate);
+        assertEquals(EpochDays.of(2014, 1, 10), result.endDate);
         assertEquals(0, result.percentChange, 0.1);
     }
 
     @Test
     public void testEntireRangeIsUpRun() {
         List<StockData> data = Lists.newArrayList();
-        data.add(new StockData("01-12-2014", "30.00"));
-        data.add(new StockData("01-11-2014", "25.00"));
-        data.add(new StockData("01-10-2014", "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 12), "30.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 11), "25.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 10), "20.00"));
 
         UpRunResult result = this.upRunFinder.processStockData(data);
         assertEquals(3, result.duration);
-        assertEquals("01-10-2014", result.startDate);
-        assertEquals("01-12-2014", result.endDate);
+        assertEquals(EpochDays.of(2014, 1, 10), result.startDate);
+        assertEquals(EpochDays.of(2014, 1, 12), result.endDate);
         assertEquals(50.0, result.percentChange, 0.1);
     }
 
     @Test
     public void testStartAtUpRun() {
         List<StockData> data = Lists.newArrayList();
-        data.add(new StockData("01-13-2014", "5.00"));
-        data.add(new StockData("01-12-2014", "30.00"));
-        data.add(new StockData("01-11-2014", "25.00"));
-        data.add(new StockData("01-10-2014", "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 13), "5.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 12), "30.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 11), "25.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 10), "20.00"));
 
         UpRunResult result = this.upRunFinder.processStockData(data);
         assertEquals(3, result.duration);
-        assertEquals("01-10-2014", result.startDate);
-        assertEquals("01-12-2014", result.endDate);
+        assertEquals(EpochDays.of(2014, 1, 10), result.startDate);
+        assertEquals(EpochDays.of(2014, 1, 12), result.endDate);
         assertEquals(50.0, result.percentChange, 0.1);
     }
 
     @Test
     public void testEndAtUpRun() {
         List<StockData> data = Lists.newArrayList();
-        data.add(new StockData("01-13-2014", "40.00"));
-        data.add(new StockData("01-12-2014", "30.00"));
-        data.add(new StockData("01-11-2014", "20.00"));
-        data.add(new StockData("01-10-2014", "50.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 13), "40.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 12), "30.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 11), "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 10), "50.00"));
 
         UpRunResult result = this.upRunFinder.processStockData(data);
         assertEquals(3, result.duration);
-        assertEquals("01-11-2014", result.startDate);
-        assertEquals("01-13-2014", result.endDate);
+        assertEquals(EpochDays.of(2014, 1, 11), result.startDate);
+        assertEquals(EpochDays.of(2014, 1, 13), result.endDate);
         assertEquals(100.0, result.percentChange, 0.1);
     }
 
@@ -97,84 +99,175 @@ public class UpRunFinderTest {
     @Test
     public void testMultipleUpRunsOfSameDuration() {
         List<StockData> data = Lists.newArrayList();
-        data.add(new StockData("01-16-2014", "40.00"));
-        data.add(new StockData("01-15-2014", "30.00"));
-        data.add(new StockData("01-14-2014", "20.00"));
-        data.add(new StockData("01-13-2014", "40.00"));
-        data.add(new StockData("01-12-2014", "30.00"));
-        data.add(new StockData("01-11-2014", "20.00"));
-        data.add(new StockData("01-10-2014", "50.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 16), "40.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 15), "30.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 14), "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 13), "40.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 12), "30.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 11), "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 10), "50.00"));
 
         UpRunResult result = this.upRunFinder.processStockData(data);
         assertEquals(3, result.duration);
-        assertEquals("01-14-2014", result.startDate);
-        assertEquals("01-16-2014", result.endDate);
+        assertEquals(EpochDays.of(2014, 1, 14), result.startDate);
+        assertEquals(EpochDays.of(2014, 1, 16), result.endDate);
         assertEquals(100.0, result.percentChange, 0.1);
     }
 
     @Test
     public void testMultipleUpRunsOfDifferentDurations() {
         List<StockData> data = Lists.newArrayList();
-        data.add(new StockData("01-16-2014", "40.00"));
-        data.add(new StockData("01-15-2014", "30.00"));
-        data.add(new StockData("01-14-2014", "20.00"));
-        data.add(new StockData("01-13-2014", "40.00"));
-        data.add(new StockData("01-12-2014", "30.00"));
-        data.add(new StockData("01-11-2014", "20.00"));
-        data.add(new StockData("01-10-2014", "10.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 16), "40.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 15), "30.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 14), "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 13), "40.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 12), "30.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 11), "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 10), "10.00"));
 
         UpRunResult result = this.upRunFinder.processStockData(data);
         assertEquals(4, result.duration);
-        assertEquals("01-10-2014", result.startDate);
-        assertEquals("01-13-2014", result.endDate);
+        assertEquals(EpochDays.of(2014, 1, 10), result.startDate);
+        assertEquals(EpochDays.of(2014, 1, 13), result.endDate);
         assertEquals(300.0, result.percentChange, 0.1);
     }
 
     @Test
     public void testDateSkipping() {
         List<StockData> data = Lists.newArrayList();
-        data.add(new StockData("01-17-2014", "35.00"));
-        data.add(new StockData("01-16-2014", "40.00"));
-        data.add(new StockData("01-11-2014", "20.00"));
-        data.add(new StockData("01-10-2014", "50.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 17), "35.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 16), "40.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 11), "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 10), "50.00"));
 
         UpRunResult result = this.upRunFinder.processStockData(data);
         assertEquals(2, result.duration);
-        assertEquals("01-11-2014", result.startDate);
-        assertEquals("01-16-2014", result.endDate);
+        assertEquals(EpochDays.of(2014, 1, 11), result.startDate);
+        assertEquals(EpochDays.of(2014, 1, 16), result.endDate);
         assertEquals(100.0, result.percentChange, 0.1);
     }
 
     @Test
     public void testDaysWithSamePrices() {
         List<StockData> data = Lists.newArrayList();
-        data.add(new StockData("01-14-2014", "35.00"));
-        data.add(new StockData("01-13-2014", "40.00"));
-        data.add(new StockData("01-12-2014", "20.00"));
-        data.add(new StockData("01-11-2014", "20.00"));
-        data.add(new StockData("01-10-2014", "50.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 14), "35.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 13), "40.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 12), "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 11), "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 10), "50.00"));
 
         UpRunResult result = this.upRunFinder.processStockData(data);
         assertEquals(3, result.duration);
-        assertEquals("01-11-2014", result.startDate);
-        assertEquals("01-13-2014", result.endDate);
+        assertEquals(EpochDays.of(2014, 1, 11), result.startDate);
+        assertEquals(EpochDays.of(2014, 1, 13), result.endDate);
         assertEquals(100.0, result.percentChange, 0.1);
     }
 
     @Test
     public void testOnlyDaysWithSamePrices() {
         List<StockData> data = Lists.newArrayList();
-        data.add(new StockData("01-15-2014", "5.00"));
-        data.add(new StockData("01-14-2014", "20.00"));
-        data.add(new StockData("01-13-2014", "20.00"));
-        data.add(new StockData("01-12-2014", "20.00"));
-        data.add(new StockData("01-11-2014", "20.00"));
-        data.add(new StockData("01-10-2014", "50.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 15), "5.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 14), "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 13), "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 12), "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 11), "20.00"));
+        data.add(new StockData(EpochDays.of(2014, 1, 10), "50.00"));
 
         UpRunResult result = this.upRunFinder.processStockData(data);
         assertEquals(4, result.duration);
-        assertEquals("01-11-2014", result.startDate);
-        assertEquals("01-14-2014", result.endDate);
+        assertEquals(EpochDays.of(2014, 1, 11), result.startDate);
+        assertEquals(EpochDays.of(2014, 1, 14), result.endDate);
         assertEquals(0, result.percentChange, 0.1);
     }
+
+    @Test
+    public void testPriceSeriesMatchesStockData() {
+        PriceSeries series = new PriceSeries();
+        series.add(EpochDays.parseIso("2014-01-10"), PriceSeries.toFixedPoint(new BigDecimal("50.00")));
+        series.add(EpochDays.parseIso("2014-01-11"), PriceSeries.toFixedPoint(new BigDecimal("20.00")));
+        series.add(EpochDays.parseIso("2014-01-12"), PriceSeries.toFixedPoint(new BigDecimal("20.00")));
+        series.add(EpochDays.parseIso("2014-01-13"), PriceSeries.toFixedPoint(new BigDecimal("40.00")));
+        series.add(EpochDays.parseIso("2014-01-14"), PriceSeries.toFixedPoint(new BigDecimal("35.00")));
+
+        UpRunResult result = this.upRunFinder.processStockData(series);
+        assertEquals(3, result.duration);
+        assertEquals(EpochDays.parseIso("2014-01-11"), result.startDate);
+        assertEquals(EpochDays.parseIso("2014-01-13"), result.endDate);
+        assertEquals(100.0, result.percentChange, 0.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyPriceSeries() {
+        this.upRunFinder.processStockData(new PriceSeries());
+    }
+
+    @Test
+    public void testPriceSeriesMatchesStockDataOnRandomData() {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 500; trial++) {
+            int size = 1 + random.nextInt(40);
+            int firstDay = EpochDays.parseIso("2000-01-01") + random.nextInt(5000);
+
+            PriceSeries series = new PriceSeries();
+            List<StockData> data = Lists.newArrayList();
+            for (int i = 0; i < size; i++) {
+                // Few distinct prices so that ties and equal-length runs are common.
+                BigDecimal price = BigDecimal.valueOf(10 + random.nextInt(4), 2);
+                series.add(firstDay + i, PriceSeries.toFixedPoint(price));
+                data.add(0, new StockData(firstDay + i, price));
+            }
+
+            UpRunResult expected = this.upRunFinder.processStockData(data);
+            UpRunResult actual = this.upRunFinder.processStockData(series);
+            assertEquals(expected.duration, actual.duration);
+            assertEquals(expected.startDate, actual.startDate);
+            assertEquals(expected.endDate, actual.endDate);
+            assertEquals(expected.percentChange, actual.percentChange, 0.0);
+        }
+    }
+
+    @Test
+    public void testScannerDetectsRowOrder() {
+        Random random = new Random(5);
+        for (int trial = 0; trial < 200; trial++) {
+            PriceSeries series = new PriceSeries();
+            UpRunScanner appending = new UpRunScanner();
+            for (int i = 0; i < 1 + random.nextInt(40); i++) {
+                series.add(i, (10 + random.nextInt(4)) * 10000L);
+                // Folding in each new day matches a scan of the whole history so far.
+                appending.accept(i, series.price(i));
+                assertSameResult(this.upRunFinder.processStockData(series), appending.result());
+            }
+
+            UpRunScanner newestFirst = new UpRunScanner();
+            series.replayNewestFirst(newestFirst);
+            assertSameResult(appending.result(), newestFirst.result());
+            if (series.size() > 1) {
+                assertEquals(RowOrder.OLDEST_FIRST, appending.order());
+                assertEquals(RowOrder.NEWEST_FIRST, newestFirst.order());
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScannerRejectsRowsOutOfOrder() {
+        UpRunScanner scanner = new UpRunScanner();
+        scanner.accept(10, 1000000L);
+        scanner.accept(11, 1000000L);
+        scanner.accept(9, 1000000L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScannerRejectsRowsAgainstDeclaredOrder() {
+        UpRunScanner scanner = new UpRunScanner(RowOrder.NEWEST_FIRST);
+        scanner.accept(10, 1000000L);
+        scanner.accept(11, 1000000L);
+    }
+
+    private static void assertSameResult(UpRunResult expected, UpRunResult actual) {
+        assertEquals(expected.duration, actual.duration);
+        assertEquals(expected.startDate, actual.startDate);
+        assertEquals(expected.endDate, actual.endDate);
+        assertEquals(expected.percentChange, actual.percentChange, 0.0);
+    }
 }
@@ -0,0 +1,104 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class UpRunServerTest {
+
+    private UpRunServer server;
+
+    @Before
+    public void before() throws IOException {
+        Metrics metrics = new Metrics();
+        PriceSource source = new MemoryPriceCache(CsvPriceSource.forClasspath("/prices", metrics), 1000, 60, metrics);
+        this.server = new UpRunServer(new UpRunFinder(source, PriceField.OPEN, metrics), new InetSocketAddress("127.0.0.1", 0), 2);
+        this.server.start();
+    }
+
+    @After
+    public void after() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testQuery() throws IOException {
+        assertEquals("200 {\"symbol\":\"MSFT\",\"start\":\"2014-01-13\",\"end\":\"2014-01-24\",\"duration\":10,"
+                + "\"percentGain\":7.000000000000001}\n", get("/uprun?symbol=MSFT&start=01-01-2014&end=01-31-2014"));
+        // Answered from memory.
+        assertEquals("200 {\"symbol\":\"MSFT\",\"start\":\"2014-01-13\",\"end\":\"2014-01-17\",\"duration\":5,"
+                + "\"percentGain\":5.0}\n", get("/uprun?symbol=MSFT&start=01-01-2014&end=01-17-2014"));
+    }
+
+    @Test
+    public void testField() throws IOException {
+        String response = get("/uprun?symbol=MSFT&start=01-01-2014&end=01-31-2014&field=close");
+        assertTrue(response, response.startsWith("200 {\"symbol\":\"MSFT\",\"start\":"));
+        assertEquals("400 {\"error\":\"Incorrectly formatted input provided.\"}\n",
+                get("/uprun?symbol=MSFT&start=01-01-2014&end=01-31-2014&field=bid"));
+    }
+
+    @Test
+    public void testTopUpRuns() throws IOException {
+        String response = get("/uprun?symbol=MSFT&start=01-01-2014&end=01-31-2014&k=2");
+        assertTrue(response, response.startsWith("200 {\"symbol\":\"MSFT\",\"upRuns\":["
+                + "{\"start\":\"2014-01-13\",\"end\":\"2014-01-24\",\"duration\":10,\"percentGain\":7.000000000000001},"
+                + "{\"start\":\"2014-01-28\",\"end\":\"2014-01-30\",\"duration\":3,"));
+        assertTrue(response, response.endsWith("}]}\n"));
+    }
+
+    @Test
+    public void testTextFormat() throws IOException {
+        assertEquals(String.format("200 Start: 2014-01-13%nEnd: 2014-01-24%nDuration: 10 business days%n"
+                + "Percent Gain: 7.000000000000001%%%n"), get("/uprun?symbol=MSFT&start=01-01-2014&end=01-31-2014&format=text"));
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        assertEquals("404 {\"error\":\"Invalid stock symbol provided: MSFT1234\"}\n",
+                get("/uprun?symbol=MSFT1234&start=01-01-2014&end=01-31-2014"));
+        assertEquals("400 {\"error\":\"Invalid arguments provided.\"}\n",
+                get("/uprun?symbol=MSFT&start=01-31-2014&end=01-01-2014"));
+        assertEquals("400 {\"error\":\"Incorrectly formatted input provided.\"}\n",
+                get("/uprun?symbol=MSFT&start=01/01/2014&end=01-31-2014"));
+        assertEquals("400 Incorrectly formatted input provided.\n", get("/uprun?symbol=MSFT&format=text"));
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        get("/uprun?symbol=MSFT&start=01-01-2014&end=01-31-2014");
+        get("/uprun?symbol=MSFT&start=01-01-2014&end=01-17-2014");
+        String response = get("/metrics");
+        assertTrue(response, response.startsWith("200 "));
+        assertTrue(response, response.contains("\nhttp.requests.max_ms "));
+        assertTrue(response, response.contains("\nmemory-cache.hits 1\n"));
+        assertTrue(response, response.contains("\nmemory-cache.misses 1\n"));
+        assertTrue(response, response.contains("\nparse.rows 21\n"));
+    }
+
+    @Test
+    public void testHealth() throws IOException {
+        assertEquals("200 ok\n", get("/health"));
+    }
+
+    private String get(String path) throws IOException {
+        URL url = new URL("http", "127.0.0.1", server.address().getPort(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        int status = connection.getResponseCode();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            return status + " " + new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+}
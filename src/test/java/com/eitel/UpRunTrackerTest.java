@@ -0,0 +1,134 @@
+package com.eitel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.eitel.UpRunFinder.UpRunResult;
+import com.google.common.collect.ImmutableMap;
+
+public class UpRunTrackerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final UpRunFinder upRunFinder = new UpRunFinder(new InMemoryPriceSource());
+
+    @Test
+    public void testMatchesFullScanAfterEveryBar() {
+        Random random = new Random(17);
+        for (int trial = 0; trial < 100; trial++) {
+            PriceSeries history = randomSeries(random, 1 + random.nextInt(30), 0);
+            UpRunTracker tracker = UpRunTracker.seed(history);
+            assertSameResult(upRunFinder.processStockData(history), tracker.longest());
+
+            PriceSeries series = history.slice(Integer.MIN_VALUE, Integer.MAX_VALUE - 1);
+            for (int i = 0; i < 30; i++) {
+                int date = series.date(series.size() - 1) + 1 + random.nextInt(3);
+                long price = (10 + random.nextInt(4)) * 10000L;
+                series.add(date, price);
+                tracker.update(date, price);
+                assertSameResult(upRunFinder.processStockData(series), tracker.longest());
+            }
+            assertEquals(series.size(), tracker.days());
+        }
+    }
+
+    @Test
+    public void testIntradayRevisionsOfTheLatestBar() {
+        UpRunTracker tracker = UpRunTracker.seed(series(10, 20, 30, 5));
+        tracker.update(4, 6000000L);
+        tracker.update(4, 40000000L);
+        // 10, 20, 30, 5, 40
+        assertEquals(3, tracker.longest().duration);
+        assertEquals(0, tracker.longest().startDate);
+        assertEquals(2, tracker.current().duration);
+        assertEquals(3, tracker.current().startDate);
+
+        tracker.update(4, 1000000L);
+        // 10, 20, 30, 5, 1
+        assertEquals(1, tracker.current().duration);
+        assertEquals(4, tracker.current().startDate);
+        assertEquals(5, tracker.days());
+    }
+
+    @Test
+    public void testCurrentRun() {
+        UpRunTracker tracker = UpRunTracker.seed(series(30, 10, 20, 20));
+        UpRunResult current = tracker.current();
+        assertEquals(3, current.duration);
+        assertEquals(1, current.startDate);
+        assertEquals(3, current.endDate);
+        assertEquals(100.0, current.percentChange, 0.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOlderBarsAreRejected() {
+        UpRunTracker tracker = UpRunTracker.seed(series(10, 20, 30));
+        tracker.update(1, 1000000L);
+    }
+
+    @Test
+    public void testSnapshotAndRestore() throws IOException {
+        UpRunTracker msft = UpRunTracker.seed(series(10, 20, 30, 5, 6));
+        UpRunTracker aapl = UpRunTracker.seed(series(50, 40));
+        File file = folder.newFile("trackers.snapshot");
+        UpRunTracker.writeAll(file, ImmutableMap.of("MSFT", msft, "AAPL", aapl));
+
+        Map<String, UpRunTracker> restored = UpRunTracker.readAll(file);
+        assertEquals(2, restored.size());
+        assertSameResult(msft.longest(), restored.get("MSFT").longest());
+        assertSameResult(aapl.longest(), restored.get("AAPL").longest());
+
+        // Restored trackers continue where they left off, including revisions of the latest bar.
+        msft.update(4, 7000000L);
+        restored.get("MSFT").update(4, 7000000L);
+        msft.update(5, 8000000L);
+        restored.get("MSFT").update(5, 8000000L);
+        assertSameResult(msft.longest(), restored.get("MSFT").longest());
+        assertSameResult(msft.current(), restored.get("MSFT").current());
+
+        File single = new File(folder.getRoot(), "msft.snapshot");
+        msft.write(single);
+        assertSameResult(msft.longest(), UpRunTracker.read(single).longest());
+    }
+
+    @Test
+    public void testFromFinder() {
+        UpRunTracker tracker = new UpRunFinder(CsvPriceSource.forClasspath("/prices"))
+                .track("MSFT", EpochDays.parseIso("2014-01-01"), EpochDays.parseIso("2014-01-31"));
+        assertEquals(EpochDays.parseIso("2014-01-13"), tracker.longest().startDate);
+        assertEquals(EpochDays.parseIso("2014-01-24"), tracker.longest().endDate);
+        assertEquals(EpochDays.parseIso("2014-01-28"), tracker.current().startDate);
+    }
+
+    private static PriceSeries series(long... prices) {
+        PriceSeries series = new PriceSeries();
+        for (int i = 0; i < prices.length; i++) {
+            series.add(i, prices[i] * 1000000L);
+        }
+        return series;
+    }
+
+    private static PriceSeries randomSeries(Random random, int size, int firstDay) {
+        PriceSeries series = new PriceSeries();
+        for (int i = 0; i < size; i++) {
+            series.add(firstDay + i, (10 + random.nextInt(4)) * 10000L);
+        }
+        return series;
+    }
+
+    private static void assertSameResult(UpRunResult expected, UpRunResult actual) {
+        assertEquals(expected.duration, actual.duration);
+        assertEquals(expected.startDate, actual.startDate);
+        assertEquals(expected.endDate, actual.endDate);
+        assertEquals(expected.percentChange, actual.percentChange, 0.0);
+    }
+}